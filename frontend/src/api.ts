@@ -297,6 +297,23 @@ export type Document = {
   createdBy?: string;
 };
 
+// 入库任务（上传后在后台完成解析、切分、向量化、存储）
+export type IngestionJob = {
+  id: number;
+  docId: number;
+  filename: string;
+  mode: 'CREATE' | 'REPLACE';
+  stage: 'PARSE' | 'CHUNK' | 'EMBED' | 'STORE' | 'DONE';
+  status: 'PENDING' | 'RUNNING' | 'DONE' | 'FAILED';
+  attempts: number;
+  totalChunks: number;
+  embeddedChunks: number;
+  storedChunks: number;
+  reusedChunks: number;
+  removedChunks: number;
+  errorMessage?: string;
+};
+
 // 文档引用信息
 export interface DocumentReference {
   content: string;
@@ -308,7 +325,7 @@ export interface DocumentReference {
 // 文档 API
 export const documentApi = {
   // 上传文档
-  upload: (file: File, description?: string): Promise<ApiResponse<Document>> => {
+  upload: (file: File, description?: string): Promise<ApiResponse<IngestionJob>> => {
     const formData = new FormData();
     formData.append('file', file);
     if (description) {
@@ -322,6 +339,21 @@ export const documentApi = {
     }).then(res => res.data);
   },
 
+  // 用新文件替换文档内容（只处理有变化的分片）
+  replace: (id: number, file: File, description?: string): Promise<ApiResponse<IngestionJob>> => {
+    const formData = new FormData();
+    formData.append('file', file);
+    if (description) {
+      formData.append('description', description);
+    }
+
+    return axios.put(`http://localhost:8080/api/document/${id}`, formData, {
+      headers: {
+        'Content-Type': 'multipart/form-data',
+      },
+    }).then(res => res.data);
+  },
+
   // 获取文档列表
   list: (): Promise<ApiResponse<Document[]>> => {
     return axios.get('http://localhost:8080/api/document/list').then(res => res.data);
@@ -332,6 +364,11 @@ export const documentApi = {
     return axios.get(`http://localhost:8080/api/document/${id}`).then(res => res.data);
   },
 
+  // 查询入库任务
+  getJob: (jobId: number): Promise<ApiResponse<IngestionJob>> => {
+    return axios.get(`http://localhost:8080/api/document/jobs/${jobId}`).then(res => res.data);
+  },
+
   // 删除文档
   delete: (id: number): Promise<ApiResponse<string>> => {
     return axios.delete(`http://localhost:8080/api/document/${id}`).then(res => res.data);
@@ -0,0 +1,249 @@
+package com.example.demo.cache;
+
+import com.example.demo.domain.Message;
+import com.example.demo.repository.MessageRepository;
+import com.example.demo.repository.MessageWriteBehind;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 活跃会话最近消息的内存窗口：每个会话一个固定容量的环形缓冲区，保存最近 window 条消息
+ * 第一次读取时用 MessageRepository.findRecentByConversationId 从库里取最近 window 条，之后新保存的消息由 append 追加，
+ * 构建对话历史不再查库。会话数按 LRU 有上限。
+ * 窗口按消息 ID 有序、去重（并发保存时 ID 较小的消息可能后到，按位置插入，比窗口里都早的才丢弃）；加载是异步的（R2DBC），
+ * 加载期间追加的消息先记在窗口里，加载完成时一起合并，不会重复也不会丢。
+ * 加载时合并 MessageWriteBehind 里还没写进库的消息。
+ */
+@Component
+public class ConversationHistoryCache {
+
+    private final MessageRepository messageRepository;
+    private final MessageWriteBehind messageWriter;
+    private final int window;
+    private final int maxConversations;
+
+    // accessOrder = true：淘汰最久没有活动的会话
+    private final LinkedHashMap<Long, Window> windows;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong appends = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ConversationHistoryCache(MessageRepository messageRepository,
+                                    MessageWriteBehind messageWriter,
+                                    @Value("${app.chat.history.window:10}") int window,
+                                    @Value("${app.chat.history.max-conversations:1000}") int maxConversations) {
+        this.messageRepository = messageRepository;
+        this.messageWriter = messageWriter;
+        this.window = Math.max(1, window);
+        this.maxConversations = maxConversations;
+        this.windows = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Window> eldest) {
+                if (size() > ConversationHistoryCache.this.maxConversations) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 会话最近的消息（最多 window 条），按时间正序
+     */
+    public Mono<List<HistoryMessage>> recent(Long conversationId) {
+        return Mono.defer(() -> {
+            Window current;
+            synchronized (windows) {
+                current = windows.computeIfAbsent(conversationId, id -> new Window(window));
+            }
+            synchronized (current) {
+                if (current.loaded) {
+                    hits.incrementAndGet();
+                    return Mono.just(current.snapshot());
+                }
+                current.loading++;
+            }
+            // 先标记加载中、取还没写库的消息，再查库：之前保存的消息至少出现在其中一边，之后保存的由 append 记在 early 里
+            List<Message> pending = messageWriter.unflushed(conversationId);
+            return messageRepository.findRecentByConversationId(conversationId, window)
+                    .collectList()
+                    .map(latest -> load(current, latest, pending))
+                    .doFinally(signal -> {
+                        synchronized (current) {
+                            if (--current.loading == 0) {
+                                current.early.clear();
+                            }
+                        }
+                    });
+        });
+    }
+
+    private List<HistoryMessage> load(Window current, List<Message> latest, List<Message> pending) {
+        synchronized (current) {
+            if (!current.loaded) {
+                TreeMap<Long, HistoryMessage> merged = new TreeMap<>();
+                for (Message message : latest) {
+                    merged.put(message.getId(), toHistory(message));
+                }
+                for (Message message : pending) {
+                    merged.put(message.getId(), toHistory(message));
+                }
+                for (HistoryMessage message : current.early) {
+                    merged.put(message.id(), message);
+                }
+                // 按 ID 升序放入，环形缓冲区只留最新的 window 条
+                for (HistoryMessage message : merged.values()) {
+                    current.add(message);
+                }
+                current.loaded = true;
+                loads.incrementAndGet();
+            }
+            return current.snapshot();
+        }
+    }
+
+    /**
+     * 消息保存后调用：会话的窗口已加载时追加进去，正在加载时记下来等加载完成后合并
+     * （未缓存的会话不处理，下次读取时从库里加载）
+     * @return 传入的消息，便于写成 messageWriter.save(message).map(historyCache::append)
+     */
+    public Message append(Message saved) {
+        if (saved == null || saved.getId() == null || saved.getConversationId() == null) {
+            return saved;
+        }
+        Window current;
+        synchronized (windows) {
+            current = windows.get(saved.getConversationId());
+        }
+        if (current != null) {
+            synchronized (current) {
+                if (current.loaded) {
+                    if (current.add(toHistory(saved))) {
+                        appends.incrementAndGet();
+                    }
+                } else if (current.loading > 0) {
+                    current.early.add(toHistory(saved));
+                }
+            }
+        }
+        return saved;
+    }
+
+    /**
+     * 丢弃某个会话的窗口（消息被删除 / 修改时）
+     */
+    public void invalidate(Long conversationId) {
+        synchronized (windows) {
+            windows.remove(conversationId);
+        }
+    }
+
+    /**
+     * 缓存统计：缓存的会话数、命中 / 加载 / 追加 / 淘汰次数
+     */
+    public Map<String, Object> stats() {
+        long hitCount = hits.get();
+        long total = hitCount + loads.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (windows) {
+            stats.put("conversations", windows.size());
+        }
+        stats.put("window", window);
+        stats.put("maxConversations", maxConversations);
+        stats.put("hits", hitCount);
+        stats.put("loads", loads.get());
+        stats.put("appends", appends.get());
+        stats.put("evictions", evictions.get());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total);
+        return stats;
+    }
+
+    private static HistoryMessage toHistory(Message message) {
+        return new HistoryMessage(message.getId(), message.getRole(), message.getContent());
+    }
+
+    // 环形缓冲区：head 指向最旧的一条，写满后覆盖最旧的
+    private static final class Window {
+
+        private final HistoryMessage[] messages;
+        private int head;
+        private int size;
+        private long newestId = Long.MIN_VALUE;
+        private boolean loaded;
+        // 正在进行的加载数，以及加载期间追加的消息
+        private int loading;
+        private final List<HistoryMessage> early = new ArrayList<>();
+
+        Window(int capacity) {
+            this.messages = new HistoryMessage[capacity];
+        }
+
+        // 按 ID 有序插入并去重；ID 分配和追加不在同一把锁下，同一会话并发保存时 ID 小的可能后到
+        boolean add(HistoryMessage message) {
+            if (message.id() > newestId) {
+                newestId = message.id();
+                if (size < messages.length) {
+                    set(size, message);
+                    size++;
+                } else {
+                    messages[head] = message;
+                    head = (head + 1) % messages.length;
+                }
+                return true;
+            }
+            // 后到的较早消息：找到插入位置（第一条 ID 比它大的）
+            int position = 0;
+            while (position < size && get(position).id() < message.id()) {
+                position++;
+            }
+            if (position < size && get(position).id() == message.id()) {
+                return false;
+            }
+            if (size < messages.length) {
+                for (int i = size; i > position; i--) {
+                    set(i, get(i - 1));
+                }
+                set(position, message);
+                size++;
+                return true;
+            }
+            if (position == 0) {
+                // 比窗口里所有消息都早，不在最近 window 条之内
+                return false;
+            }
+            // 窗口已满：丢掉最旧的一条，position 之前的左移一格
+            for (int i = 0; i < position - 1; i++) {
+                set(i, get(i + 1));
+            }
+            set(position - 1, message);
+            return true;
+        }
+
+        private HistoryMessage get(int index) {
+            return messages[(head + index) % messages.length];
+        }
+
+        private void set(int index, HistoryMessage message) {
+            messages[(head + index) % messages.length] = message;
+        }
+
+        List<HistoryMessage> snapshot() {
+            List<HistoryMessage> result = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                result.add(get(i));
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.example.demo.cache;
+
+import com.example.demo.domain.EmbeddingCacheEntry;
+import com.example.demo.repository.EmbeddingCacheRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedding 缓存
+ * 一级：内存 LRU（按访问顺序淘汰，容量有上限）
+ * 二级：PostgreSQL embedding_cache 表（可选，重启后仍可命中）
+ * key = sha256(模型名 + 原始文本)，同一段文本换模型后不会误命中；
+ * 文本不做空白规范化，空白不同的文本模型算出的向量也不同，不能共用缓存
+ */
+@Component
+public class EmbeddingCache {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingCache.class);
+
+    private final EmbeddingCacheRepository embeddingCacheRepository;
+    private final int maxSize;
+    private final boolean persistent;
+
+    // accessOrder = true：get 也会把条目移到队尾，removeEldestEntry 淘汰的就是最久未使用的
+    private final LinkedHashMap<String, float[]> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong persistentHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public EmbeddingCache(EmbeddingCacheRepository embeddingCacheRepository,
+                          @Value("${app.embedding.cache.max-size:10000}") int maxSize,
+                          @Value("${app.embedding.cache.persistent:true}") boolean persistent) {
+        this.embeddingCacheRepository = embeddingCacheRepository;
+        this.maxSize = maxSize;
+        this.persistent = persistent;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+                if (size() > EmbeddingCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 生成缓存 key（按发给模型的原始文本）
+     */
+    public String key(String model, String text) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(model.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            byte[] hash = digest.digest((text == null ? "" : text).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+
+    /**
+     * 查询单个 key，内存未命中时再查持久化层
+     */
+    public float[] get(String key) {
+        return getAll(List.of(key)).get(key);
+    }
+
+    /**
+     * 批量查询，返回命中的部分（key -> 向量）
+     */
+    public Map<String, float[]> getAll(Collection<String> keys) {
+        Map<String, float[]> found = new HashMap<>();
+        List<String> memoryMisses = new ArrayList<>();
+        synchronized (entries) {
+            for (String key : keys) {
+                float[] embedding = entries.get(key);
+                if (embedding != null) {
+                    found.put(key, embedding);
+                } else {
+                    memoryMisses.add(key);
+                }
+            }
+        }
+        hits.addAndGet(found.size());
+
+        if (persistent && !memoryMisses.isEmpty()) {
+            try {
+                List<EmbeddingCacheEntry> stored = embeddingCacheRepository.findAllById(memoryMisses);
+                for (EmbeddingCacheEntry entry : stored) {
+                    float[] embedding = decode(entry.getEmbedding());
+                    found.put(entry.getCacheKey(), embedding);
+                    // 持久化层命中后提升到内存
+                    putMemory(entry.getCacheKey(), embedding);
+                }
+                persistentHits.addAndGet(stored.size());
+            } catch (Exception e) {
+                log.warn("读取持久化 embedding 缓存失败，降级为仅内存缓存: {}", e.getMessage());
+            }
+        }
+
+        misses.addAndGet(keys.size() - found.size());
+        return found;
+    }
+
+    public void put(String key, String model, float[] embedding) {
+        putAll(Map.of(key, embedding), model);
+    }
+
+    /**
+     * 写入缓存（内存 + 持久化层）
+     */
+    public void putAll(Map<String, float[]> embeddings, String model) {
+        if (embeddings.isEmpty()) {
+            return;
+        }
+        embeddings.forEach(this::putMemory);
+
+        if (persistent) {
+            List<EmbeddingCacheEntry> toSave = new ArrayList<>(embeddings.size());
+            embeddings.forEach((key, embedding) -> {
+                EmbeddingCacheEntry entry = new EmbeddingCacheEntry();
+                entry.setCacheKey(key);
+                entry.setModel(model);
+                entry.setDimensions(embedding.length);
+                entry.setEmbedding(encode(embedding));
+                toSave.add(entry);
+            });
+            try {
+                embeddingCacheRepository.saveAll(toSave);
+            } catch (Exception e) {
+                log.warn("写入持久化 embedding 缓存失败: {}", e.getMessage());
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * 缓存统计：命中 / 未命中 / 淘汰次数
+     */
+    public Map<String, Object> stats() {
+        long hitCount = hits.get() + persistentHits.get();
+        long total = hitCount + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("persistent", persistent);
+        stats.put("memoryHits", hits.get());
+        stats.put("persistentHits", persistentHits.get());
+        stats.put("misses", misses.get());
+        stats.put("evictions", evictions.get());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total);
+        return stats;
+    }
+
+    private void putMemory(String key, float[] embedding) {
+        synchronized (entries) {
+            entries.put(key, embedding);
+        }
+    }
+
+    private static byte[] encode(float[] embedding) {
+        ByteBuffer buffer = ByteBuffer.allocate(embedding.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.asFloatBuffer().put(embedding);
+        return buffer.array();
+    }
+
+    private static float[] decode(byte[] bytes) {
+        float[] embedding = new float[bytes.length / Float.BYTES];
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(embedding);
+        return embedding;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.demo.cache;
+
+/**
+ * 对话历史里的一条消息（只保留构建上下文需要的字段）
+ */
+public record HistoryMessage(long id, String role, String content) {
+}
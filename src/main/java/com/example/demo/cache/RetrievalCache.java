@@ -0,0 +1,214 @@
+package com.example.demo.cache;
+
+import com.example.demo.retrieval.RetrievalMode;
+import com.example.demo.vector.ChunksInsertedEvent;
+import com.example.demo.vector.ChunksRemovedEvent;
+import com.example.demo.vector.RecallLevel;
+import com.example.demo.vector.VectorHit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RAG 检索结果缓存：规范化后的问题 + topK + 检索方式 + 召回档位 -> 命中的分片 ID 与距离（不缓存分片内容，命中后仍按 ID 取内容）
+ * 命中时省掉问题的 embedding 和向量检索。内存 LRU，容量与存活时间有上限。
+ * 失效规则（由 DocumentChunkJdbcRepository 在事务提交后发布的事件驱动）：
+ * 新增分片可能改变任何问题的 topK，语料版本号加一，旧版本的条目全部视为过期；
+ * 删除分片只影响结果里包含这些分片 / 文档的条目，只删除这些条目。
+ */
+@Component
+public class RetrievalCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+
+    // accessOrder = true：按最近访问淘汰
+    private final LinkedHashMap<String, Entry> entries;
+
+    // 新增分片时加一，条目的版本号不等于它时视为过期
+    private final AtomicLong corpusVersion = new AtomicLong();
+    // 删除分片时加一；检索期间发生过删除的结果不写入缓存（可能包含已删除的分片）
+    private final AtomicLong removalSequence = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong staleMisses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong savedMicros = new AtomicLong();
+    private final AtomicLong missMicros = new AtomicLong();
+
+    public RetrievalCache(@Value("${app.rag.retrieval-cache.max-size:1000}") int maxSize,
+                          @Value("${app.rag.retrieval-cache.ttl-seconds:600}") long ttlSeconds) {
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > RetrievalCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * 查询缓存；未命中时返回的 Lookup 记录了当时的语料版本，检索完成后交给 {@link #put}
+     * @param recall 召回档位，null 表示默认档位（与显式指定的档位分开缓存）
+     */
+    public Lookup lookup(String query, int topK, RetrievalMode mode, RecallLevel recall) {
+        String key = normalize(query) + '\u0000' + topK + '\u0000' + mode + '\u0000' + recall;
+        long version = corpusVersion.get();
+        long removals = removalSequence.get();
+        if (maxSize <= 0) {
+            return new Lookup(key, null, null, version, removals);
+        }
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+            if (entry != null && (entry.version != version || System.nanoTime() - entry.createdAt > ttlNanos)) {
+                entries.remove(key);
+                staleMisses.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return new Lookup(key, null, null, version, removals);
+        }
+        hits.incrementAndGet();
+        savedMicros.addAndGet(entry.computeMicros);
+        return new Lookup(key, entry.queryEmbedding, entry.results, version, removals);
+    }
+
+    // 规范化问题：去掉首尾空白，连续空白压缩为一个空格，转小写（只用于检索结果缓存的 key；embedding 缓存按原始文本）
+    private static String normalize(String query) {
+        return query == null ? "" : query.trim().replaceAll("\\s+", " ").toLowerCase();
+    }
+
+    /**
+     * 写入检索结果（连同问题向量，命中时下游需要向量的地方不用再做 embedding）
+     * @param elapsedNanos 这次检索（embedding + 向量 / 关键词检索）的耗时，命中时计入节省的时间
+     */
+    public void put(Lookup lookup, float[] queryEmbedding, List<VectorHit> results, long elapsedNanos) {
+        long micros = elapsedNanos / 1000;
+        missMicros.addAndGet(micros);
+        if (maxSize <= 0 || lookup.removalSequence() != removalSequence.get()) {
+            return;
+        }
+        Entry entry = new Entry(queryEmbedding, results, lookup.corpusVersion(), micros);
+        synchronized (entries) {
+            // 检索期间语料已经更新，结果可能已过期
+            if (lookup.corpusVersion() == corpusVersion.get()) {
+                entries.put(lookup.key(), entry);
+            }
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onChunksInserted(ChunksInsertedEvent event) {
+        corpusVersion.incrementAndGet();
+        // 旧版本的条目已全部失效，直接清空释放内存
+        synchronized (entries) {
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onChunksRemoved(ChunksRemovedEvent event) {
+        removalSequence.incrementAndGet();
+        Set<Long> chunkIds = event.chunkIds() == null ? null : new HashSet<>(event.chunkIds());
+        long docId = event.docId() == null ? -1 : event.docId();
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (iterator.next().references(chunkIds, docId)) {
+                    iterator.remove();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * 缓存统计：命中率、过期 / 失效 / 淘汰次数、节省的检索耗时
+     */
+    public Map<String, Object> stats() {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long total = hitCount + missCount;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("ttlSeconds", ttlNanos / 1_000_000_000L);
+        stats.put("corpusVersion", corpusVersion.get());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("staleMisses", staleMisses.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("evictions", evictions.get());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total);
+        stats.put("avgMissMillis", missCount == 0 ? 0.0 : missMicros.get() / 1000.0 / missCount);
+        stats.put("savedMillis", savedMicros.get() / 1000);
+        return stats;
+    }
+
+    /**
+     * 一次查询的结果：results 不为 null 表示命中（按距离升序），queryEmbedding 为当时的问题向量
+     */
+    public record Lookup(String key, float[] queryEmbedding, List<VectorHit> results, long corpusVersion, long removalSequence) {
+
+        public boolean hit() {
+            return results != null;
+        }
+
+        public List<Long> chunkIds() {
+            return results.stream().map(VectorHit::chunkId).toList();
+        }
+    }
+
+    private static final class Entry {
+
+        private final float[] queryEmbedding;
+        private final List<VectorHit> results;
+        private final long version;
+        private final long createdAt = System.nanoTime();
+        private final long computeMicros;
+
+        Entry(float[] queryEmbedding, List<VectorHit> results, long version, long computeMicros) {
+            this.queryEmbedding = queryEmbedding;
+            this.results = List.copyOf(results);
+            this.version = version;
+            this.computeMicros = computeMicros;
+        }
+
+        // 结果里是否包含被删除的分片；removedChunkIds 为 null 时按文档判断
+        boolean references(Set<Long> removedChunkIds, long removedDocId) {
+            for (VectorHit hit : results) {
+                if (removedChunkIds == null ? hit.docId() == removedDocId : removedChunkIds.contains(hit.chunkId())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
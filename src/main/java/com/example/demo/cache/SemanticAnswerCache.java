@@ -0,0 +1,252 @@
+package com.example.demo.cache;
+
+import com.example.demo.vector.ChunksRemovedEvent;
+import com.example.demo.vector.VectorHit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RAG 回答的语义缓存：(问题向量, 检索到的分片集合, 回答)
+ * 新问题与某个缓存问题的余弦相似度不低于阈值，并且这次检索到的分片集合与当时完全相同，才复用当时的回答，省掉一次大模型生成。
+ * 分片集合必须一致，所以新增分片改变了检索结果时自然不会命中；删除分片 / 文档时清理引用了它们的条目。
+ * 回答只取决于问题和检索到的分片，不看对话历史；调用方只对不带会话摘要和历史的回答查询 / 写入缓存（见 RagServiceImpl）。
+ * 内存 LRU，容量与存活时间有上限；条目数不大，查询时线性扫描。
+ */
+@Component
+public class SemanticAnswerCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final float similarityThreshold;
+
+    // accessOrder = true：命中的条目移到队尾，淘汰最久未使用的
+    private final LinkedHashMap<Long, Entry> entries;
+    private long nextId;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong bypassed = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    public SemanticAnswerCache(@Value("${app.rag.answer-cache.max-size:500}") int maxSize,
+                               @Value("${app.rag.answer-cache.ttl-seconds:3600}") long ttlSeconds,
+                               @Value("${app.rag.answer-cache.similarity-threshold:0.95}") float similarityThreshold) {
+        if (similarityThreshold <= 0 || similarityThreshold > 1) {
+            throw new IllegalArgumentException("app.rag.answer-cache.similarity-threshold 必须在 (0, 1] 之间");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlSeconds * 1_000_000_000L;
+        this.similarityThreshold = similarityThreshold;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > SemanticAnswerCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * 查找可复用的回答，没有时返回 null
+     * @param queryEmbedding 问题向量
+     * @param retrieved 这次检索到的分片
+     */
+    public String find(float[] queryEmbedding, List<VectorHit> retrieved) {
+        if (!isEnabled()) {
+            return null;
+        }
+        float[] query = unit(queryEmbedding);
+        long[] chunkIds = sortedChunkIds(retrieved);
+        long now = System.nanoTime();
+        Long bestId = null;
+        float bestSimilarity = similarityThreshold;
+        synchronized (entries) {
+            Iterator<Map.Entry<Long, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Long, Entry> candidate = iterator.next();
+                Entry entry = candidate.getValue();
+                if (now - entry.createdAt > ttlNanos) {
+                    iterator.remove();
+                    expirations.incrementAndGet();
+                    continue;
+                }
+                // 先比分片集合（便宜），再算相似度
+                if (!Arrays.equals(entry.chunkIds, chunkIds) || entry.embedding.length != query.length) {
+                    continue;
+                }
+                float similarity = dot(entry.embedding, query);
+                if (similarity >= bestSimilarity) {
+                    bestSimilarity = similarity;
+                    bestId = candidate.getKey();
+                }
+            }
+            if (bestId != null) {
+                hits.incrementAndGet();
+                return entries.get(bestId).answer;
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * 写入一次完整生成的回答；空回答不缓存
+     */
+    public void put(float[] queryEmbedding, List<VectorHit> retrieved, String answer) {
+        if (!isEnabled() || answer == null || answer.isBlank()) {
+            return;
+        }
+        Entry entry = new Entry(unit(queryEmbedding), sortedChunkIds(retrieved), docIds(retrieved), answer);
+        synchronized (entries) {
+            entries.put(nextId++, entry);
+        }
+    }
+
+    /**
+     * 请求显式跳过了缓存（只计数）
+     */
+    public void recordBypass() {
+        bypassed.incrementAndGet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onChunksRemoved(ChunksRemovedEvent event) {
+        if (event.chunkIds() == null) {
+            invalidateDocument(event.docId());
+            return;
+        }
+        Set<Long> removed = new HashSet<>(event.chunkIds());
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                for (long chunkId : entry.chunkIds) {
+                    if (removed.contains(chunkId)) {
+                        iterator.remove();
+                        invalidations.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * 删除引用了某个文档分片的回答
+     * @return 删除的条目数
+     */
+    public int invalidateDocument(Long docId) {
+        long target = docId == null ? -1 : docId;
+        int removed = 0;
+        synchronized (entries) {
+            Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                if (Arrays.binarySearch(iterator.next().docIds, target) >= 0) {
+                    iterator.remove();
+                    removed++;
+                }
+            }
+        }
+        invalidations.addAndGet(removed);
+        return removed;
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * 缓存统计：命中 / 未命中 / 跳过次数、失效 / 淘汰 / 过期次数
+     */
+    public Map<String, Object> stats() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        synchronized (entries) {
+            stats.put("size", entries.size());
+        }
+        stats.put("maxSize", maxSize);
+        stats.put("ttlSeconds", ttlNanos / 1_000_000_000L);
+        stats.put("similarityThreshold", similarityThreshold);
+        stats.put("hits", hitCount);
+        stats.put("misses", misses.get());
+        stats.put("bypassed", bypassed.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("evictions", evictions.get());
+        stats.put("expirations", expirations.get());
+        stats.put("hitRate", total == 0 ? 0.0 : (double) hitCount / total);
+        return stats;
+    }
+
+    // 归一化为单位向量，之后余弦相似度就是点积
+    private static float[] unit(float[] vector) {
+        double norm = 0;
+        for (float v : vector) {
+            norm += v * v;
+        }
+        float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        float[] result = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            result[i] = vector[i] * scale;
+        }
+        return result;
+    }
+
+    private static float dot(float[] a, float[] b) {
+        float sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    private static long[] sortedChunkIds(List<VectorHit> hits) {
+        long[] ids = new long[hits.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hits.get(i).chunkId();
+        }
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static long[] docIds(List<VectorHit> hits) {
+        return hits.stream().mapToLong(VectorHit::docId).sorted().distinct().toArray();
+    }
+
+    private static final class Entry {
+
+        private final float[] embedding;
+        private final long[] chunkIds;
+        private final long[] docIds;
+        private final String answer;
+        private final long createdAt = System.nanoTime();
+
+        Entry(float[] embedding, long[] chunkIds, long[] docIds, String answer) {
+            this.embedding = embedding;
+            this.chunkIds = chunkIds;
+            this.docIds = docIds;
+            this.answer = answer;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.example.demo.common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * 分片内容哈希：sha256(UTF-8 原文) 的十六进制
+ * 与 PostgreSQL 的 encode(sha256(convert_to(content, 'UTF8')), 'hex') 结果一致，旧数据可以直接在库里算出来比对
+ */
+public final class ContentHash {
+
+    private ContentHash() {
+    }
+
+    public static String sha256Hex(String content) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(content.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 不可用", e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.demo.common;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 关键词检索用的分词（不依赖 PostgreSQL 的中文分词扩展，入库和查询用同一套规则）
+ * 中日韩字符按相邻两字切成二元组（单字成词时保留单字）；
+ * 字母数字按词切分并转小写，词内的 - . 连接的整体（错误码、版本号、产品型号）和拆开后的各部分都作为词项。
+ * 结果写入 document_chunk.search_tokens（空格分隔），由 array_to_tsvector 直接建 GIN 索引，不再经过 tsvector 的解析器。
+ */
+public final class LexicalTokenizer {
+
+    // 单个词项的长度上限，超长的（base64、哈希值之类）不参与检索
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    // 查询时去掉的疑问 / 虚词二元组，它们出现在大量分片里，只会稀释排序
+    private static final Set<String> QUERY_STOP_TOKENS = Set.of(
+            "什么", "怎么", "如何", "为什", "么是", "是什", "哪些", "哪个", "有哪", "请问", "一下", "是否",
+            "可以", "能否", "我们", "你们", "这个", "那个", "的是", "是的", "一个", "么样", "怎样");
+
+    private LexicalTokenizer() {
+    }
+
+    /**
+     * 切分文本，按首次出现的顺序去重
+     */
+    public static List<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null) {
+            return List.of();
+        }
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int cp = text.codePointAt(i);
+            if (isCjk(cp)) {
+                int end = i;
+                List<Integer> run = new ArrayList<>();
+                while (end < length && isCjk(text.codePointAt(end))) {
+                    run.add(text.codePointAt(end));
+                    end += Character.charCount(text.codePointAt(end));
+                }
+                addCjkRun(run, tokens);
+                i = end;
+            } else if (isWordChar(cp)) {
+                int end = i;
+                while (end < length) {
+                    int c = text.codePointAt(end);
+                    if (isWordChar(c)) {
+                        end += Character.charCount(c);
+                    } else if (isJoiner(c) && end + 1 < length && end > i && isWordChar(text.codePointAt(end + 1))) {
+                        end++;
+                    } else {
+                        break;
+                    }
+                }
+                addWord(text.substring(i, end).toLowerCase(), tokens);
+                i = end;
+            } else {
+                i += Character.charCount(cp);
+            }
+        }
+        return new ArrayList<>(tokens);
+    }
+
+    /**
+     * 写入 search_tokens 列的文本：词项以单个空格分隔
+     */
+    public static String toIndexText(String text) {
+        return String.join(" ", tokenize(text));
+    }
+
+    /**
+     * 查询词项：在 tokenize 的基础上去掉疑问 / 虚词
+     */
+    public static List<String> queryTokens(String query) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : tokenize(query)) {
+            if (!QUERY_STOP_TOKENS.contains(token)) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 词项之间取 OR 的 tsquery 文本（'a' | 'b'），用 CAST(? AS tsquery) 传入，不经过分词配置
+     * 词项只含字母数字和 _ - .，加单引号即可
+     */
+    public static String toTsQuery(List<String> tokens) {
+        StringBuilder query = new StringBuilder();
+        for (String token : tokens) {
+            if (query.length() > 0) {
+                query.append(" | ");
+            }
+            query.append('\'').append(token).append('\'');
+        }
+        return query.toString();
+    }
+
+    private static void addCjkRun(List<Integer> run, Set<String> tokens) {
+        if (run.size() == 1) {
+            tokens.add(Character.toString(run.get(0)));
+            return;
+        }
+        for (int j = 0; j + 1 < run.size(); j++) {
+            tokens.add(Character.toString(run.get(j)) + Character.toString(run.get(j + 1)));
+        }
+    }
+
+    private static void addWord(String word, Set<String> tokens) {
+        if (word.length() > MAX_TOKEN_LENGTH) {
+            return;
+        }
+        tokens.add(word);
+        if (word.indexOf('-') >= 0 || word.indexOf('.') >= 0) {
+            for (String part : word.split("[-.]")) {
+                if (!part.isEmpty()) {
+                    tokens.add(part);
+                }
+            }
+        }
+    }
+
+    private static boolean isWordChar(int cp) {
+        return cp == '_' || (Character.isLetterOrDigit(cp) && !isCjk(cp));
+    }
+
+    private static boolean isJoiner(int cp) {
+        return cp == '-' || cp == '.';
+    }
+
+    private static boolean isCjk(int cp) {
+        Character.UnicodeScript script = Character.UnicodeScript.of(cp);
+        return script == Character.UnicodeScript.HAN
+                || script == Character.UnicodeScript.HIRAGANA
+                || script == Character.UnicodeScript.KATAKANA
+                || script == Character.UnicodeScript.HANGUL;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.demo.common;
+
+/**
+ * 本地 token 估算（不调用模型的 tokenizer，单次遍历）
+ * 规则参考通义 / OpenAI 系 BPE 的经验值：
+ * 中日韩字符约 1 字 1 token；连续的字母数字约 4 个字符 1 token；其他标点符号各算 1 个；空白不计
+ */
+public final class TokenEstimator {
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        return estimate(text, 0, text.length());
+    }
+
+    public static int estimate(CharSequence text, int start, int end) {
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < 0x80 && Character.isLetterOrDigit(c)) {
+                wordLength++;
+                continue;
+            }
+            if (wordLength > 0) {
+                tokens += (wordLength + 3) / 4;
+                wordLength = 0;
+            }
+            if (Character.isWhitespace(c) || Character.isLowSurrogate(c)) {
+                continue;
+            }
+            tokens++;  // 中日韩字符、其他非 ASCII 字符、标点
+        }
+        if (wordLength > 0) {
+            tokens += (wordLength + 3) / 4;
+        }
+        return tokens;
+    }
+
+    /**
+     * 截断到估算不超过 maxTokens 个 token 的前缀（计数规则同 estimate，不会拆开代理对），没有超出时原样返回
+     */
+    public static String truncate(String text, int maxTokens) {
+        if (text == null || estimate(text) <= maxTokens) {
+            return text;
+        }
+        int tokens = 0;
+        int wordLength = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            int cost;
+            if (c < 0x80 && Character.isLetterOrDigit(c)) {
+                // 连续字母数字每 4 个字符的第一个计 1
+                cost = wordLength % 4 == 0 ? 1 : 0;
+                wordLength++;
+            } else {
+                wordLength = 0;
+                cost = Character.isWhitespace(c) || Character.isLowSurrogate(c) ? 0 : 1;
+            }
+            if (tokens + cost > maxTokens) {
+                return text.substring(0, i);
+            }
+            tokens += cost;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,119 @@
+package com.example.demo.config;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 阻塞操作专用的调度器，WebFlux 的事件循环线程上不能做任何阻塞调用
+ * parse：Tika 解析等 CPU 密集的工作，线程数默认等于 CPU 核数
+ * jdbc：JPA / JDBC 调用，线程数与连接池大小对齐，避免线程在拿连接时排队
+ * remote：阻塞式的大模型 / embedding HTTP 调用
+ * 每个线程池的队列有上限，排满后直接拒绝（以错误返回给调用方），不会无限堆积
+ */
+@Component
+public class BlockingSchedulers {
+
+    private final Pool parse;
+    private final Pool jdbc;
+    private final Pool remote;
+
+    public BlockingSchedulers(@Value("${app.schedulers.parse.threads:0}") int parseThreads,
+                              @Value("${app.schedulers.parse.queue-capacity:200}") int parseQueueCapacity,
+                              @Value("${app.schedulers.jdbc.threads:10}") int jdbcThreads,
+                              @Value("${app.schedulers.jdbc.queue-capacity:1000}") int jdbcQueueCapacity,
+                              @Value("${app.schedulers.remote.threads:32}") int remoteThreads,
+                              @Value("${app.schedulers.remote.queue-capacity:1000}") int remoteQueueCapacity) {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        this.parse = new Pool("parse", parseThreads > 0 ? parseThreads : cpus, parseQueueCapacity);
+        this.jdbc = new Pool("jdbc", jdbcThreads, jdbcQueueCapacity);
+        this.remote = new Pool("remote", remoteThreads, remoteQueueCapacity);
+    }
+
+    public Scheduler parse() {
+        return parse.scheduler;
+    }
+
+    public Scheduler jdbc() {
+        return jdbc.scheduler;
+    }
+
+    public Scheduler remote() {
+        return remote.scheduler;
+    }
+
+    /**
+     * 各线程池的队列深度、活跃线程数、已完成 / 被拒绝的任务数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("parse", parse.stats());
+        stats.put("jdbc", jdbc.stats());
+        stats.put("remote", remote.stats());
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        parse.scheduler.dispose();
+        jdbc.scheduler.dispose();
+        remote.scheduler.dispose();
+    }
+
+    private static final class Pool {
+
+        private final int threads;
+        private final int queueCapacity;
+        private final ThreadPoolExecutor executor;
+        private final Scheduler scheduler;
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+        Pool(String name, int threads, int queueCapacity) {
+            this.threads = Math.max(1, threads);
+            this.queueCapacity = Math.max(1, queueCapacity);
+            AtomicInteger counter = new AtomicInteger();
+            this.executor = new ThreadPoolExecutor(this.threads, this.threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(this.queueCapacity),
+                    runnable -> {
+                        Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    },
+                    (runnable, pool) -> {
+                        rejected.incrementAndGet();
+                        throw new RejectedExecutionException(name + " 线程池队列已满（" + this.queueCapacity + "）");
+                    }) {
+                @Override
+                protected void beforeExecute(Thread thread, Runnable runnable) {
+                    // 任务开始执行时记录队列深度峰值（任务刚入队的瞬间不好统计，这里近似）
+                    maxQueueDepth.accumulateAndGet(getQueue().size() + 1, Math::max);
+                }
+            };
+            this.scheduler = Schedulers.fromExecutorService(executor, name);
+        }
+
+        Map<String, Object> stats() {
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("threads", threads);
+            stats.put("activeThreads", executor.getActiveCount());
+            stats.put("queueDepth", executor.getQueue().size());
+            stats.put("maxQueueDepth", maxQueueDepth.get());
+            stats.put("queueCapacity", queueCapacity);
+            stats.put("completedTasks", executor.getCompletedTaskCount());
+            stats.put("rejectedTasks", rejected.get());
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.example.demo.config;
+
+import io.r2dbc.spi.ConnectionFactory;
+import jakarta.persistence.EntityManagerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.r2dbc.connection.R2dbcTransactionManager;
+
+/**
+ * JPA 和 R2DBC 同时存在时显式声明两个事务管理器
+ * 自动配置里 JPA 的事务管理器在已有任意 TransactionManager 时不再创建，只靠自动配置可能只剩 R2DBC 的那个
+ * transactionManager（JPA，@Primary）：文档、入库任务等 JPA / JdbcTemplate 代码上的 @Transactional 照旧使用
+ * reactiveTransactionManager（R2DBC）：会话 / 消息的响应式代码需要事务时用 TransactionalOperator.create(reactiveTransactionManager)
+ * 显式包起来，不要在返回 Mono / Flux 的方法上直接写 @Transactional（会选中 @Primary 的 JPA 事务管理器）
+ */
+@Configuration
+public class TransactionConfig {
+
+    @Bean
+    @Primary
+    public JpaTransactionManager transactionManager(EntityManagerFactory entityManagerFactory) {
+        return new JpaTransactionManager(entityManagerFactory);
+    }
+
+    @Bean
+    public R2dbcTransactionManager reactiveTransactionManager(ConnectionFactory connectionFactory) {
+        return new R2dbcTransactionManager(connectionFactory);
+    }
+}
@@ -1,16 +1,24 @@
 package com.example.demo.controller;
 
 import com.example.demo.common.Dto.Result;
+import com.example.demo.config.BlockingSchedulers;
 import com.example.demo.domain.Conversation;
 import com.example.demo.domain.Message;
 import com.example.demo.service.AgentService;
 import com.example.demo.service.ChatService;
+import com.example.demo.retrieval.ChunkHit;
+import com.example.demo.retrieval.RetrievalMode;
+import com.example.demo.service.RagOptions;
 import com.example.demo.service.RagService;
+import com.example.demo.vector.RecallLevel;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -22,23 +30,27 @@ public class ChatController {
     private final ChatService chatService;
     private final RagService ragService;
     private final AgentService agentService;
+    private final BlockingSchedulers blockingSchedulers;
 
 
     public ChatController(ChatService chatService,
                           RagService ragService,
-                          AgentService agentService){
+                          AgentService agentService,
+                          BlockingSchedulers blockingSchedulers){
         this.chatService = chatService;
         this.ragService = ragService;
         this.agentService = agentService;
+        this.blockingSchedulers = blockingSchedulers;
     }
 
     /**
      * 列出所有会话
      */
     @GetMapping("/conversations")
-    public Result<List<Conversation>> listConversations(){
-        List<Conversation> conversations = chatService.listConversations();
-        return Result.success(conversations);
+    public Mono<Result<List<Conversation>>> listConversations(){
+        return chatService.listConversations()
+                .collectList()
+                .map(Result::success);
     }
 
 
@@ -47,49 +59,50 @@ public class ChatController {
      * POST /api/chat/conversations
      */
     @PostMapping("/conversations")
-    public Result<Conversation> createConversations(@RequestBody Map<String, String> request){
+    public Mono<Result<Conversation>> createConversations(@RequestBody Map<String, String> request){
         String title = request.getOrDefault("title", "新会话");
-        Conversation conversation = chatService.creatConversation(title);
-        return Result.success("创建会话成功", conversation);
+        return chatService.creatConversation(title)
+                .map(conversation -> Result.success("创建会话成功", conversation));
     }
 
     /**
      * 获取单个会话
      */
     @GetMapping("/conversations/{id}")
-    public Result<Conversation> getConversation(@PathVariable Long id) {
-        Conversation conversation = chatService.getConversation(id);
-        return Result.success(conversation);
+    public Mono<Result<Conversation>> getConversation(@PathVariable Long id) {
+        return chatService.getConversation(id)
+                .map(Result::success);
     }
 
     /**
      * 查看某个会话的消息
      */
     @GetMapping("/conversations/{id}/messages")
-    public Result<List<Message>> listMessages(@PathVariable Long id) {
-        List<Message> messages = chatService.listMessages(id);
-        return Result.success(messages);
+    public Mono<Result<List<Message>>> listMessages(@PathVariable Long id) {
+        return chatService.listMessages(id)
+                .map(Result::success);
     }
 
     /**
      * 添加一条消息 - 非流式子
      */
     @PostMapping("/conversations/{id}/messages")
-    public Result<Message> addMessage(@PathVariable Long id, @RequestBody Map<String, String> request) {
+    public Mono<Result<Message>> addMessage(@PathVariable Long id, @RequestBody Map<String, String> request) {
         String role = request.getOrDefault("role", "user");
         String content = request.getOrDefault("content","");
 
         // 参数验证
         if (content == null || content.trim().isEmpty()) {
-            return Result.error("消息内容不能为空");
+            return Mono.just(Result.error("消息内容不能为空"));
         }
 
         if (!"user".equals(role) && !"assistant".equals(role)) {
-            return Result.error("角色不匹配");
+            return Mono.just(Result.error("角色不匹配"));
         }
 
-        Message message = chatService.addMessage(id, role, content);
-        return Result.success("添加消息成功",message);
+        // 用户消息会调用大模型生成回答（服务里在 remote 线程池上调用）
+        return chatService.addMessage(id, role, content)
+                .map(message -> Result.success("添加消息成功", message));
     }
 
     /**
@@ -114,44 +127,53 @@ public class ChatController {
 
     //获取最新用户消息
     @GetMapping("conversations/{id}/latestUserMessage")
-    public Result<Message> getLatestUserMessage(@PathVariable Long id,@RequestParam String message){
-        Message latestUserMessage = chatService.getLatestUserMessage(id, message);
-        if (latestUserMessage == null) {
-            return Result.error("未找到对应的用户消息");
-        }
-        return Result.success(latestUserMessage);
+    public Mono<Result<Message>> getLatestUserMessage(@PathVariable Long id,@RequestParam String message){
+        return chatService.getLatestUserMessage(id, message)
+                .map(Result::success)
+                .defaultIfEmpty(Result.error("未找到对应的用户消息"));
     }
 
     //获取最新ai返回信息
     @GetMapping("conversations/{id}/latestAssistantMessage")
-    public Result<Message> getLatestAssistantMessage(@PathVariable Long id,@RequestParam String content){
-        Message latestAssistantMessage = chatService.getLatestAssistantMessage(id, content);
-        if (latestAssistantMessage == null) {
-            return Result.error("未找到对应的AI助手消息");
-        }
-        return Result.success(latestAssistantMessage);
+    public Mono<Result<Message>> getLatestAssistantMessage(@PathVariable Long id,@RequestParam String content){
+        return chatService.getLatestAssistantMessage(id, content)
+                .map(Result::success)
+                .defaultIfEmpty(Result.error("未找到对应的AI助手消息"));
     }
 
     /**
      * RAG 对话接口（带知识库检索） - 非流式
+     * 请求体 noCache=true 时跳过语义回答缓存；mode 指定检索方式（vector / lexical / hybrid）；
+     * mmrLambda / mmrFetchFactor 指定 MMR 重排的相关性权重与候选倍数；recall 指定向量检索的召回档位（fast / balanced / high）
      */
     @PostMapping("conversations/{id}/rag")
-    public Result<Message> ragChat( @PathVariable Long id,
+    public Mono<Result<Message>> ragChat( @PathVariable Long id,
                                     @RequestBody Map<String, String> request){
         String content = request.getOrDefault("content","");
-        Message assistantMessage = ragService.ragChat(id, content);
-        return Result.success(assistantMessage);
+        RagOptions options = ragOptions(request.get("mode"), Boolean.parseBoolean(request.get("noCache")),
+                request.get("mmrLambda"), request.get("mmrFetchFactor"), request.get("recall"));
+        // 检索 + 非流式生成（阻塞的部分在服务里各自切到 remote / jdbc 线程池）
+        return ragService.ragChat(id, content, options)
+                .map(Result::success);
     }
 
 
     /**
      * RAG 流式对话接口
+     * noCache=true 时跳过语义回答缓存；mode 指定检索方式（vector / lexical / hybrid），不传时使用配置的默认方式；
+     * mmrLambda（0~1，越小越偏向多样性）/ mmrFetchFactor 指定 MMR 重排参数；recall（fast / balanced / high）
+     * 指定向量检索的召回档位（ef_search / probes）；不传时使用配置
      */
     @GetMapping(value = "/conversations/{id}/rag-stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
     public Flux<ServerSentEvent<String>> ragStreamChat(
             @PathVariable Long id,
-            @RequestParam String message) {
-        return ragService.streamRagResponse(id,message,5)
+            @RequestParam String message,
+            @RequestParam(defaultValue = "false") boolean noCache,
+            @RequestParam(required = false) String mode,
+            @RequestParam(required = false) String mmrLambda,
+            @RequestParam(required = false) String mmrFetchFactor,
+            @RequestParam(required = false) String recall) {
+        return ragService.streamRagResponse(id, message, ragOptions(mode, noCache, mmrLambda, mmrFetchFactor, recall))
                 .map(content -> ServerSentEvent.<String>builder()
                         .data(content)
                         .build())
@@ -165,7 +187,9 @@ public class ChatController {
     public Flux<ServerSentEvent<String>> ragStreamChatPost(@PathVariable Long id,
                                                            @RequestBody Map<String,String> body) {
         String message = body.getOrDefault("message", "");
-        return ragService.streamRagResponse(id, message, 5)
+        RagOptions options = ragOptions(body.get("mode"), Boolean.parseBoolean(body.get("noCache")),
+                body.get("mmrLambda"), body.get("mmrFetchFactor"), body.get("recall"));
+        return ragService.streamRagResponse(id, message, options)
                 .map(c -> ServerSentEvent.<String>builder().data(c).build())
                 .concatWith(Flux.just(ServerSentEvent.<String>builder().data("[DONE]").build()));
     }
@@ -192,18 +216,61 @@ public class ChatController {
      * 文档入库接口
      */
     @PostMapping("rag/ingest")
-    public Result<String> ingestDocument(@RequestBody Map<String, Object> request){
+    public Mono<Result<String>> ingestDocument(@RequestBody Map<String, Object> request){
         String content = (String) request.get("content");
         Long docId = request.containsKey("docId") ?
                 Long.valueOf(request.get("docId").toString()) : null;
 
         if (content == null || content.isEmpty()) {
-            return Result.error("文档内容不能为空");
+            return Mono.just(Result.error("文档内容不能为空"));
         }
 
-        ragService.ingestDocument(content, docId);
-        return Result.success("文档入库成功");
+        return ragService.ingestDocument(content, docId)
+                .map(count -> Result.success("文档入库成功，共 " + count + " 个分片"));
     }
 
+    /**
+     * 批量检索接口（离线评测）：只检索不生成
+     * POST /api/chat/rag/retrieve-batch  {"queries": ["...", "..."], "topK": 5, "mode": "hybrid", "mmrLambda": 0.7, "recall": "high"}
+     */
+    @PostMapping("rag/retrieve-batch")
+    public Mono<Result<List<Map<String, Object>>>> retrieveBatch(@RequestBody Map<String, Object> request) {
+        if (!(request.get("queries") instanceof List<?> rawQueries) || rawQueries.isEmpty()) {
+            return Mono.just(Result.error("queries 不能为空"));
+        }
+        List<String> queries = rawQueries.stream().map(String::valueOf).toList();
+        int topK = request.containsKey("topK") ? Integer.parseInt(request.get("topK").toString()) : 5;
+        RagOptions options = new RagOptions(Math.max(1, topK),
+                RetrievalMode.parse(Objects.toString(request.get("mode"), null), null), false,
+                request.get("mmrLambda") != null ? Float.valueOf(request.get("mmrLambda").toString()) : null,
+                request.get("mmrFetchFactor") != null ? Integer.valueOf(request.get("mmrFetchFactor").toString()) : null,
+                RecallLevel.parse(Objects.toString(request.get("recall"), null), null));
+        // 向量化 + 检索整体阻塞，放到 remote 线程池
+        return Mono.fromCallable(() -> {
+                    List<List<ChunkHit>> hits = ragService.retrieveBatch(queries, options);
+                    List<Map<String, Object>> results = new ArrayList<>(queries.size());
+                    for (int i = 0; i < queries.size(); i++) {
+                        Map<String, Object> result = new LinkedHashMap<>();
+                        result.put("query", queries.get(i));
+                        result.put("hits", hits.get(i));
+                        results.add(result);
+                    }
+                    return Result.success(results);
+                })
+                .subscribeOn(blockingSchedulers.remote())
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(Result.error(e.getMessage())));
+    }
 
+    // RAG 接口的公共参数：检索 5 个片段，mode / MMR 参数 / 召回档位为空时由服务端按配置决定
+    private static RagOptions ragOptions(String mode, boolean noCache, String mmrLambda, String mmrFetchFactor,
+                                         String recall) {
+        try {
+            return new RagOptions(5, RetrievalMode.parse(mode, null), !noCache,
+                    mmrLambda == null || mmrLambda.isBlank() ? null : Float.valueOf(mmrLambda.trim()),
+                    mmrFetchFactor == null || mmrFetchFactor.isBlank() ? null : Integer.valueOf(mmrFetchFactor.trim()),
+                    RecallLevel.parse(recall, null));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("mmrLambda 必须是数字，mmrFetchFactor 必须是整数");
+        }
+    }
 }
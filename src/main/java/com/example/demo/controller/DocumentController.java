@@ -1,16 +1,21 @@
 package com.example.demo.controller;
 
 import com.example.demo.common.Dto.Result;
+import com.example.demo.config.BlockingSchedulers;
 import com.example.demo.domain.Document;
 
+import com.example.demo.domain.IngestionJob;
 import com.example.demo.service.DocumentService;
+import com.example.demo.service.IngestionJobService;
 
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.http.codec.multipart.FormFieldPart;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import java.util.List;
 
@@ -24,21 +29,27 @@ public class DocumentController {
 
 
     private final DocumentService documentService;
+    private final IngestionJobService ingestionJobService;
+    private final BlockingSchedulers blockingSchedulers;
 
-    public DocumentController(DocumentService documentService) {
+    public DocumentController(DocumentService documentService,
+                              IngestionJobService ingestionJobService,
+                              BlockingSchedulers blockingSchedulers) {
         this.documentService = documentService;
+        this.ingestionJobService = ingestionJobService;
+        this.blockingSchedulers = blockingSchedulers;
     }
 
 
     @PostMapping(value = "/upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public Mono<Result<Document>> uploadDocument(
+    public Mono<Result<IngestionJob>> uploadDocument(
             @RequestPart("file") FilePart filePart,
             @RequestPart(value = "description", required = false) FormFieldPart descriptionPart) {
 
         String description = descriptionPart != null ? descriptionPart.value() : null;
 
         return documentService.uploadDocument(filePart, description)
-                .map(document -> Result.success("文档上传成功", document))
+                .map(job -> Result.success("文档上传成功，正在后台入库", job))
                 .onErrorResume(e -> {
                     log.error("上传文档失败", e);
                     String message = e instanceof IllegalArgumentException
@@ -48,6 +59,29 @@ public class DocumentController {
                 });
     }
 
+    /**
+     * 用新文件替换文档内容（增量入库：只处理有变化的分片）
+     * PUT /api/document/{id}
+     */
+    @PutMapping(value = "/{id}", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    public Mono<Result<IngestionJob>> replaceDocument(
+            @PathVariable Long id,
+            @RequestPart("file") FilePart filePart,
+            @RequestPart(value = "description", required = false) FormFieldPart descriptionPart) {
+
+        String description = descriptionPart != null ? descriptionPart.value() : null;
+
+        return documentService.replaceDocument(id, filePart, description)
+                .map(job -> Result.success("文档已提交更新，正在后台增量入库", job))
+                .onErrorResume(e -> {
+                    log.error("更新文档失败: ID={}", id, e);
+                    String message = e instanceof IllegalArgumentException
+                            ? e.getMessage()
+                            : "更新文档失败: " + e.getMessage();
+                    return Mono.just(Result.error(message));
+                });
+    }
+
     @GetMapping("/list")
     public Mono<Result<List<Document>>> getAllDocuments() {
         return Mono.fromCallable(() -> {
@@ -58,7 +92,7 @@ public class DocumentController {
                 log.error("获取文档列表失败", e);
                 return Result.error("获取文档列表失败: " + e.getMessage());
             }
-        });
+        }).subscribeOn(blockingSchedulers.jdbc());
     }
 
     @GetMapping("/{id}")
@@ -73,7 +107,7 @@ public class DocumentController {
                 log.error("获取文档失败: ID={}", id, e);
                 return Result.error("获取文档失败: " + e.getMessage());
             }
-        });
+        }).subscribeOn(blockingSchedulers.jdbc());
     }
 
     @DeleteMapping("/{id}")
@@ -88,6 +122,43 @@ public class DocumentController {
                 log.error("删除文档失败: ID={}", id, e);
                 return Result.error("删除文档失败: " + e.getMessage());
             }
-        });
+        }).subscribeOn(blockingSchedulers.jdbc());
+    }
+
+    /**
+     * 查询入库任务
+     * GET /api/document/jobs/{jobId}
+     */
+    @GetMapping("/jobs/{jobId}")
+    public Mono<Result<IngestionJob>> getIngestionJob(@PathVariable Long jobId) {
+        return Mono.fromCallable(() -> {
+            try {
+                return Result.success(ingestionJobService.getJob(jobId));
+            } catch (IllegalArgumentException e) {
+                return Result.<IngestionJob>error(e.getMessage());
+            }
+        }).subscribeOn(blockingSchedulers.jdbc());
+    }
+
+    /**
+     * 入库进度（SSE）：阶段、已向量化 / 已存储的分片数变化时推送，任务结束后关闭
+     * GET /api/document/jobs/{jobId}/progress
+     */
+    @GetMapping(value = "/jobs/{jobId}/progress", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<IngestionJob>> watchIngestionJob(@PathVariable Long jobId) {
+        return ingestionJobService.watchJob(jobId)
+                .map(job -> ServerSentEvent.<IngestionJob>builder()
+                        .event(job.getStatus().name())
+                        .data(job)
+                        .build());
+    }
+
+    /**
+     * 某个文档的入库任务列表
+     */
+    @GetMapping("/{id}/jobs")
+    public Mono<Result<List<IngestionJob>>> listIngestionJobs(@PathVariable Long id) {
+        return Mono.fromCallable(() -> Result.success(ingestionJobService.listJobsByDocument(id)))
+                .subscribeOn(blockingSchedulers.jdbc());
     }
 }
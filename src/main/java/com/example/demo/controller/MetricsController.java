@@ -0,0 +1,202 @@
+package com.example.demo.controller;
+
+import com.example.demo.cache.ConversationHistoryCache;
+import com.example.demo.cache.RetrievalCache;
+import com.example.demo.cache.SemanticAnswerCache;
+import com.example.demo.common.Dto.Result;
+import com.example.demo.retrieval.LexicalIndex;
+import com.example.demo.prompt.ConversationSummarizer;
+import com.example.demo.prompt.PromptBuilder;
+import com.example.demo.retrieval.MmrReranker;
+import com.example.demo.config.BlockingSchedulers;
+import com.example.demo.embedding.EmbeddingDispatcher;
+import com.example.demo.embedding.EmbeddingMicroBatcher;
+import com.example.demo.repository.DocumentChunkJdbcRepository;
+import com.example.demo.repository.MessageWriteBehind;
+import com.example.demo.service.EmbeddingService;
+import com.example.demo.vector.VectorStoreRouter;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * 运行指标接口（缓存命中率等）
+ */
+@RestController
+@RequestMapping("/api/metrics")
+public class MetricsController {
+
+    private final EmbeddingService embeddingService;
+    private final DocumentChunkJdbcRepository documentChunkJdbcRepository;
+    private final EmbeddingMicroBatcher embeddingMicroBatcher;
+    private final EmbeddingDispatcher embeddingDispatcher;
+    private final BlockingSchedulers blockingSchedulers;
+    private final VectorStoreRouter vectorStoreRouter;
+    private final RetrievalCache retrievalCache;
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final LexicalIndex lexicalIndex;
+    private final MmrReranker mmrReranker;
+    private final ConversationHistoryCache conversationHistoryCache;
+    private final PromptBuilder promptBuilder;
+    private final ConversationSummarizer conversationSummarizer;
+    private final MessageWriteBehind messageWriteBehind;
+
+    public MetricsController(EmbeddingService embeddingService,
+                             DocumentChunkJdbcRepository documentChunkJdbcRepository,
+                             EmbeddingMicroBatcher embeddingMicroBatcher,
+                             EmbeddingDispatcher embeddingDispatcher,
+                             BlockingSchedulers blockingSchedulers,
+                             VectorStoreRouter vectorStoreRouter,
+                             RetrievalCache retrievalCache,
+                             SemanticAnswerCache semanticAnswerCache,
+                             LexicalIndex lexicalIndex,
+                             MmrReranker mmrReranker,
+                             ConversationHistoryCache conversationHistoryCache,
+                             PromptBuilder promptBuilder,
+                             ConversationSummarizer conversationSummarizer,
+                             MessageWriteBehind messageWriteBehind) {
+        this.embeddingService = embeddingService;
+        this.documentChunkJdbcRepository = documentChunkJdbcRepository;
+        this.embeddingMicroBatcher = embeddingMicroBatcher;
+        this.embeddingDispatcher = embeddingDispatcher;
+        this.blockingSchedulers = blockingSchedulers;
+        this.vectorStoreRouter = vectorStoreRouter;
+        this.retrievalCache = retrievalCache;
+        this.semanticAnswerCache = semanticAnswerCache;
+        this.lexicalIndex = lexicalIndex;
+        this.mmrReranker = mmrReranker;
+        this.conversationHistoryCache = conversationHistoryCache;
+        this.promptBuilder = promptBuilder;
+        this.conversationSummarizer = conversationSummarizer;
+        this.messageWriteBehind = messageWriteBehind;
+    }
+
+    /**
+     * embedding 缓存统计
+     * GET /api/metrics/embedding-cache
+     */
+    @GetMapping("/embedding-cache")
+    public Result<Map<String, Object>> embeddingCacheStats() {
+        return Result.success(embeddingService.getCacheStats());
+    }
+
+    /**
+     * 分片批量写入吞吐（chunks/s）
+     * GET /api/metrics/chunk-writer
+     */
+    @GetMapping("/chunk-writer")
+    public Result<Map<String, Object>> chunkWriterStats() {
+        return Result.success(documentChunkJdbcRepository.stats());
+    }
+
+    /**
+     * 单条 embedding 请求的合并情况（批次数、填充率、排队时间）
+     * GET /api/metrics/embedding-batcher
+     */
+    @GetMapping("/embedding-batcher")
+    public Result<Map<String, Object>> embeddingBatcherStats() {
+        return Result.success(embeddingMicroBatcher.stats());
+    }
+
+    /**
+     * 批量 embedding 调度（批次数、平均条数 / token、重试次数）
+     * GET /api/metrics/embedding-dispatch
+     */
+    @GetMapping("/embedding-dispatch")
+    public Result<Map<String, Object>> embeddingDispatchStats() {
+        return Result.success(embeddingDispatcher.stats());
+    }
+
+    /**
+     * 阻塞操作线程池（parse / jdbc / remote）的队列深度与活跃线程数
+     * GET /api/metrics/schedulers
+     */
+    @GetMapping("/schedulers")
+    public Result<Map<String, Object>> schedulerStats() {
+        return Result.success(blockingSchedulers.stats());
+    }
+
+    /**
+     * 向量存储：配置 / 实际使用的后端，以及 pgvector、HNSW（节点数、墓碑数、堆外内存、延迟分位数、抽样召回率）、
+     * 暴力检索（距离内核、并行度、平均耗时）各自的状态
+     * GET /api/metrics/vector-store
+     */
+    @GetMapping("/vector-store")
+    public Result<Map<String, Object>> vectorStoreStats() {
+        return Result.success(vectorStoreRouter.stats());
+    }
+
+    /**
+     * RAG 检索结果缓存（命中率、失效次数、节省的检索耗时）
+     * GET /api/metrics/retrieval-cache
+     */
+    @GetMapping("/retrieval-cache")
+    public Result<Map<String, Object>> retrievalCacheStats() {
+        return Result.success(retrievalCache.stats());
+    }
+
+    /**
+     * RAG 语义回答缓存（命中率、跳过次数、失效 / 淘汰次数）
+     * GET /api/metrics/answer-cache
+     */
+    @GetMapping("/answer-cache")
+    public Result<Map<String, Object>> answerCacheStats() {
+        return Result.success(semanticAnswerCache.stats());
+    }
+
+    /**
+     * 关键词检索索引（索引是否有效、补齐的分片数、检索耗时）
+     * GET /api/metrics/lexical-index
+     */
+    @GetMapping("/lexical-index")
+    public Result<Map<String, Object>> lexicalIndexStats() {
+        return Result.success(lexicalIndex.stats());
+    }
+
+    /**
+     * MMR 重排（次数、平均候选数、平均耗时）
+     * GET /api/metrics/mmr
+     */
+    @GetMapping("/mmr")
+    public Result<Map<String, Object>> mmrStats() {
+        return Result.success(mmrReranker.stats());
+    }
+
+    /**
+     * 会话历史窗口缓存（缓存的会话数、命中 / 加载次数）
+     * GET /api/metrics/history-cache
+     */
+    @GetMapping("/history-cache")
+    public Result<Map<String, Object>> historyCacheStats() {
+        return Result.success(conversationHistoryCache.stats());
+    }
+
+    /**
+     * prompt 组装（平均估算 token 数、因预算丢弃 / 截断的历史消息和文档片段）
+     * GET /api/metrics/prompt
+     */
+    @GetMapping("/prompt")
+    public Result<Map<String, Object>> promptStats() {
+        return Result.success(promptBuilder.stats());
+    }
+
+    /**
+     * 会话滚动摘要（触发 / 完成次数、折叠的消息数、失败次数）
+     * GET /api/metrics/summary
+     */
+    @GetMapping("/summary")
+    public Result<Map<String, Object>> summaryStats() {
+        return Result.success(conversationSummarizer.stats());
+    }
+
+    /**
+     * 消息写后持久化（队列 / 未写库条数、批次数、平均批大小和写库耗时、失败 / 恢复条数）
+     * GET /api/metrics/message-writer
+     */
+    @GetMapping("/message-writer")
+    public Result<Map<String, Object>> messageWriterStats() {
+        return Result.success(messageWriteBehind.stats());
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.demo.controller;
+
+import com.example.demo.common.Dto.Result;
+import com.example.demo.config.BlockingSchedulers;
+import com.example.demo.vector.RecallLevel;
+import com.example.demo.vector.VectorIndexManager;
+import com.example.demo.vector.VectorIndexManager.IndexSpec;
+import com.example.demo.vector.VectorStoreRouter;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+/**
+ * 向量索引管理接口
+ */
+@RestController
+@RequestMapping("/api/vector/index")
+public class VectorIndexController {
+
+    private final VectorIndexManager vectorIndexManager;
+    private final VectorStoreRouter vectorStoreRouter;
+    private final BlockingSchedulers blockingSchedulers;
+
+    public VectorIndexController(VectorIndexManager vectorIndexManager,
+                                 VectorStoreRouter vectorStoreRouter,
+                                 BlockingSchedulers blockingSchedulers) {
+        this.vectorIndexManager = vectorIndexManager;
+        this.vectorStoreRouter = vectorStoreRouter;
+        this.blockingSchedulers = blockingSchedulers;
+    }
+
+    /**
+     * 索引状态：类型、大小、扫描次数、构建进度
+     * GET /api/vector/index
+     */
+    @GetMapping
+    public Mono<Result<Map<String, Object>>> status() {
+        return Mono.fromCallable(() -> Result.success(vectorIndexManager.status()))
+                .subscribeOn(blockingSchedulers.jdbc());
+    }
+
+    /**
+     * 按新参数在后台重建索引，未传的参数沿用配置
+     * POST /api/vector/index/rebuild  {"type": "hnsw", "m": 16, "efConstruction": 64, "lists": 0, "quantization": "half"}
+     */
+    @PostMapping("/rebuild")
+    public Result<String> rebuild(@RequestBody(required = false) Map<String, Object> request) {
+        IndexSpec configured = vectorIndexManager.getConfiguredSpec();
+        Map<String, Object> params = request != null ? request : Map.of();
+        IndexSpec spec;
+        try {
+            spec = new IndexSpec(
+                    params.containsKey("type") ? VectorIndexManager.parseType(params.get("type").toString()) : configured.type(),
+                    intParam(params, "m", configured.m()),
+                    intParam(params, "efConstruction", configured.efConstruction()),
+                    intParam(params, "lists", configured.lists()),
+                    params.containsKey("quantization")
+                            ? VectorIndexManager.parseQuantization(params.get("quantization").toString()) : configured.quantization());
+        } catch (IllegalArgumentException e) {
+            return Result.error(e.getMessage());
+        }
+        if (!vectorIndexManager.rebuild(spec)) {
+            return Result.error("已有索引正在构建，请稍后再试");
+        }
+        return Result.success("索引重建已开始，可通过 GET /api/vector/index 查看进度");
+    }
+
+    /**
+     * 召回率测试：以暴力检索存储的精确结果为基准，计算 pgvector / hnsw / quantized 的 recall@k 与平均耗时
+     * GET /api/vector/index/recall?samples=50&topK=10&recall=balanced
+     */
+    @GetMapping("/recall")
+    public Mono<Result<Map<String, Object>>> recall(@RequestParam(defaultValue = "50") int samples,
+                                                    @RequestParam(defaultValue = "10") int topK,
+                                                    @RequestParam(required = false) String recall) {
+        return Mono.fromCallable(() -> Result.success(vectorStoreRouter.measureRecall(
+                        Math.max(1, Math.min(samples, 1000)), Math.max(1, topK),
+                        RecallLevel.parse(recall, vectorIndexManager.getDefaultRecall()))))
+                .subscribeOn(blockingSchedulers.jdbc())
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(Result.error(e.getMessage())));
+    }
+
+    /**
+     * 压缩存储报告：pgvector 索引与 quantized 存储节省的内存，以及各后端相对精确检索的 recall@k
+     * GET /api/vector/index/quantization?samples=50&topK=10&recall=balanced
+     */
+    @GetMapping("/quantization")
+    public Mono<Result<Map<String, Object>>> quantization(@RequestParam(defaultValue = "50") int samples,
+                                                          @RequestParam(defaultValue = "10") int topK,
+                                                          @RequestParam(required = false) String recall) {
+        return Mono.fromCallable(() -> Result.success(vectorStoreRouter.quantizationReport(
+                        Math.max(1, Math.min(samples, 1000)), Math.max(1, topK),
+                        RecallLevel.parse(recall, vectorIndexManager.getDefaultRecall()))))
+                .subscribeOn(blockingSchedulers.jdbc())
+                .onErrorResume(IllegalArgumentException.class, e -> Mono.just(Result.error(e.getMessage())));
+    }
+
+    private int intParam(Map<String, Object> params, String name, int defaultValue) {
+        Object value = params.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.toString());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("参数 " + name + " 必须是整数");
+        }
+    }
+}
@@ -8,7 +8,9 @@ import java.time.LocalDateTime;
 @Data
 @NoArgsConstructor
 @Entity
-@Table(name = "document_chunk")
+@Table(name = "document_chunk", indexes = {
+        @Index(name = "idx_document_chunk_doc_hash", columnList = "doc_id, content_hash")
+})
 public class DocumentChunk {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
@@ -20,6 +22,12 @@ public class DocumentChunk {
     @Column(columnDefinition = "text", nullable = false)
     private String content;  // 文档内容
 
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;  // 内容的 sha256，重新上传文档时用来判断分片是否变化
+
+    @Column(name = "search_tokens", columnDefinition = "text")
+    private String searchTokens;  // 关键词检索的词项（空格分隔，见 LexicalTokenizer），GIN 索引由 LexicalIndex 维护
+
     @Column(columnDefinition = "vector(1536)", nullable = false)  // 1536 是 OpenAI embedding 的维度
     private String embedding;  // 向量（PostgreSQL 的 vector 类型）
 
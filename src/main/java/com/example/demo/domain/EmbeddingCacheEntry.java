@@ -0,0 +1,34 @@
+package com.example.demo.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * Embedding 缓存的持久化层（重启后仍然有效）
+ * 向量以 float32 小端字节序存为 bytea，避免文本序列化
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "embedding_cache")
+public class EmbeddingCacheEntry {
+
+    @Id
+    @Column(name = "cache_key", length = 64)
+    private String cacheKey;   // sha256(模型名 + 规范化文本)
+
+    @Column(nullable = false, length = 100)
+    private String model;      // 生成该向量的 embedding 模型
+
+    @Column(nullable = false)
+    private Integer dimensions;
+
+    @Column(columnDefinition = "bytea", nullable = false)
+    private byte[] embedding;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt = LocalDateTime.now();
+}
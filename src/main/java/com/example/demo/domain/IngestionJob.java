@@ -0,0 +1,98 @@
+package com.example.demo.domain;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+/**
+ * 文档入库任务
+ * 上传接口只负责落盘 + 建任务，解析 / 切分并向量化 / 存储由后台各阶段的 worker 依次完成
+ */
+@Data
+@NoArgsConstructor
+@Entity
+@Table(name = "ingestion_job", indexes = {
+        @Index(name = "idx_ingestion_job_claim", columnList = "stage, status, next_run_at"),
+        @Index(name = "idx_ingestion_job_doc", columnList = "doc_id")
+})
+public class IngestionJob {
+
+    // EMBED 阶段边切分边向量化（两者流水线进行），不再单独有切分阶段
+    public enum Stage { PARSE, EMBED, STORE, DONE }
+
+    public enum Status { PENDING, RUNNING, DONE, FAILED }
+
+    /**
+     * CREATE：新上传的文档；REPLACE：用新文件替换已有文档的内容（只处理有变化的分片，失败时保留原有内容）
+     */
+    public enum Mode { CREATE, REPLACE }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "doc_id", nullable = false)
+    private Long docId;
+
+    @Column(nullable = false)
+    private String filename;    // 原始文件名
+
+    @Column(name = "file_path", nullable = false)
+    private String filePath;    // 已落盘的上传文件
+
+    @Enumerated(EnumType.STRING)
+    @Column(length = 20)
+    private Mode mode = Mode.CREATE;   // 允许为空：加列前已有的任务按 CREATE 处理
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Stage stage = Stage.PARSE;
+
+    @Enumerated(EnumType.STRING)
+    @Column(nullable = false, length = 20)
+    private Status status = Status.PENDING;
+
+    @Column(nullable = false)
+    private Integer attempts = 0;     // 当前阶段已失败的次数
+
+    @Column(name = "total_chunks")
+    private Integer totalChunks = 0;
+
+    @Column(name = "embedded_chunks")
+    private Integer embeddedChunks = 0;
+
+    @Column(name = "stored_chunks")
+    private Integer storedChunks = 0;     // 新写入的分片数
+
+    @Column(name = "reused_chunks")
+    private Integer reusedChunks = 0;     // 内容未变、直接保留的分片数（不重新向量化）
+
+    @Column(name = "removed_chunks")
+    private Integer removedChunks = 0;    // 新版本中已不存在、被删除的分片数
+
+    @Column(name = "error_message", columnDefinition = "text")
+    private String errorMessage;
+
+    @Column(name = "next_run_at", nullable = false)
+    private LocalDateTime nextRunAt = LocalDateTime.now();
+
+    @Column(name = "locked_at")
+    private LocalDateTime lockedAt;   // 被 worker 认领 / 最近一次汇报进度的时间，用于回收崩溃遗留的任务
+
+    // 乐观锁：认领和回收（releaseStale）都会加一，被回收的那次执行之后的保存会失败，不会覆盖新认领者写入的状态
+    @Version
+    @Column(columnDefinition = "bigint default 0 not null")
+    private long version;
+
+    @Column(name = "created_at")
+    private LocalDateTime createdAt = LocalDateTime.now();
+
+    @Column(name = "updated_at")
+    private LocalDateTime updatedAt = LocalDateTime.now();
+
+    public boolean isFinished() {
+        return status == Status.DONE || status == Status.FAILED;
+    }
+}
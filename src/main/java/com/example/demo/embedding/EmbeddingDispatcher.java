@@ -0,0 +1,179 @@
+package com.example.demo.embedding;
+
+import com.example.demo.common.TokenEstimator;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 大批量文本的 embedding 调度
+ * 按 token 预算和单次条数上限把输入切成多批，最多 concurrency 批并行调用模型（所有调用方共用，对应服务商配额），
+ * 每批失败后单独退避重试，结果按输入顺序返回
+ */
+@Component
+public class EmbeddingDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingDispatcher.class);
+
+    private final EmbeddingModel embeddingModel;
+    private final int maxBatchItems;
+    private final int maxBatchTokens;
+    private final int maxAttempts;
+    private final long retryBackoffMs;
+    private final ExecutorService executor;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong tokens = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    public EmbeddingDispatcher(EmbeddingModel embeddingModel,
+                               @Value("${app.embedding.dispatch.max-batch-items:25}") int maxBatchItems,
+                               @Value("${app.embedding.dispatch.max-batch-tokens:8000}") int maxBatchTokens,
+                               @Value("${app.embedding.dispatch.concurrency:4}") int concurrency,
+                               @Value("${app.embedding.dispatch.max-attempts:3}") int maxAttempts,
+                               @Value("${app.embedding.dispatch.retry-backoff-ms:500}") long retryBackoffMs) {
+        this.embeddingModel = embeddingModel;
+        this.maxBatchItems = Math.max(1, maxBatchItems);
+        this.maxBatchTokens = Math.max(1, maxBatchTokens);
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.retryBackoffMs = retryBackoffMs;
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency), runnable -> {
+            Thread thread = new Thread(runnable, "embedding-dispatch-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 生成一组文本的 embedding，返回顺序与输入一致
+     */
+    public List<float[]> embed(List<String> texts) {
+        if (texts.isEmpty()) {
+            return List.of();
+        }
+        List<int[]> ranges = plan(texts);
+
+        float[][] result = new float[texts.size()][];
+        List<CompletableFuture<Void>> futures = new ArrayList<>(ranges.size());
+        for (int[] range : ranges) {
+            futures.add(CompletableFuture.runAsync(() -> {
+                List<float[]> embeddings = embedWithRetry(texts.subList(range[0], range[1]), range[2]);
+                for (int i = 0; i < embeddings.size(); i++) {
+                    result[range[0] + i] = embeddings.get(i);
+                }
+            }, executor));
+        }
+
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get();
+        } catch (ExecutionException e) {
+            // 某一批重试后仍失败：还没开始的批次不再调用
+            futures.forEach(future -> future.cancel(false));
+            Throwable cause = e.getCause();
+            throw new RuntimeException("批量生成 embedding 失败：" + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(false));
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待 embedding 结果被中断", e);
+        }
+        return Arrays.asList(result);
+    }
+
+    public Map<String, Object> stats() {
+        long batchCount = batches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxBatchItems", maxBatchItems);
+        stats.put("maxBatchTokens", maxBatchTokens);
+        stats.put("batches", batchCount);
+        stats.put("items", items.get());
+        stats.put("inFlight", inFlight.get());
+        stats.put("retries", retries.get());
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("avgBatchItems", batchCount == 0 ? 0.0 : (double) items.get() / batchCount);
+        stats.put("avgBatchTokens", batchCount == 0 ? 0.0 : (double) tokens.get() / batchCount);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * 切批：每批不超过 maxBatchItems 条、估算 token 不超过 maxBatchTokens（单条超预算的文本独占一批）
+     * @return 每批的 [起始下标, 结束下标, token 数]
+     */
+    private List<int[]> plan(List<String> texts) {
+        List<int[]> ranges = new ArrayList<>();
+        int from = 0;
+        int batchTokens = 0;
+        for (int i = 0; i < texts.size(); i++) {
+            int textTokens = TokenEstimator.estimate(texts.get(i));
+            boolean full = i - from >= maxBatchItems || batchTokens + textTokens > maxBatchTokens;
+            if (i > from && full) {
+                ranges.add(new int[]{from, i, batchTokens});
+                from = i;
+                batchTokens = 0;
+            }
+            batchTokens += textTokens;
+        }
+        ranges.add(new int[]{from, texts.size(), batchTokens});
+        return ranges;
+    }
+
+    private List<float[]> embedWithRetry(List<String> batch, int batchTokens) {
+        inFlight.incrementAndGet();
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    List<float[]> embeddings = embeddingModel.embed(batch);
+                    if (embeddings.size() != batch.size()) {
+                        throw new IllegalStateException("模型返回的向量数量与输入不一致：" + embeddings.size() + " / " + batch.size());
+                    }
+                    batches.incrementAndGet();
+                    items.addAndGet(batch.size());
+                    tokens.addAndGet(batchTokens);
+                    return embeddings;
+                } catch (RuntimeException e) {
+                    if (attempt >= maxAttempts) {
+                        failedBatches.incrementAndGet();
+                        throw e;
+                    }
+                    retries.incrementAndGet();
+                    log.warn("embedding 批次失败，稍后重试: 条数={}, 第{}次, 原因={}", batch.size(), attempt, e.getMessage());
+                    sleep(retryBackoffMs * attempt);
+                }
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("embedding 重试等待被中断", e);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.example.demo.embedding;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 单条 embedding 请求的微批合并
+ * 并发到达的 embedText 调用先进入等待队列：第一条进入后最多等 linger-ms，
+ * 或者攒满 max-batch-size 条，就合并成一次 embeddingModel.embed(List) 调用，再分别完成各自的 future
+ * 同步等待最多 timeout-ms，超时后该请求以失败结束，模型调用卡住时调用方（包括入库 worker）不会一直被占住
+ */
+@Component
+public class EmbeddingMicroBatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingMicroBatcher.class);
+
+    private final EmbeddingModel embeddingModel;
+    private final boolean enabled;
+    private final long lingerMs;
+    private final int maxBatchSize;
+    private final long timeoutMs;
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService dispatcher;
+
+    private final Object lock = new Object();
+    private List<PendingRequest> pending = new ArrayList<>();
+    private ScheduledFuture<?> lingerTask;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong modelInputs = new AtomicLong();
+    private final AtomicLong sizeFlushes = new AtomicLong();
+    private final AtomicLong lingerFlushes = new AtomicLong();
+    private final AtomicLong failedBatches = new AtomicLong();
+    private final AtomicLong timeouts = new AtomicLong();
+    private final AtomicLong totalWaitMicros = new AtomicLong();
+
+    public EmbeddingMicroBatcher(EmbeddingModel embeddingModel,
+                                 @Value("${app.embedding.batcher.enabled:true}") boolean enabled,
+                                 @Value("${app.embedding.batcher.linger-ms:5}") long lingerMs,
+                                 @Value("${app.embedding.batcher.max-batch-size:25}") int maxBatchSize,
+                                 @Value("${app.embedding.batcher.concurrency:4}") int concurrency,
+                                 @Value("${app.embedding.batcher.timeout-ms:30000}") long timeoutMs) {
+        this.embeddingModel = embeddingModel;
+        this.enabled = enabled;
+        this.lingerMs = lingerMs;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.timeoutMs = Math.max(1, timeoutMs);
+        this.timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("embedding-linger"));
+        this.dispatcher = Executors.newFixedThreadPool(Math.max(1, concurrency), daemonThreads("embedding-batch"));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 提交一条文本，返回的 future 在所在批次的模型调用结束后完成
+     */
+    public CompletableFuture<float[]> submit(String text) {
+        PendingRequest request = new PendingRequest(text, System.nanoTime());
+        requests.incrementAndGet();
+        List<PendingRequest> full = null;
+        synchronized (lock) {
+            pending.add(request);
+            if (pending.size() >= maxBatchSize) {
+                full = drain();
+                sizeFlushes.incrementAndGet();
+            } else if (pending.size() == 1) {
+                lingerTask = timer.schedule(this::flushOnLinger, lingerMs, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full != null) {
+            List<PendingRequest> batch = full;
+            dispatcher.execute(() -> dispatch(batch));
+        }
+        return request.future;
+    }
+
+    /**
+     * 同步等待结果（EmbeddingService.embedText 使用），最多等 timeout-ms
+     */
+    public float[] embed(String text) {
+        CompletableFuture<float[]> future = submit(text);
+        try {
+            return future.get(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // 让 future 以失败结束，所在批次之后再完成时不会有人等它
+            future.completeExceptionally(e);
+            timeouts.incrementAndGet();
+            throw new RuntimeException("等待 embedding 结果超时（" + timeoutMs + "ms）", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new RuntimeException("生成 embedding 失败：" + cause.getMessage(), cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("等待 embedding 结果被中断", e);
+        }
+    }
+
+    public Map<String, Object> stats() {
+        long batchCount = batches.get();
+        long requestCount = requests.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("lingerMs", lingerMs);
+        stats.put("maxBatchSize", maxBatchSize);
+        stats.put("requests", requestCount);
+        stats.put("batches", batchCount);
+        stats.put("modelInputs", modelInputs.get());
+        stats.put("sizeFlushes", sizeFlushes.get());
+        stats.put("lingerFlushes", lingerFlushes.get());
+        stats.put("failedBatches", failedBatches.get());
+        stats.put("timeouts", timeouts.get());
+        stats.put("avgBatchSize", batchCount == 0 ? 0.0 : (double) requestCount / batchCount);
+        // 填充率：平均每批请求数 / 批大小上限
+        stats.put("avgFillRatio", batchCount == 0 ? 0.0 : (double) requestCount / (batchCount * maxBatchSize));
+        stats.put("avgQueueWaitMs", requestCount == 0 ? 0.0 : totalWaitMicros.get() / 1000.0 / requestCount);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdown();
+        dispatcher.shutdown();
+    }
+
+    private void flushOnLinger() {
+        List<PendingRequest> batch;
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = drain();
+        }
+        lingerFlushes.incrementAndGet();
+        dispatcher.execute(() -> dispatch(batch));
+    }
+
+    // 必须持有 lock
+    private List<PendingRequest> drain() {
+        List<PendingRequest> batch = pending;
+        pending = new ArrayList<>(maxBatchSize);
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        return batch;
+    }
+
+    private void dispatch(List<PendingRequest> batch) {
+        long now = System.nanoTime();
+        // 同一批里的相同文本只发一次
+        Map<String, List<PendingRequest>> byText = new LinkedHashMap<>();
+        for (PendingRequest request : batch) {
+            totalWaitMicros.addAndGet((now - request.enqueuedAt) / 1000);
+            byText.computeIfAbsent(request.text, k -> new ArrayList<>(1)).add(request);
+        }
+        batches.incrementAndGet();
+        modelInputs.addAndGet(byText.size());
+
+        try {
+            List<float[]> embeddings = embeddingModel.embed(new ArrayList<>(byText.keySet()));
+            int i = 0;
+            for (List<PendingRequest> requestsOfText : byText.values()) {
+                float[] embedding = embeddings.get(i++);
+                for (PendingRequest request : requestsOfText) {
+                    request.future.complete(embedding);
+                }
+            }
+        } catch (Exception e) {
+            failedBatches.incrementAndGet();
+            log.warn("合并 embedding 请求失败: 批大小={}", batch.size(), e);
+            for (PendingRequest request : batch) {
+                request.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static final class PendingRequest {
+
+        private final String text;
+        private final long enqueuedAt;
+        private final CompletableFuture<float[]> future = new CompletableFuture<>();
+
+        PendingRequest(String text, long enqueuedAt) {
+            this.text = text;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
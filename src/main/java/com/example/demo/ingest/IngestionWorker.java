@@ -0,0 +1,473 @@
+package com.example.demo.ingest;
+
+import com.example.demo.common.ContentHash;
+import com.example.demo.config.BlockingSchedulers;
+import com.example.demo.domain.IngestionJob;
+import com.example.demo.domain.IngestionJob.Mode;
+import com.example.demo.domain.IngestionJob.Stage;
+import com.example.demo.domain.IngestionJob.Status;
+import com.example.demo.repository.DocumentChunkJdbcRepository;
+import com.example.demo.repository.DocumentMetaRepository;
+import com.example.demo.repository.IngestionJobRepository;
+import com.example.demo.service.DocumentParserService;
+import com.example.demo.service.EmbeddingService;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.publisher.Mono;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 入库任务的后台 worker
+ * 每个阶段（解析 / 切分并向量化 / 存储）有独立的线程池，定时从 ingestion_job 表认领本阶段的任务；
+ * 某阶段失败时按退避时间重试该阶段，超过最大次数后任务标记为 FAILED 并清理已落盘的文档
+ * 执行中每次汇报进度都会刷新 locked_at；超过 stale-timeout-minutes 没有刷新的任务会被回收重新认领，
+ * 任务带版本号，被回收的那次执行之后的保存（包括存储阶段的事务）都会失败，不会与新的执行重复写入分片
+ */
+@Component
+public class IngestionWorker {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionWorker.class);
+
+    private static final float[] EMPTY_EMBEDDING = new float[0];
+
+    private final IngestionJobRepository ingestionJobRepository;
+    private final DocumentMetaRepository documentMetaRepository;
+    private final DocumentChunkJdbcRepository documentChunkJdbcRepository;
+    private final DocumentParserService documentParserService;
+    private final EmbeddingService embeddingService;
+    private final TextChunker textChunker;
+    private final IngestionWorkspace workspace;
+    private final TransactionTemplate transactionTemplate;
+    private final BlockingSchedulers blockingSchedulers;
+
+    private final Map<Stage, StagePool> pools = new EnumMap<>(Stage.class);
+
+    @Value("${app.ingest.max-attempts:3}")
+    private int maxAttempts;
+
+    @Value("${app.ingest.retry-backoff-ms:5000}")
+    private long retryBackoffMs;
+
+    @Value("${app.ingest.embed-batch-size:32}")
+    private int embedBatchSize;
+
+    @Value("${app.ingest.embed-concurrency:2}")
+    private int embedConcurrency;
+
+    @Value("${app.ingest.stale-timeout-minutes:10}")
+    private long staleTimeoutMinutes;
+
+    public IngestionWorker(IngestionJobRepository ingestionJobRepository,
+                           DocumentMetaRepository documentMetaRepository,
+                           DocumentChunkJdbcRepository documentChunkJdbcRepository,
+                           DocumentParserService documentParserService,
+                           EmbeddingService embeddingService,
+                           TextChunker textChunker,
+                           IngestionWorkspace workspace,
+                           PlatformTransactionManager transactionManager,
+                           BlockingSchedulers blockingSchedulers,
+                           @Value("${app.ingest.workers.parse:2}") int parseWorkers,
+                           @Value("${app.ingest.workers.embed:4}") int embedWorkers,
+                           @Value("${app.ingest.workers.store:2}") int storeWorkers) {
+        this.ingestionJobRepository = ingestionJobRepository;
+        this.documentMetaRepository = documentMetaRepository;
+        this.documentChunkJdbcRepository = documentChunkJdbcRepository;
+        this.documentParserService = documentParserService;
+        this.embeddingService = embeddingService;
+        this.textChunker = textChunker;
+        this.workspace = workspace;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.blockingSchedulers = blockingSchedulers;
+        pools.put(Stage.PARSE, new StagePool("ingest-parse", parseWorkers));
+        pools.put(Stage.EMBED, new StagePool("ingest-embed", embedWorkers));
+        pools.put(Stage.STORE, new StagePool("ingest-store", storeWorkers));
+    }
+
+    /**
+     * 按各阶段线程池的空闲数量认领任务
+     */
+    @Scheduled(fixedDelayString = "${app.ingest.poll-interval-ms:1000}")
+    public void poll() {
+        pools.forEach((stage, pool) -> {
+            int free = pool.free();
+            if (free <= 0) {
+                return;
+            }
+            try {
+                for (IngestionJob job : claim(stage, free)) {
+                    pool.submit(() -> run(job));
+                }
+            } catch (Exception e) {
+                log.error("认领入库任务失败: stage={}", stage, e);
+            }
+        });
+    }
+
+    /**
+     * 回收 RUNNING 状态停留过久的任务
+     */
+    @Scheduled(fixedDelayString = "${app.ingest.stale-check-interval-ms:60000}")
+    public void releaseStaleJobs() {
+        int released = ingestionJobRepository.releaseStale(LocalDateTime.now().minusMinutes(staleTimeoutMinutes));
+        if (released > 0) {
+            log.warn("回收了 {} 个超时未完成的入库任务", released);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pools.values().forEach(StagePool::shutdown);
+    }
+
+    private List<IngestionJob> claim(Stage stage, int limit) {
+        return transactionTemplate.execute(status -> {
+            LocalDateTime now = LocalDateTime.now();
+            List<IngestionJob> jobs = ingestionJobRepository.lockPending(stage.name(), now, limit);
+            for (IngestionJob job : jobs) {
+                job.setStatus(Status.RUNNING);
+                job.setLockedAt(now);
+                job.setUpdatedAt(now);
+            }
+            return ingestionJobRepository.saveAll(jobs);
+        });
+    }
+
+    private void run(IngestionJob job) {
+        long start = System.currentTimeMillis();
+        try {
+            Stage next = switch (job.getStage()) {
+                case PARSE -> parse(job);
+                case EMBED -> embed(job);
+                case STORE -> store(job);
+                case DONE -> Stage.DONE;
+            };
+            log.info("入库任务阶段完成: jobId={}, docId={}, stage={}, 耗时={}ms",
+                    job.getId(), job.getDocId(), job.getStage(), System.currentTimeMillis() - start);
+            advance(job, next);
+        } catch (ObjectOptimisticLockingFailureException e) {
+            abandon(job);
+        } catch (Exception e) {
+            try {
+                fail(job, e);
+            } catch (ObjectOptimisticLockingFailureException lost) {
+                abandon(job);
+            }
+        }
+    }
+
+    // 任务已被回收并由别的 worker 重新认领，本次执行的结果作废
+    private void abandon(IngestionJob job) {
+        log.warn("入库任务已被回收并重新认领，放弃本次执行: jobId={}, stage={}", job.getId(), job.getStage());
+    }
+
+    // 1、解析：上传文件 -> 纯文本（边解析边写入文本文件，不在堆上保留整份内容）
+    //    Tika 解析放到 parse 线程池上执行（有界、计入调度器统计），本阶段的线程只等待结果
+    private Stage parse(IngestionJob job) {
+        Mono.fromCallable(() -> {
+                    try (Writer writer = Files.newBufferedWriter(workspace.textFile(job.getId()), StandardCharsets.UTF_8)) {
+                        documentParserService.parseFile(Paths.get(job.getFilePath()), writer);
+                    }
+                    return job;
+                })
+                .subscribeOn(blockingSchedulers.parse())
+                .block();
+        return Stage.EMBED;
+    }
+
+    // 2、切分并向量化：从文本文件边读边切分，凑满一批就提交向量化，最多 embedConcurrency 个批次在途，
+    //    切分与向量化重叠进行；内容哈希在现有分片里找得到的分片不调用向量化，每批完成后更新进度
+    //    结束后写出 chunks.json 与向量文件，两者一一对应，不需要向量化的分片写入空向量占位
+    private Stage embed(IngestionJob job) throws Exception {
+        Map<String, List<Long>> existing = documentChunkJdbcRepository.findChunkIdsByContentHash(job.getDocId());
+        Map<String, Integer> reusable = new HashMap<>();
+        existing.forEach((hash, ids) -> reusable.put(hash, ids.size()));
+        job.setTotalChunks(0);
+        job.setReusedChunks(0);
+        job.setEmbeddedChunks(0);
+        saveProgress(job);
+
+        // chunks 只在切分回调里访问，embeddings 只在批次完成回调里访问，两类回调各自串行
+        List<String> chunks = new ArrayList<>();
+        Map<Integer, float[]> embeddings = new HashMap<>();
+        AtomicInteger reused = new AtomicInteger();
+        try (Reader reader = Files.newBufferedReader(workspace.textFile(job.getId()), StandardCharsets.UTF_8)) {
+            textChunker.chunk(reader)
+                    .map(chunk -> {
+                        chunks.add(chunk);
+                        boolean reuse = reusable.merge(ContentHash.sha256Hex(chunk), -1, Integer::sum) >= 0;
+                        if (reuse) {
+                            reused.incrementAndGet();
+                        }
+                        return new PendingChunk(chunks.size() - 1, chunk, reuse);
+                    })
+                    .filter(chunk -> !chunk.reuse())
+                    .buffer(embedBatchSize)
+                    .flatMapSequential(batch -> Mono.fromCallable(() -> embedBatch(batch))
+                                    .subscribeOn(blockingSchedulers.remote()),
+                            embedConcurrency, 1)
+                    .doOnNext(batch -> {
+                        embeddings.putAll(batch);
+                        job.setEmbeddedChunks(embeddings.size());
+                        job.setReusedChunks(reused.get());
+                        job.setTotalChunks(embeddings.size() + reused.get());
+                        saveProgress(job);
+                    })
+                    .blockLast();
+        }
+
+        workspace.writeChunks(job.getId(), chunks);
+        job.setTotalChunks(chunks.size());
+        job.setReusedChunks(reused.get());
+        job.setEmbeddedChunks(embeddings.size());
+        try (DataOutputStream out = workspace.openEmbeddings(job.getId())) {
+            for (int i = 0; i < chunks.size(); i++) {
+                IngestionWorkspace.writeEmbedding(out, embeddings.getOrDefault(i, EMPTY_EMBEDDING));
+            }
+        }
+        return Stage.STORE;
+    }
+
+    private Map<Integer, float[]> embedBatch(List<PendingChunk> batch) {
+        List<String> texts = new ArrayList<>(batch.size());
+        for (PendingChunk chunk : batch) {
+            texts.add(chunk.text());
+        }
+        List<float[]> batchEmbeddings = embeddingService.embedTexts(texts);
+        Map<Integer, float[]> result = new HashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            result.put(batch.get(i).index(), batchEmbeddings.get(i));
+        }
+        return result;
+    }
+
+    // 4、存储：在一个事务里按内容哈希与现有分片对比，保留未变化的、删除已不存在的、写入新增的
+    //    对比在事务内重新做一次，阶段重试或向量化之后分片有变化时结果仍然正确
+    //    需要补算的向量在事务外算好，事务里不调用模型（不在持有行锁和连接时等待远程调用）
+    private Stage store(IngestionJob job) throws Exception {
+        List<String> chunks = workspace.readChunks(job.getId());
+        List<float[]> embeddings = workspace.readEmbeddings(job.getId());
+        embedMissing(job.getDocId(), chunks, embeddings);
+        transactionTemplate.executeWithoutResult(status -> {
+            // 先在事务内确认任务仍归本次执行所有（版本不符时整个事务回滚），同时锁住任务行，提交前不会被回收
+            saveProgress(job, true);
+            // 文档在入库过程中被删除时不再写入分片（共享锁保证提交前也不会被删除）
+            if (documentMetaRepository.lockIfExists(job.getDocId()).isEmpty()) {
+                throw new IllegalStateException("文档已被删除: " + job.getDocId());
+            }
+            Map<String, List<Long>> existing = documentChunkJdbcRepository.findChunkIdsByContentHash(job.getDocId());
+
+            List<String> newContents = new ArrayList<>();
+            List<float[]> newEmbeddings = new ArrayList<>();
+            int reused = 0;
+            for (int i = 0; i < chunks.size(); i++) {
+                List<Long> ids = existing.get(ContentHash.sha256Hex(chunks.get(i)));
+                if (ids != null && !ids.isEmpty()) {
+                    ids.remove(ids.size() - 1);
+                    reused++;
+                    continue;
+                }
+                float[] embedding = embeddings.get(i);
+                if (embedding.length == 0) {
+                    // 事务外补算之后现有分片又被改动过：整个事务回滚，按退避时间重试本阶段
+                    throw new IllegalStateException("文档分片在入库期间被修改，稍后重试: " + job.getDocId());
+                }
+                newContents.add(chunks.get(i));
+                newEmbeddings.add(embedding);
+            }
+
+            List<Long> removed = new ArrayList<>();
+            existing.values().forEach(removed::addAll);
+            documentChunkJdbcRepository.deleteByIds(removed);
+            documentChunkJdbcRepository.bulkInsert(job.getDocId(), newContents, newEmbeddings);
+
+            if (job.getMode() == Mode.REPLACE) {
+                updateDocumentMeta(job);
+            }
+            job.setReusedChunks(reused);
+            job.setRemovedChunks(removed.size());
+            job.setStoredChunks(newContents.size());
+        });
+        return Stage.DONE;
+    }
+
+    // 向量化之后现有分片被改动过（比如被删除）时，有的分片既不能复用也没有向量（空向量占位），在这里补算
+    private void embedMissing(Long docId, List<String> chunks, List<float[]> embeddings) {
+        Map<String, Integer> reusable = new HashMap<>();
+        documentChunkJdbcRepository.findChunkIdsByContentHash(docId).forEach((hash, ids) -> reusable.put(hash, ids.size()));
+        List<Integer> missing = new ArrayList<>();
+        for (int i = 0; i < chunks.size(); i++) {
+            boolean reuse = reusable.merge(ContentHash.sha256Hex(chunks.get(i)), -1, Integer::sum) >= 0;
+            if (!reuse && embeddings.get(i).length == 0) {
+                missing.add(i);
+            }
+        }
+        if (missing.isEmpty()) {
+            return;
+        }
+        List<String> texts = new ArrayList<>(missing.size());
+        for (int index : missing) {
+            texts.add(chunks.get(index));
+        }
+        List<float[]> computed = embeddingService.embedTexts(texts);
+        for (int i = 0; i < missing.size(); i++) {
+            embeddings.set(missing.get(i), computed.get(i));
+        }
+    }
+
+    // 替换成功后才把文档元信息切换到新文件
+    private void updateDocumentMeta(IngestionJob job) {
+        documentMetaRepository.findById(job.getDocId()).ifPresent(document -> {
+            document.setFilename(job.getFilename());
+            document.setFileType(documentParserService.getFileType(job.getFilename()));
+            try {
+                document.setFileSize(Files.size(Path.of(job.getFilePath())));
+            } catch (IOException e) {
+                log.warn("获取文件大小失败: {}", job.getFilePath(), e);
+            }
+            documentMetaRepository.save(document);
+        });
+    }
+
+    private void advance(IngestionJob job, Stage next) {
+        LocalDateTime now = LocalDateTime.now();
+        job.setStage(next);
+        job.setStatus(next == Stage.DONE ? Status.DONE : Status.PENDING);
+        job.setAttempts(0);
+        job.setErrorMessage(null);
+        job.setLockedAt(null);
+        job.setNextRunAt(now);
+        job.setUpdatedAt(now);
+        save(job);
+        if (next == Stage.DONE) {
+            workspace.clean(job.getId());
+            log.info("文档已入库: jobId={}, docId={}, 新增分片={}, 保留分片={}, 删除分片={}", job.getId(), job.getDocId(),
+                    job.getStoredChunks(), job.getReusedChunks(), job.getRemovedChunks());
+        }
+    }
+
+    private void fail(IngestionJob job, Exception e) {
+        LocalDateTime now = LocalDateTime.now();
+        int attempts = job.getAttempts() + 1;
+        job.setAttempts(attempts);
+        job.setErrorMessage(e.getMessage());
+        job.setLockedAt(null);
+        job.setUpdatedAt(now);
+
+        if (attempts < maxAttempts) {
+            job.setStatus(Status.PENDING);
+            job.setNextRunAt(now.plusNanos(retryBackoffMs * attempts * 1_000_000));
+            log.warn("入库任务阶段失败，稍后重试: jobId={}, stage={}, 第{}次", job.getId(), job.getStage(), attempts, e);
+            save(job);
+            return;
+        }
+
+        job.setStatus(Status.FAILED);
+        log.error("入库任务失败: jobId={}, docId={}, stage={}", job.getId(), job.getDocId(), job.getStage(), e);
+        save(job);
+        cleanupFailed(job);
+    }
+
+    // 最终失败：新建的文档与同步上传时的处理保持一致，删除文档元信息、分片和上传文件；
+    // 替换已有文档时原有内容保持不变，只删除新上传的文件
+    private void cleanupFailed(IngestionJob job) {
+        try {
+            if (job.getMode() != Mode.REPLACE) {
+                documentChunkJdbcRepository.deleteByDocId(job.getDocId());
+                documentMetaRepository.deleteById(job.getDocId());
+            }
+            Files.deleteIfExists(Path.of(job.getFilePath()));
+        } catch (Exception ex) {
+            log.warn("清理失败任务的文档失败: jobId={}", job.getId(), ex);
+        }
+        workspace.clean(job.getId());
+    }
+
+    // 汇报进度，同时刷新 locked_at（心跳），执行时间再长也不会被当成崩溃遗留的任务回收
+    private void saveProgress(IngestionJob job) {
+        saveProgress(job, false);
+    }
+
+    private void saveProgress(IngestionJob job, boolean flush) {
+        LocalDateTime now = LocalDateTime.now();
+        job.setLockedAt(now);
+        job.setUpdatedAt(now);
+        if (flush) {
+            job.setVersion(ingestionJobRepository.saveAndFlush(job).getVersion());
+        } else {
+            save(job);
+        }
+    }
+
+    // 带版本检查的保存：任务已被回收（版本不符）时抛出 ObjectOptimisticLockingFailureException；
+    // save 返回的是另一个对象，把新版本号写回，后续保存才能继续通过检查
+    private void save(IngestionJob job) {
+        job.setVersion(ingestionJobRepository.save(job).getVersion());
+    }
+
+    // 切分出的分片及其在文档中的序号，reuse 表示内容哈希命中现有分片、不需要向量化
+    private record PendingChunk(int index, String text, boolean reuse) {
+    }
+
+    /**
+     * 单个阶段的线程池，记录在途任务数以决定每次认领多少
+     */
+    private static final class StagePool {
+
+        private final int size;
+        private final ExecutorService executor;
+        private final AtomicInteger inFlight = new AtomicInteger();
+
+        StagePool(String name, int size) {
+            this.size = size;
+            AtomicInteger counter = new AtomicInteger();
+            this.executor = Executors.newFixedThreadPool(size, runnable -> {
+                Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        int free() {
+            return size - inFlight.get();
+        }
+
+        void submit(Runnable task) {
+            inFlight.incrementAndGet();
+            executor.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+            });
+        }
+
+        void shutdown() {
+            executor.shutdown();
+        }
+    }
+}
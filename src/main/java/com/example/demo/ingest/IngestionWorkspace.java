@@ -0,0 +1,111 @@
+package com.example.demo.ingest;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * 入库任务各阶段之间的中间产物（落盘，进程重启后可以从当前阶段继续）
+ * {uploadDir}/jobs/{jobId}/text.txt        解析出的纯文本
+ * {uploadDir}/jobs/{jobId}/chunks.json     切分结果
+ * {uploadDir}/jobs/{jobId}/embeddings.bin  向量（int 维度 + float * 维度，逐条追加）
+ */
+@Component
+public class IngestionWorkspace {
+
+    private static final Logger log = LoggerFactory.getLogger(IngestionWorkspace.class);
+
+    private final ObjectMapper objectMapper;
+
+    @Value("${app.upload.dir:uploads}")
+    private String uploadDir;
+
+    public IngestionWorkspace(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    public Path textFile(Long jobId) throws IOException {
+        return dir(jobId).resolve("text.txt");
+    }
+
+    public void writeChunks(Long jobId, List<String> chunks) throws IOException {
+        objectMapper.writeValue(dir(jobId).resolve("chunks.json").toFile(), chunks);
+    }
+
+    public List<String> readChunks(Long jobId) throws IOException {
+        return objectMapper.readValue(dir(jobId).resolve("chunks.json").toFile(), new TypeReference<List<String>>() {});
+    }
+
+    /**
+     * 以覆盖方式打开向量文件（阶段重试时从头写）
+     */
+    public DataOutputStream openEmbeddings(Long jobId) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(dir(jobId).resolve("embeddings.bin")), 64 * 1024));
+    }
+
+    public static void writeEmbedding(DataOutputStream out, float[] embedding) throws IOException {
+        out.writeInt(embedding.length);
+        for (float v : embedding) {
+            out.writeFloat(v);
+        }
+    }
+
+    public List<float[]> readEmbeddings(Long jobId) throws IOException {
+        List<float[]> embeddings = new ArrayList<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(dir(jobId).resolve("embeddings.bin")), 64 * 1024))) {
+            while (true) {
+                int dimensions;
+                try {
+                    dimensions = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                float[] embedding = new float[dimensions];
+                for (int i = 0; i < dimensions; i++) {
+                    embedding[i] = in.readFloat();
+                }
+                embeddings.add(embedding);
+            }
+        }
+        return embeddings;
+    }
+
+    /**
+     * 任务结束（成功或最终失败）后清理中间产物
+     */
+    public void clean(Long jobId) {
+        Path dir = Paths.get(uploadDir, "jobs", String.valueOf(jobId));
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    log.warn("删除任务中间文件失败: {}", path, e);
+                }
+            });
+        } catch (IOException e) {
+            log.warn("清理任务目录失败: {}", dir, e);
+        }
+    }
+
+    private Path dir(Long jobId) throws IOException {
+        return Files.createDirectories(Paths.get(uploadDir, "jobs", String.valueOf(jobId)));
+    }
+}
@@ -0,0 +1,191 @@
+package com.example.demo.ingest;
+
+import com.example.demo.common.TokenEstimator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按句子 / 段落边界增量切分文本（单个文档使用一个实例，非线程安全）
+ *
+ * 文本可以分多次 append 进来，句子没结束的部分留到下一次；
+ * 句子依次装进当前分片，超过 maxTokens 时输出分片，下一个分片以上一个分片末尾不超过 overlapTokens 的句子开头；
+ * 遇到空行（段落结束）且当前分片已过半时提前输出，尽量不把一个段落拆到两个分片里。
+ */
+public class SentenceChunkBuilder {
+
+    private final int maxTokens;
+    private final int overlapTokens;
+
+    private final StringBuilder pending = new StringBuilder();  // 还没遇到句子结束符的文本
+    private final List<String> sentences = new ArrayList<>();   // 当前分片里的句子
+    private final List<Integer> sentenceTokens = new ArrayList<>();
+    private int currentTokens;
+    private int freshTokens;   // 当前分片里不属于重叠部分的 token 数
+
+    public SentenceChunkBuilder(int maxTokens, int overlapTokens) {
+        if (maxTokens <= 0) {
+            throw new IllegalArgumentException("分片 token 上限必须大于 0");
+        }
+        this.maxTokens = maxTokens;
+        this.overlapTokens = Math.max(0, Math.min(overlapTokens, maxTokens / 2));
+    }
+
+    /**
+     * 追加一段文本，返回因此完成的分片
+     */
+    public List<String> append(CharSequence text) {
+        List<String> out = new ArrayList<>();
+        pending.append(text);
+        int start = 0;
+        int length = pending.length();
+        for (int i = 0; i < length; i++) {
+            int end = sentenceEnd(i, length);
+            if (end < 0) {
+                // 需要看下一个字符才能判断，等更多文本进来
+                break;
+            }
+            if (end > 0) {
+                addSentence(pending.substring(start, end), out);
+                start = end;
+                i = end - 1;
+            }
+        }
+        pending.delete(0, start);
+        return out;
+    }
+
+    /**
+     * 文本结束，输出剩余内容
+     */
+    public List<String> finish() {
+        List<String> out = new ArrayList<>();
+        if (pending.length() > 0) {
+            addSentence(pending.toString(), out);
+            pending.setLength(0);
+        }
+        if (freshTokens > 0) {
+            emit(out);
+        }
+        sentences.clear();
+        sentenceTokens.clear();
+        currentTokens = 0;
+        freshTokens = 0;
+        return out;
+    }
+
+    /**
+     * 判断位置 i 是否是句子结束
+     * @return 句子结束后的下一个位置；0 表示不是；-1 表示需要更多文本才能判断
+     */
+    private int sentenceEnd(int i, int length) {
+        char c = pending.charAt(i);
+        switch (c) {
+            case '\n':
+            case '。':
+            case '！':
+            case '？':
+            case '；':
+            case '…':
+                return i + 1;
+            case '.':
+            case '!':
+            case '?':
+            case ';':
+                // 英文标点后面跟空白才算句子结束（避免切开 3.14、e.g. 之类）
+                if (i + 1 >= length) {
+                    return -1;
+                }
+                return Character.isWhitespace(pending.charAt(i + 1)) ? i + 1 : 0;
+            default:
+                return 0;
+        }
+    }
+
+    private void addSentence(String sentence, List<String> out) {
+        if (sentence.isBlank()) {
+            // 空行 = 段落结束
+            if (sentence.indexOf('\n') >= 0) {
+                paragraphBreak(out);
+            }
+            if (!sentences.isEmpty()) {
+                appendToLast(sentence);
+            }
+            return;
+        }
+
+        int tokens = TokenEstimator.estimate(sentence);
+        if (tokens > maxTokens) {
+            // 单句超长：按字符比例硬切
+            int pieceLength = Math.max(1, (int) ((long) sentence.length() * maxTokens / tokens));
+            int from = 0;
+            while (from < sentence.length()) {
+                int to = Math.min(sentence.length(), from + pieceLength);
+                if (to < sentence.length() && Character.isHighSurrogate(sentence.charAt(to - 1))) {
+                    to++;
+                }
+                String piece = sentence.substring(from, to);
+                addFitting(piece, TokenEstimator.estimate(piece), out);
+                from = to;
+            }
+            return;
+        }
+        addFitting(sentence, tokens, out);
+    }
+
+    private void addFitting(String sentence, int tokens, List<String> out) {
+        if (currentTokens + tokens > maxTokens) {
+            if (freshTokens > 0) {
+                emit(out);
+                keepOverlap();
+            }
+            if (currentTokens + tokens > maxTokens) {
+                clear();
+            }
+        }
+        sentences.add(sentence);
+        sentenceTokens.add(tokens);
+        currentTokens += tokens;
+        freshTokens += tokens;
+    }
+
+    private void paragraphBreak(List<String> out) {
+        if (freshTokens > 0 && currentTokens >= maxTokens / 2) {
+            emit(out);
+            keepOverlap();
+        }
+    }
+
+    private void emit(List<String> out) {
+        String chunk = String.join("", sentences).trim();
+        if (!chunk.isEmpty()) {
+            out.add(chunk);
+        }
+    }
+
+    // 保留末尾不超过 overlapTokens 的句子作为下一个分片的开头
+    private void keepOverlap() {
+        int keepFrom = sentences.size();
+        int kept = 0;
+        while (keepFrom > 0 && kept + sentenceTokens.get(keepFrom - 1) <= overlapTokens) {
+            keepFrom--;
+            kept += sentenceTokens.get(keepFrom);
+        }
+        sentences.subList(0, keepFrom).clear();
+        sentenceTokens.subList(0, keepFrom).clear();
+        currentTokens = kept;
+        freshTokens = 0;
+    }
+
+    private void clear() {
+        sentences.clear();
+        sentenceTokens.clear();
+        currentTokens = 0;
+        freshTokens = 0;
+    }
+
+    private void appendToLast(String whitespace) {
+        int last = sentences.size() - 1;
+        sentences.set(last, sentences.get(last) + whitespace);
+    }
+}
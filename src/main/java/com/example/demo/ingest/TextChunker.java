@@ -0,0 +1,71 @@
+package com.example.demo.ingest;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 文档切分：按句子 / 段落边界切分，分片大小按 token 估算，相邻分片有重叠
+ * 同步入库（RagService.ingestDocument）和后台入库任务共用同一套切分规则
+ */
+@Component
+public class TextChunker {
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    // 每个分片的 token 上限
+    @Value("${app.rag.chunk-max-tokens:300}")
+    private int maxTokens;
+
+    // 相邻分片重叠的 token 数（不超过上限的一半）
+    @Value("${app.rag.chunk-overlap-tokens:50}")
+    private int overlapTokens;
+
+    public SentenceChunkBuilder newBuilder() {
+        return new SentenceChunkBuilder(maxTokens, overlapTokens);
+    }
+
+    // 整段文本切分
+    public List<String> split(String documentContent) {
+        SentenceChunkBuilder builder = newBuilder();
+        List<String> chunks = new ArrayList<>(builder.append(documentContent));
+        chunks.addAll(builder.finish());
+        return chunks;
+    }
+
+    /**
+     * 从 Reader 流式切分：下游请求分片时才继续读，整份文本不进内存（Reader 由调用方关闭）
+     */
+    public Flux<String> chunk(Reader reader) {
+        return chunk(Flux.<String>generate(sink -> {
+            char[] buffer = new char[READ_BUFFER_SIZE];
+            try {
+                int read = reader.read(buffer);
+                if (read < 0) {
+                    sink.complete();
+                } else {
+                    sink.next(new String(buffer, 0, read));
+                }
+            } catch (IOException e) {
+                sink.error(e);
+            }
+        }));
+    }
+
+    /**
+     * 流式切分：上游每来一段文本就输出已完成的分片
+     * 每次订阅使用独立的 SentenceChunkBuilder；下游请求多少才向上游要多少文本
+     */
+    public Flux<String> chunk(Flux<String> segments) {
+        return Flux.defer(() -> {
+            SentenceChunkBuilder builder = newBuilder();
+            return segments.concatMapIterable(builder::append)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(builder.finish())));
+        });
+    }
+}
@@ -0,0 +1,225 @@
+package com.example.demo.prompt;
+
+import com.example.demo.common.TokenEstimator;
+import com.example.demo.config.BlockingSchedulers;
+import com.example.demo.domain.Conversation;
+import com.example.demo.domain.Message;
+import com.example.demo.repository.ConversationRepository;
+import com.example.demo.repository.MessageRepository;
+import com.example.demo.service.AiService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 会话的滚动摘要：未摘要的消息超过 最近窗口（app.chat.history.window）+ batch 条时，
+ * 把窗口之前的那部分和已有摘要一起交给模型，合并成新的摘要存到 Conversation.summary，
+ * 构建上下文时发送"摘要 + 最近几条消息"，长会话的 prompt 大小有上限。
+ * AI 回答保存后由 submit 触发，整个过程异步执行（读写库走 R2DBC，调用模型在 remote 线程池上），不阻塞也不推迟当前回答；
+ * 同一个会话同时只跑一个摘要任务，正在跑时新的触发直接跳过（下一条回答保存后会再次触发）。
+ * 摘要只覆盖窗口之前的消息，所以两次摘要之间最多有 batch 条消息既不在摘要里也不在窗口里。
+ * 摘要位置记为最后折叠的那条消息的 (created_at, id)，与查询消息的顺序一致；
+ * 多个实例各自预取 ID 块，ID 大小不代表先后，只按 ID 判断会漏掉 ID 较小但更晚保存的消息。
+ */
+@Component
+public class ConversationSummarizer {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationSummarizer.class);
+
+    private final ConversationRepository conversationRepository;
+    private final MessageRepository messageRepository;
+    private final AiService aiService;
+    private final BlockingSchedulers blockingSchedulers;
+
+    private final boolean enabled;
+    private final int window;
+    private final int batch;
+    private final int maxFoldMessages;
+    private final int maxChars;
+    private final int inputMaxTokens;
+
+    // 正在摘要的会话
+    private final Set<Long> running = ConcurrentHashMap.newKeySet();
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+    private final AtomicLong summarized = new AtomicLong();
+    private final AtomicLong foldedMessages = new AtomicLong();
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public ConversationSummarizer(ConversationRepository conversationRepository,
+                                  MessageRepository messageRepository,
+                                  AiService aiService,
+                                  BlockingSchedulers blockingSchedulers,
+                                  @Value("${app.chat.summary.enabled:true}") boolean enabled,
+                                  @Value("${app.chat.history.window:10}") int window,
+                                  @Value("${app.chat.summary.batch:6}") int batch,
+                                  @Value("${app.chat.summary.max-fold-messages:40}") int maxFoldMessages,
+                                  @Value("${app.chat.summary.max-chars:500}") int maxChars,
+                                  @Value("${app.chat.summary.input-max-tokens:4000}") int inputMaxTokens) {
+        this.conversationRepository = conversationRepository;
+        this.messageRepository = messageRepository;
+        this.aiService = aiService;
+        this.blockingSchedulers = blockingSchedulers;
+        this.enabled = enabled;
+        this.window = Math.max(1, window);
+        this.batch = Math.max(1, batch);
+        this.maxFoldMessages = Math.max(this.batch, maxFoldMessages);
+        this.maxChars = maxChars;
+        this.inputMaxTokens = inputMaxTokens;
+    }
+
+    /**
+     * AI 回答保存后调用：需要时在后台更新会话摘要，立即返回
+     */
+    public void submit(Long conversationId) {
+        if (!enabled || conversationId == null) {
+            return;
+        }
+        if (!running.add(conversationId)) {
+            skipped.incrementAndGet();
+            return;
+        }
+        submitted.incrementAndGet();
+        // 读库 / 写库走 R2DBC，只有调用模型切到 remote 线程池
+        pending(conversationId)
+                .publishOn(blockingSchedulers.remote())
+                .map(pending -> pending.withSummary(summarize(pending)))
+                .flatMap(this::save)
+                .doFinally(signal -> running.remove(conversationId))
+                .subscribe(pending -> {
+                }, e -> {
+                    failures.incrementAndGet();
+                    log.warn("会话 {} 摘要失败: {}", conversationId, e.getMessage());
+                });
+    }
+
+    /**
+     * 摘要统计：触发 / 跳过 / 完成次数、折叠的消息数、并发冲突和失败次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("window", window);
+        stats.put("batch", batch);
+        stats.put("running", running.size());
+        stats.put("submitted", submitted.get());
+        stats.put("skipped", skipped.get());
+        stats.put("summarized", summarized.get());
+        stats.put("foldedMessages", foldedMessages.get());
+        stats.put("conflicts", conflicts.get());
+        stats.put("failures", failures.get());
+        return stats;
+    }
+
+    // 需要折叠的消息（窗口之前、还没摘要的，时间正序）；会话不存在或未摘要的消息不够多时为空（不做摘要）
+    private Mono<Pending> pending(Long conversationId) {
+        // 沿索引只取最近 window + max-fold-messages 条；更早的（开启摘要前的长会话）不再折叠
+        return conversationRepository.findById(conversationId)
+                .flatMap(conversation -> messageRepository
+                        .findRecentByConversationId(conversationId, window + maxFoldMessages)
+                        .collectList()
+                        .mapNotNull(latest -> pending(conversation, latest)));
+    }
+
+    private Pending pending(Conversation conversation, List<Message> latest) {
+        long upTo = conversation.getSummarizedUpTo() == null ? 0 : conversation.getSummarizedUpTo();
+        List<Message> unsummarized = new ArrayList<>();
+        for (int i = latest.size() - 1; i >= 0; i--) {
+            if (afterSummary(latest.get(i), conversation)) {
+                unsummarized.add(latest.get(i));
+            }
+        }
+        if (unsummarized.size() < window + batch) {
+            return null;
+        }
+        List<Message> fold = withinBudget(unsummarized.subList(0, unsummarized.size() - window));
+        return new Pending(conversation.getId(), conversation.getSummary(), upTo, fold, null);
+    }
+
+    // 消息在摘要位置之后（按 created_at, id 排序）
+    private static boolean afterSummary(Message message, Conversation conversation) {
+        if (conversation.getSummarizedUpTo() == null) {
+            return true;
+        }
+        if (conversation.getSummarizedUpToAt() == null) {
+            // 加 summarized_up_to_at 列之前写入的摘要位置只有 ID
+            return message.getId() > conversation.getSummarizedUpTo();
+        }
+        int order = message.getCreatedAt().compareTo(conversation.getSummarizedUpToAt());
+        return order > 0 || (order == 0 && message.getId() > conversation.getSummarizedUpTo());
+    }
+
+    // 从最早的一条起按整条消息放入，直到 input-max-tokens；放不下的留到下一次摘要（summarized_up_to 只推进到放入的最后一条）
+    // 只有第一条本身就超出预算时才截断它，否则会一直卡在这条消息上
+    private List<Message> withinBudget(List<Message> fold) {
+        int spent = 0;
+        int count = 0;
+        for (Message message : fold) {
+            int tokens = TokenEstimator.estimate(dialogueLine(message));
+            if (count > 0 && spent + tokens > inputMaxTokens) {
+                break;
+            }
+            spent += tokens;
+            count++;
+        }
+        return fold.subList(0, count);
+    }
+
+    private static String dialogueLine(Message message) {
+        return message.getRole() + ": " + message.getContent() + "\n";
+    }
+
+    private String summarize(Pending pending) {
+        StringBuilder prompt = new StringBuilder();
+        prompt.append("请把下面的新增对话合并进已有摘要，输出更新后的完整摘要。")
+                .append("保留用户的目标、偏好、已确认的事实和结论，省略寒暄和重复内容，不超过 ")
+                .append(maxChars).append(" 字，只输出摘要本身。\n\n");
+        prompt.append("已有摘要：\n")
+                .append(pending.summary() == null || pending.summary().isBlank() ? "（无）" : pending.summary())
+                .append("\n\n新增对话：\n");
+        // fold 已按 input-max-tokens 取整条消息，这里的截断只对单条就超出预算的消息生效
+        StringBuilder dialogue = new StringBuilder();
+        for (Message message : pending.fold()) {
+            dialogue.append(dialogueLine(message));
+        }
+        prompt.append(TokenEstimator.truncate(dialogue.toString(), inputMaxTokens));
+        String summary = aiService.generateResponse(prompt.toString(), null).trim();
+        return summary.codePointCount(0, summary.length()) > maxChars
+                ? summary.substring(0, summary.offsetByCodePoints(0, maxChars))
+                : summary;
+    }
+
+    private Mono<Long> save(Pending pending) {
+        Message last = pending.fold().get(pending.fold().size() - 1);
+        return conversationRepository.updateSummary(pending.conversationId(), pending.newSummary(),
+                        last.getId(), last.getCreatedAt(), pending.upTo())
+                .doOnNext(updated -> {
+                    if (updated == 0) {
+                        // 别的实例已经更新了摘要，本次结果作废
+                        conflicts.incrementAndGet();
+                        return;
+                    }
+                    summarized.incrementAndGet();
+                    foldedMessages.addAndGet(pending.fold().size());
+                });
+    }
+
+    private record Pending(Long conversationId, String summary, long upTo, List<Message> fold, String newSummary) {
+
+        Pending withSummary(String newSummary) {
+            return new Pending(conversationId, summary, upTo, fold, newSummary);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.example.demo.prompt;
+
+/**
+ * 组装好的 prompt，对应 AiService 的两个参数
+ * @param user 用户消息（问题，超长时已截断）
+ * @param context 上下文（对话历史 / 文档片段），AiService 作为 system 消息发送
+ * @param estimatedTokens 估算的输入 token 数
+ * @param droppedHistory 因预算不足没放进去的历史消息数
+ * @param droppedChunks 因预算不足没放进去的文档片段数
+ * @param truncated 被截断的条目数（问题、历史消息、文档片段）
+ */
+public record Prompt(String user, String context, int estimatedTokens, int droppedHistory, int droppedChunks, int truncated) {
+}
@@ -0,0 +1,249 @@
+package com.example.demo.prompt;
+
+import com.example.demo.cache.HistoryMessage;
+import com.example.demo.common.TokenEstimator;
+import com.example.demo.retrieval.ChunkHit;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按 token 预算组装 prompt（普通对话、RAG、Agent 共用），token 数用 {@link TokenEstimator}（与分片、embedding 分批同一套规则）本地估算
+ * 预算分配：
+ * 1、固定文本（AiService 的 system 前缀、各段标题和说明）和问题必须放进去，问题超过 question-max-tokens 时截断；
+ * 2、剩余预算先按 chunk-share 给文档片段，片段按相关度依次放入，放不下的截断（截断后太短就丢弃），之后的全部丢弃；
+ * 3、片段用剩的预算先给会话的滚动摘要（超出时截断），再给对话历史，从最新一条往前放，同样截断 / 丢弃最旧的，输出时恢复时间正序。
+ */
+@Component
+public class PromptBuilder {
+
+    // AiService 发送上下文时加的前缀，也占预算
+    private static final String SYSTEM_PREFIX = "以下是对话历史 \n";
+    private static final String HISTORY_HEADER = "以下是对话历史：\n";
+    private static final String SUMMARY_HEADER = "以下是更早对话的摘要：\n";
+    private static final String RECENT_HEADER = "以下是最近的对话：\n";
+    private static final String CHUNKS_HEADER = "以下是与问题相关的文档片段（距离越小越相关）：\n\n";
+    private static final String CHUNKS_INSTRUCTION = "请基于以上文档内容回答问题：";
+    private static final String NO_CHUNKS_NOTICE = "注意：未在知识库中找到相关文档片段。\n\n";
+    private static final String NO_CHUNKS_INSTRUCTION = "请基于你的知识回答问题：";
+    private static final String TRUNCATED_MARK = "……";
+
+    private final int maxTokens;
+    private final int questionMaxTokens;
+    private final double chunkShare;
+    private final int minItemTokens;
+
+    private final AtomicLong builds = new AtomicLong();
+    private final AtomicLong totalTokens = new AtomicLong();
+    private final AtomicLong droppedHistory = new AtomicLong();
+    private final AtomicLong droppedChunks = new AtomicLong();
+    private final AtomicLong truncations = new AtomicLong();
+
+    public PromptBuilder(@Value("${app.prompt.max-tokens:6000}") int maxTokens,
+                         @Value("${app.prompt.question-max-tokens:1000}") int questionMaxTokens,
+                         @Value("${app.prompt.chunk-share:0.7}") double chunkShare,
+                         @Value("${app.prompt.min-item-tokens:32}") int minItemTokens) {
+        if (chunkShare < 0 || chunkShare > 1) {
+            throw new IllegalArgumentException("app.prompt.chunk-share 必须在 [0, 1] 之间");
+        }
+        this.maxTokens = maxTokens;
+        this.questionMaxTokens = questionMaxTokens;
+        this.chunkShare = chunkShare;
+        this.minItemTokens = Math.max(1, minItemTokens);
+    }
+
+    /**
+     * 普通对话 / Agent：上下文是会话摘要（可以为 null）+ 最近的对话历史
+     */
+    public Prompt chat(String question, String summary, List<HistoryMessage> history) {
+        Budget budget = new Budget();
+        String user = budget.question(question);
+        budget.reserve(SYSTEM_PREFIX);
+        if (summary == null || summary.isBlank()) {
+            return budget.finish(user, budget.history(history, budget.remaining()));
+        }
+        budget.reserve(SUMMARY_HEADER + "\n\n" + RECENT_HEADER);
+        String summaryText = budget.summary(summary, budget.remaining());
+        String historyText = budget.history(history, budget.remaining());
+        if (summaryText == null) {
+            return budget.finish(user, historyText);
+        }
+        return budget.finish(user, SUMMARY_HEADER + summaryText + "\n\n" + RECENT_HEADER + historyText);
+    }
+
+    /**
+     * RAG：会话摘要（可以为 null）+ 对话历史（可以为空）+ 文档片段 + 问题
+     */
+    public Prompt rag(String question, String summary, List<HistoryMessage> history, List<ChunkHit> chunks) {
+        return rag(question, summary, history, chunks, true);
+    }
+
+    /**
+     * RAG：调用方只给了片段内容（没有检索距离），片段标题里不带距离
+     */
+    public Prompt rag(String question, List<String> contents) {
+        List<ChunkHit> chunks = new ArrayList<>(contents.size());
+        for (String content : contents) {
+            chunks.add(new ChunkHit(0, 0, content, Float.NaN));
+        }
+        return rag(question, null, List.of(), chunks, false);
+    }
+
+    private Prompt rag(String question, String summary, List<HistoryMessage> history, List<ChunkHit> chunks, boolean withDistance) {
+        Budget budget = new Budget();
+        String user = budget.question(question);
+        // 问题在上下文末尾还会出现一次
+        budget.reserve(user);
+        budget.reserve(SYSTEM_PREFIX);
+        budget.reserve(chunks.isEmpty() ? NO_CHUNKS_NOTICE + NO_CHUNKS_INSTRUCTION : CHUNKS_HEADER + CHUNKS_INSTRUCTION);
+        boolean hasSummary = summary != null && !summary.isBlank();
+        if (hasSummary) {
+            budget.reserve(SUMMARY_HEADER + "\n\n");
+        }
+        if (!history.isEmpty()) {
+            budget.reserve(HISTORY_HEADER + "\n\n");
+        }
+        String chunkText = budget.chunks(chunks, withDistance, (int) (budget.remaining() * chunkShare));
+        String summaryText = hasSummary ? budget.summary(summary, budget.remaining()) : null;
+        String historyText = budget.history(history, budget.remaining());
+
+        StringBuilder context = new StringBuilder();
+        if (summaryText != null) {
+            context.append(SUMMARY_HEADER).append(summaryText).append("\n\n");
+        }
+        if (!historyText.isEmpty()) {
+            context.append(HISTORY_HEADER).append(historyText).append("\n\n");
+        }
+        if (chunks.isEmpty()) {
+            context.append(NO_CHUNKS_NOTICE).append(NO_CHUNKS_INSTRUCTION).append(user);
+        } else {
+            context.append(CHUNKS_HEADER).append(chunkText).append(CHUNKS_INSTRUCTION).append(user);
+        }
+        return budget.finish(user, context.toString());
+    }
+
+    /**
+     * 组装次数、平均 token 数、丢弃 / 截断的条目数
+     */
+    public Map<String, Object> stats() {
+        long total = builds.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("maxTokens", maxTokens);
+        stats.put("chunkShare", chunkShare);
+        stats.put("builds", total);
+        stats.put("avgEstimatedTokens", total == 0 ? 0 : totalTokens.get() / total);
+        stats.put("droppedHistory", droppedHistory.get());
+        stats.put("droppedChunks", droppedChunks.get());
+        stats.put("truncations", truncations.get());
+        return stats;
+    }
+
+    // 一次组装的预算记账
+    private final class Budget {
+
+        private int used;
+        private int historyDropped;
+        private int chunksDropped;
+        private int truncated;
+
+        int remaining() {
+            return Math.max(0, maxTokens - used);
+        }
+
+        void reserve(String text) {
+            used += TokenEstimator.estimate(text);
+        }
+
+        String question(String question) {
+            String text = question == null ? "" : question;
+            if (TokenEstimator.estimate(text) > questionMaxTokens) {
+                text = TokenEstimator.truncate(text, questionMaxTokens) + TRUNCATED_MARK;
+                truncated++;
+            }
+            reserve(text);
+            return text;
+        }
+
+        // 片段按相关度顺序放入，第一个放不下的截断，之后的丢弃
+        String chunks(List<ChunkHit> chunks, boolean withDistance, int limit) {
+            StringBuilder text = new StringBuilder();
+            int spent = 0;
+            int placed = 0;
+            for (ChunkHit chunk : chunks) {
+                String label = "片段 " + (placed + 1) + (withDistance ? "（" + chunk.distanceLabel() + "）" : "") + ":\n";
+                int overhead = TokenEstimator.estimate(label) + 1;
+                int available = limit - spent - overhead;
+                String content = fit(chunk.content(), available);
+                if (content == null) {
+                    break;
+                }
+                text.append(label).append(content).append("\n\n");
+                spent += overhead + TokenEstimator.estimate(content);
+                placed++;
+            }
+            chunksDropped += chunks.size() - placed;
+            used += spent;
+            return text.toString();
+        }
+
+        // 摘要放不下时截断（保留开头），截断后太短返回 null
+        String summary(String summary, int limit) {
+            String text = fit(summary, limit);
+            if (text != null) {
+                used += TokenEstimator.estimate(text);
+            }
+            return text;
+        }
+
+        // 历史从最新一条往前放，放不下的那条截断（保留开头），更早的丢弃
+        String history(List<HistoryMessage> history, int limit) {
+            List<String> lines = new ArrayList<>();
+            int spent = 0;
+            for (int i = history.size() - 1; i >= 0; i--) {
+                HistoryMessage message = history.get(i);
+                String prefix = message.role() + ": ";
+                int overhead = TokenEstimator.estimate(prefix) + 1;
+                String content = fit(message.content(), limit - spent - overhead);
+                if (content == null) {
+                    break;
+                }
+                lines.add(prefix + content);
+                spent += overhead + TokenEstimator.estimate(content);
+            }
+            historyDropped += history.size() - lines.size();
+            used += spent;
+            Collections.reverse(lines);
+            return String.join("\n", lines);
+        }
+
+        // 放得下原样返回；放不下时截断，截断后不足 min-item-tokens 返回 null
+        private String fit(String content, int available) {
+            String text = content == null ? "" : content;
+            if (TokenEstimator.estimate(text) <= available) {
+                return text;
+            }
+            int keep = available - TokenEstimator.estimate(TRUNCATED_MARK);
+            if (keep < minItemTokens) {
+                return null;
+            }
+            truncated++;
+            return TokenEstimator.truncate(text, keep) + TRUNCATED_MARK;
+        }
+
+        Prompt finish(String user, String context) {
+            int tokens = TokenEstimator.estimate(SYSTEM_PREFIX) + TokenEstimator.estimate(context) + TokenEstimator.estimate(user);
+            builds.incrementAndGet();
+            totalTokens.addAndGet(tokens);
+            PromptBuilder.this.droppedHistory.addAndGet(historyDropped);
+            PromptBuilder.this.droppedChunks.addAndGet(chunksDropped);
+            truncations.addAndGet(truncated);
+            return new Prompt(user, context, tokens, historyDropped, chunksDropped, truncated);
+        }
+    }
+}
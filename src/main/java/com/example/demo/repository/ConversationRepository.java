@@ -1,10 +1,99 @@
 package com.example.demo.repository;
 
 import com.example.demo.domain.Conversation;
-import org.springframework.data.jpa.repository.JpaRepository;
+import io.r2dbc.spi.Readable;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.LocalDateTime;
+
+/**
+ * conversation 表的响应式访问（R2DBC DatabaseClient），不占用 jdbc 线程池
+ */
 @Repository
-public interface ConversationRepository extends JpaRepository<Conversation, Long> {
-}
+public class ConversationRepository {
+
+    private static final String COLUMNS = "id, title, created_at, summary, summarized_up_to, summarized_up_to_at";
+
+    private static final String FIND_ALL_SQL = "SELECT " + COLUMNS + " FROM conversation ORDER BY id";
+
+    private static final String FIND_BY_ID_SQL = "SELECT " + COLUMNS + " FROM conversation WHERE id = :id";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO conversation (title, created_at) VALUES (:title, :createdAt) RETURNING id";
+
+    // 只更新摘要相关的列（不整行覆盖，不会覆盖并发修改的标题等字段）
+    // 带上读取时的 summarized_up_to 做条件（消息 ID 唯一，足以确定摘要位置），别的实例先更新了摘要时本次不生效（返回 0）
+    private static final String UPDATE_SUMMARY_SQL =
+            "UPDATE conversation SET summary = :summary, summarized_up_to = :upTo, summarized_up_to_at = :upToAt " +
+            "WHERE id = :id AND COALESCE(summarized_up_to, 0) = :expectedUpTo";
 
+    private final DatabaseClient databaseClient;
+
+    public ConversationRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Flux<Conversation> findAll() {
+        return databaseClient.sql(FIND_ALL_SQL)
+                .map(ConversationRepository::toConversation)
+                .all();
+    }
+
+    /**
+     * 会话不存在时为空
+     */
+    public Mono<Conversation> findById(Long id) {
+        return databaseClient.sql(FIND_BY_ID_SQL)
+                .bind("id", id)
+                .map(ConversationRepository::toConversation)
+                .one();
+    }
+
+    /**
+     * 新建会话，写入后回填 ID
+     */
+    public Mono<Conversation> insert(Conversation conversation) {
+        if (conversation.getCreatedAt() == null) {
+            conversation.setCreatedAt(LocalDateTime.now());
+        }
+        DatabaseClient.GenericExecuteSpec spec = databaseClient.sql(INSERT_SQL)
+                .bind("createdAt", conversation.getCreatedAt());
+        spec = conversation.getTitle() == null
+                ? spec.bindNull("title", String.class)
+                : spec.bind("title", conversation.getTitle());
+        return spec.map(row -> row.get("id", Long.class))
+                .one()
+                .map(id -> {
+                    conversation.setId(id);
+                    return conversation;
+                });
+    }
+
+    /**
+     * @return 更新的行数（0 表示摘要已被别的实例更新）
+     */
+    public Mono<Long> updateSummary(Long id, String summary, Long upTo, LocalDateTime upToAt, Long expectedUpTo) {
+        return databaseClient.sql(UPDATE_SUMMARY_SQL)
+                .bind("id", id)
+                .bind("summary", summary)
+                .bind("upTo", upTo)
+                .bind("upToAt", upToAt)
+                .bind("expectedUpTo", expectedUpTo)
+                .fetch()
+                .rowsUpdated();
+    }
+
+    private static Conversation toConversation(Readable row) {
+        Conversation conversation = new Conversation();
+        conversation.setId(row.get("id", Long.class));
+        conversation.setTitle(row.get("title", String.class));
+        conversation.setCreatedAt(row.get("created_at", LocalDateTime.class));
+        conversation.setSummary(row.get("summary", String.class));
+        conversation.setSummarizedUpTo(row.get("summarized_up_to", Long.class));
+        conversation.setSummarizedUpToAt(row.get("summarized_up_to_at", LocalDateTime.class));
+        return conversation;
+    }
+}
@@ -0,0 +1,285 @@
+package com.example.demo.repository;
+
+import com.example.demo.common.ContentHash;
+import com.example.demo.common.LexicalTokenizer;
+import com.example.demo.retrieval.ChunkHit;
+import com.example.demo.vector.ChunksInsertedEvent;
+import com.example.demo.vector.ChunksRemovedEvent;
+import com.example.demo.vector.PgVectorCodec;
+import com.example.demo.vector.VectorHit;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * document_chunk 的 JDBC 访问：批量写入、按 ID 取内容 / 删除（vector 参数均按二进制传输，见 PgVectorCodec；向量检索见 VectorStore）
+ * 批量写入默认使用 COPY ... FROM STDIN (FORMAT BINARY)，一个文档的所有分片在同一个事务里一次性写入；
+ * 拿不到 PGConnection（例如被连接池代理包装）时退化为多行批量 INSERT
+ * 写入时同时算好关键词检索的词项（search_tokens）
+ * 写入 / 删除后发布 ChunksInsertedEvent / ChunksRemovedEvent，进程内 HNSW 索引在事务提交后据此同步
+ */
+@Repository
+public class DocumentChunkJdbcRepository {
+
+    private static final Logger log = LoggerFactory.getLogger(DocumentChunkJdbcRepository.class);
+
+    private static final String COPY_SQL =
+            "COPY document_chunk (content, content_hash, search_tokens, doc_id, embedding, created_at) FROM STDIN (FORMAT BINARY)";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO document_chunk (content, content_hash, search_tokens, doc_id, embedding, created_at) " +
+            "VALUES (?, ?, ?, ?, " + PgVectorCodec.VECTOR_PARAM + ", ?)";
+
+    // content_hash 为空的旧数据按同样的规则在库里现算
+    private static final String CHUNK_HASHES_SQL =
+            "SELECT id, COALESCE(content_hash, encode(sha256(convert_to(content, 'UTF8')), 'hex')) AS hash " +
+            "FROM document_chunk WHERE doc_id = ? ORDER BY id";
+
+    private static final String DELETE_BY_IDS_SQL = "DELETE FROM document_chunk WHERE id = ANY(?)";
+
+    private static final String DELETE_BY_DOC_SQL = "DELETE FROM document_chunk WHERE doc_id = ?";
+
+    // 只取拼 prompt 需要的列；embedding 以文本返回时每行约 20KB，是内容本身的十几倍
+    private static final String FIND_CONTENTS_SQL = "SELECT id, doc_id, content FROM document_chunk WHERE id = ANY(?)";
+
+    // COPY BINARY 文件头：11 字节签名 + 4 字节 flags + 4 字节扩展区长度
+    private static final byte[] COPY_SIGNATURE = "PGCOPY\n\377\r\n\0".getBytes(StandardCharsets.ISO_8859_1);
+
+    // PostgreSQL 二进制 timestamp 的纪元：2000-01-01 00:00:00
+    private static final LocalDateTime PG_EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSource dataSource;
+    private final ApplicationEventPublisher eventPublisher;
+
+    private final AtomicLong totalChunks = new AtomicLong();
+    private final AtomicLong totalMillis = new AtomicLong();
+    private volatile double lastChunksPerSecond;
+
+    @Value("${app.rag.bulk-insert.mode:copy}")   // copy / batch
+    private String mode;
+
+    @Value("${app.rag.bulk-insert.batch-size:500}")
+    private int batchSize;
+
+    public DocumentChunkJdbcRepository(JdbcTemplate jdbcTemplate, DataSource dataSource,
+                                       ApplicationEventPublisher eventPublisher) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSource = dataSource;
+        this.eventPublisher = eventPublisher;
+    }
+
+    /**
+     * 批量写入一个文档的所有分片（同一事务）
+     * @return 写入的行数
+     */
+    @Transactional
+    public int bulkInsert(Long docId, List<String> contents, List<float[]> embeddings) {
+        if (contents.size() != embeddings.size()) {
+            throw new IllegalArgumentException("分片数量与向量数量不一致");
+        }
+        if (contents.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        LocalDateTime createdAt = LocalDateTime.now();
+        if ("copy".equalsIgnoreCase(mode)) {
+            copyInsert(docId, contents, embeddings, createdAt);
+        } else {
+            batchInsert(docId, contents, embeddings, createdAt);
+        }
+        recordThroughput(docId, contents.size(), System.nanoTime() - start);
+        eventPublisher.publishEvent(new ChunksInsertedEvent(docId, contents.size()));
+        return contents.size();
+    }
+
+    /**
+     * 某个文档现有分片的内容哈希 -> 分片 ID（同一内容可能出现多次）
+     */
+    public Map<String, List<Long>> findChunkIdsByContentHash(Long docId) {
+        Map<String, List<Long>> idsByHash = new LinkedHashMap<>();
+        jdbcTemplate.query(CHUNK_HASHES_SQL, rs -> {
+            idsByHash.computeIfAbsent(rs.getString("hash"), k -> new ArrayList<>()).add(rs.getLong("id"));
+        }, docId);
+        return idsByHash;
+    }
+
+    /**
+     * 按 ID 批量删除分片
+     */
+    public int deleteByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        int deleted = jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(DELETE_BY_IDS_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+            return ps;
+        });
+        eventPublisher.publishEvent(new ChunksRemovedEvent(null, List.copyOf(ids)));
+        return deleted;
+    }
+
+    /**
+     * 删除某个文档的全部分片
+     */
+    public int deleteByDocId(Long docId) {
+        int deleted = jdbcTemplate.update(DELETE_BY_DOC_SQL, docId);
+        eventPublisher.publishEvent(new ChunksRemovedEvent(docId, null));
+        return deleted;
+    }
+
+    /**
+     * 按检索结果取分片内容，投影为 ChunkHit（带上检索距离），按传入的顺序返回（已删除的分片跳过）
+     */
+    public List<ChunkHit> findHits(List<VectorHit> hits) {
+        if (hits.isEmpty()) {
+            return List.of();
+        }
+        Long[] ids = new Long[hits.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hits.get(i).chunkId();
+        }
+        Map<Long, String> contents = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(FIND_CONTENTS_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", ids));
+            return ps;
+        }, (RowCallbackHandler) rs -> contents.put(rs.getLong("id"), rs.getString("content")));
+        List<ChunkHit> ordered = new ArrayList<>(contents.size());
+        for (VectorHit hit : hits) {
+            String content = contents.get(hit.chunkId());
+            if (content != null) {
+                ordered.add(new ChunkHit(hit.chunkId(), hit.docId(), content, hit.distance()));
+            }
+        }
+        return ordered;
+    }
+
+    /**
+     * 批量写入统计：累计分片数、平均 / 最近一次吞吐（chunks/s）
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("mode", mode);
+        stats.put("totalChunks", totalChunks.get());
+        stats.put("totalMillis", totalMillis.get());
+        stats.put("avgChunksPerSecond", totalMillis.get() == 0 ? 0.0 : totalChunks.get() * 1000.0 / totalMillis.get());
+        stats.put("lastChunksPerSecond", lastChunksPerSecond);
+        return stats;
+    }
+
+    private void copyInsert(Long docId, List<String> contents, List<float[]> embeddings, LocalDateTime createdAt) {
+        // 与当前事务共用同一个连接
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try {
+            PGConnection pgConnection;
+            try {
+                pgConnection = connection.unwrap(PGConnection.class);
+            } catch (SQLException e) {
+                log.warn("无法获取 PGConnection，改用批量 INSERT: {}", e.getMessage());
+                batchInsert(docId, contents, embeddings, createdAt);
+                return;
+            }
+
+            long createdAtMicros = ChronoUnit.MICROS.between(PG_EPOCH, createdAt);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new PGCopyOutputStream(pgConnection, COPY_SQL), 64 * 1024))) {
+                out.write(COPY_SIGNATURE);
+                out.writeInt(0);  // flags
+                out.writeInt(0);  // 扩展区长度
+
+                for (int i = 0; i < contents.size(); i++) {
+                    byte[] content = contents.get(i).getBytes(StandardCharsets.UTF_8);
+                    float[] embedding = embeddings.get(i);
+
+                    byte[] contentHash = ContentHash.sha256Hex(contents.get(i)).getBytes(StandardCharsets.US_ASCII);
+                    byte[] searchTokens = LexicalTokenizer.toIndexText(contents.get(i)).getBytes(StandardCharsets.UTF_8);
+
+                    out.writeShort(6);  // 字段数
+
+                    out.writeInt(content.length);
+                    out.write(content);
+
+                    out.writeInt(contentHash.length);
+                    out.write(contentHash);
+
+                    out.writeInt(searchTokens.length);
+                    out.write(searchTokens);
+
+                    if (docId == null) {
+                        out.writeInt(-1);
+                    } else {
+                        out.writeInt(8);
+                        out.writeLong(docId);
+                    }
+
+                    out.writeInt(PgVectorCodec.binaryLength(embedding));
+                    PgVectorCodec.writeBinary(out, embedding);
+
+                    out.writeInt(8);
+                    out.writeLong(createdAtMicros);
+                }
+                out.writeShort(-1);  // 结束标记
+            }
+        } catch (SQLException | IOException e) {
+            throw new RuntimeException("COPY 写入分片失败: " + e.getMessage(), e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
+
+    private void batchInsert(Long docId, List<String> contents, List<float[]> embeddings, LocalDateTime createdAt) {
+        Timestamp timestamp = Timestamp.valueOf(createdAt);
+        List<Integer> indexes = new ArrayList<>(contents.size());
+        for (int i = 0; i < contents.size(); i++) {
+            indexes.add(i);
+        }
+        jdbcTemplate.batchUpdate(INSERT_SQL, indexes, batchSize, (ps, i) -> {
+            ps.setString(1, contents.get(i));
+            ps.setString(2, ContentHash.sha256Hex(contents.get(i)));
+            ps.setString(3, LexicalTokenizer.toIndexText(contents.get(i)));
+            ps.setObject(4, docId, Types.BIGINT);
+            PgVectorCodec.bind(ps, 5, embeddings.get(i));
+            ps.setTimestamp(6, timestamp);
+        });
+    }
+
+    private void recordThroughput(Long docId, int count, long elapsedNanos) {
+        long millis = Math.max(1, elapsedNanos / 1_000_000);
+        double chunksPerSecond = count * 1000.0 / millis;
+        totalChunks.addAndGet(count);
+        totalMillis.addAndGet(millis);
+        lastChunksPerSecond = chunksPerSecond;
+        log.info("分片批量写入完成: docId={}, 分片数={}, 耗时={}ms, 吞吐={} chunks/s",
+                docId, count, millis, String.format("%.1f", chunksPerSecond));
+    }
+}
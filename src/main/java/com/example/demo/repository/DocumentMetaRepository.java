@@ -2,12 +2,21 @@ package com.example.demo.repository;
 
 import com.example.demo.domain.Document;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.List;
+
 
 @Repository
 public interface DocumentMetaRepository extends JpaRepository<Document,Long> {
 
-
+    /**
+     * 文档存在时返回其 ID 并加共享锁（FOR SHARE），直到事务结束前文档不会被删除
+     * 入库任务的存储阶段在写分片的事务里调用，与删除文档互斥，不会留下 doc_id 已不存在的分片
+     */
+    @Query(value = "SELECT id FROM document WHERE id = :id FOR SHARE", nativeQuery = true)
+    List<Long> lockIfExists(@Param("id") Long id);
 
 }
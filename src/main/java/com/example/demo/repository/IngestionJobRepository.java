@@ -0,0 +1,45 @@
+package com.example.demo.repository;
+
+import com.example.demo.domain.IngestionJob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface IngestionJobRepository extends JpaRepository<IngestionJob, Long> {
+
+    /**
+     * 认领某个阶段待执行的任务
+     * FOR UPDATE SKIP LOCKED：多个 worker（或多个实例）并发认领时互不阻塞，也不会拿到同一条任务
+     * 必须在事务中调用，认领后在同一事务内把状态改为 RUNNING
+     */
+    @Query(value = "SELECT * FROM ingestion_job " +
+            "WHERE stage = :stage AND status = 'PENDING' AND next_run_at <= :now " +
+            "ORDER BY id " +
+            "LIMIT :limit " +
+            "FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<IngestionJob> lockPending(@Param("stage") String stage,
+                                   @Param("now") LocalDateTime now,
+                                   @Param("limit") int limit);
+
+    List<IngestionJob> findByDocIdOrderByIdDesc(Long docId);
+
+    boolean existsByDocIdAndStatusIn(Long docId, Collection<IngestionJob.Status> statuses);
+
+    /**
+     * 回收长时间没有汇报进度的任务（worker 所在进程崩溃等情况）
+     * version 加一：原来那次执行如果其实还活着，之后的保存会因为版本不符而失败
+     */
+    @Modifying
+    @Query(value = "UPDATE ingestion_job SET status = 'PENDING', locked_at = NULL, version = version + 1 " +
+            "WHERE status = 'RUNNING' AND locked_at < :before", nativeQuery = true)
+    @Transactional
+    int releaseStale(@Param("before") LocalDateTime before);
+}
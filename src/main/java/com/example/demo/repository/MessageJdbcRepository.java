@@ -0,0 +1,96 @@
+package com.example.demo.repository;
+
+import com.example.demo.domain.Message;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * message 表的 JDBC 批量写入（MessageWriteBehind 使用）
+ * ID 由 message_seq 按块预取（与 message.id 列默认值同一个序列），
+ * 写入前就能确定 ID；INSERT 带 ON CONFLICT (id) DO NOTHING，日志重放时重复写入同一条消息不会报错
+ */
+@Repository
+public class MessageJdbcRepository {
+
+    private static final String CREATE_SEQUENCE_SQL =
+            "CREATE SEQUENCE IF NOT EXISTS " + Message.ID_SEQUENCE + " INCREMENT BY " + Message.ID_ALLOCATION_SIZE;
+
+    // 序列落后于已有数据（之前是 IDENTITY 自增列）时拨到 MAX(id) 之后，保证预取的整块 ID 都比已有的大
+    private static final String CATCH_UP_SEQUENCE_SQL =
+            "SELECT setval('" + Message.ID_SEQUENCE + "', t.floor) FROM " +
+            "(SELECT COALESCE(MAX(id), 0) + " + Message.ID_ALLOCATION_SIZE + " AS floor FROM message) t " +
+            "WHERE t.floor > (SELECT last_value FROM " + Message.ID_SEQUENCE + ")";
+
+    private static final String NEXT_ID_SQL = "SELECT nextval('" + Message.ID_SEQUENCE + "')";
+
+    private static final String INSERT_SQL =
+            "INSERT INTO message (id, conversation_id, role, content, created_at) VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (id) DO NOTHING";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MessageJdbcRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * 确保序列存在并且不落后于已有数据（启动时调用一次）
+     */
+    public void prepareSequence() {
+        jdbcTemplate.execute(CREATE_SEQUENCE_SQL);
+        jdbcTemplate.queryForList(CATCH_UP_SEQUENCE_SQL);
+    }
+
+    /**
+     * 取一块 ID：返回这块的最大值，可用的 ID 是 (hi - ID_ALLOCATION_SIZE, hi]
+     */
+    public long nextIdBlock() {
+        Long hi = jdbcTemplate.queryForObject(NEXT_ID_SQL, Long.class);
+        if (hi == null) {
+            throw new IllegalStateException("读取序列 " + Message.ID_SEQUENCE + " 失败");
+        }
+        return hi;
+    }
+
+    /**
+     * 批量写入（消息的 ID 已经分配好；驱动开启 reWriteBatchedInserts 时会合并成多行 INSERT）
+     * @return 实际写入的行数（已存在的 ID 跳过）
+     */
+    public int batchInsert(List<Message> messages) {
+        if (messages.isEmpty()) {
+            return 0;
+        }
+        List<Object[]> args = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            args.add(toArgs(message));
+        }
+        int inserted = 0;
+        for (int count : jdbcTemplate.batchUpdate(INSERT_SQL, args)) {
+            // 批量重写后驱动可能返回 SUCCESS_NO_INFO（-2），按写入成功计
+            inserted += count == Statement.SUCCESS_NO_INFO ? 1 : count;
+        }
+        return inserted;
+    }
+
+    /**
+     * 单条写入（批量写入因个别行违反约束失败时逐条重试用）
+     */
+    public int insert(Message message) {
+        return jdbcTemplate.update(INSERT_SQL, toArgs(message));
+    }
+
+    private static Object[] toArgs(Message message) {
+        return new Object[]{
+                message.getId(),
+                message.getConversationId(),
+                message.getRole(),
+                message.getContent(),
+                Timestamp.valueOf(message.getCreatedAt())
+        };
+    }
+}
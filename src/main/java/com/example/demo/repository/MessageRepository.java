@@ -1,18 +1,99 @@
 package com.example.demo.repository;
 
 import com.example.demo.domain.Message;
-import org.springframework.data.jpa.repository.JpaRepository;
+import io.r2dbc.spi.Readable;
+import org.springframework.r2dbc.core.DatabaseClient;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.util.List;
+import java.time.LocalDateTime;
 
+/**
+ * message 表的响应式访问（R2DBC DatabaseClient）
+ * 正常的消息写入走 MessageWriteBehind（日志 + JDBC 批量），这里的 insert 只在关闭写后持久化时使用
+ */
 @Repository
-public interface MessageRepository extends JpaRepository<Message, Long> {
+public class MessageRepository {
 
+    private static final String COLUMNS = "id, conversation_id, role, content, created_at";
 
-    List<Message> findByConversationIdOrderByCreatedAtAsc(Long conversationId);
+    private static final String FIND_BY_CONVERSATION_SQL =
+            "SELECT " + COLUMNS + " FROM message WHERE conversation_id = :conversationId ORDER BY created_at, id";
 
+    private static final String FIND_BY_CONVERSATION_AND_ROLE_SQL =
+            "SELECT " + COLUMNS + " FROM message WHERE conversation_id = :conversationId AND role = :role " +
+            "ORDER BY created_at, id";
 
-    List<Message> findByConversationIdAndRoleOrderByCreatedAtAsc(Long conversationId, String role);
-}
+    // 沿 (conversation_id, created_at, id) 索引从最新一条往回扫 limit 行就停，与会话长度无关
+    private static final String FIND_RECENT_SQL =
+            "SELECT " + COLUMNS + " FROM message WHERE conversation_id = :conversationId " +
+            "ORDER BY created_at DESC, id DESC LIMIT :limit";
+
+    // id 取列默认值 nextval('message_seq')
+    private static final String INSERT_SQL =
+            "INSERT INTO message (conversation_id, role, content, created_at) " +
+            "VALUES (:conversationId, :role, :content, :createdAt) RETURNING id";
+
+    private final DatabaseClient databaseClient;
+
+    public MessageRepository(DatabaseClient databaseClient) {
+        this.databaseClient = databaseClient;
+    }
+
+    public Flux<Message> findByConversationIdOrderByCreatedAtAsc(Long conversationId) {
+        return databaseClient.sql(FIND_BY_CONVERSATION_SQL)
+                .bind("conversationId", conversationId)
+                .map(MessageRepository::toMessage)
+                .all();
+    }
 
+    public Flux<Message> findByConversationIdAndRoleOrderByCreatedAtAsc(Long conversationId, String role) {
+        return databaseClient.sql(FIND_BY_CONVERSATION_AND_ROLE_SQL)
+                .bind("conversationId", conversationId)
+                .bind("role", role)
+                .map(MessageRepository::toMessage)
+                .all();
+    }
+
+    /**
+     * 会话最近的 limit 条消息（按时间倒序）
+     */
+    public Flux<Message> findRecentByConversationId(Long conversationId, int limit) {
+        return databaseClient.sql(FIND_RECENT_SQL)
+                .bind("conversationId", conversationId)
+                .bind("limit", limit)
+                .map(MessageRepository::toMessage)
+                .all();
+    }
+
+    /**
+     * 写入一条消息，写入后回填 ID
+     */
+    public Mono<Message> insert(Message message) {
+        if (message.getCreatedAt() == null) {
+            message.setCreatedAt(LocalDateTime.now());
+        }
+        return databaseClient.sql(INSERT_SQL)
+                .bind("conversationId", message.getConversationId())
+                .bind("role", message.getRole())
+                .bind("content", message.getContent())
+                .bind("createdAt", message.getCreatedAt())
+                .map(row -> row.get("id", Long.class))
+                .one()
+                .map(id -> {
+                    message.setId(id);
+                    return message;
+                });
+    }
+
+    private static Message toMessage(Readable row) {
+        Message message = new Message();
+        message.setId(row.get("id", Long.class));
+        message.setConversationId(row.get("conversation_id", Long.class));
+        message.setRole(row.get("role", String.class));
+        message.setContent(row.get("content", String.class));
+        message.setCreatedAt(row.get("created_at", LocalDateTime.class));
+        return message;
+    }
+}
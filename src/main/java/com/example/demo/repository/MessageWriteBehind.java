@@ -0,0 +1,526 @@
+package com.example.demo.repository;
+
+import com.example.demo.config.BlockingSchedulers;
+import com.example.demo.domain.Message;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * 对话消息的写后（write-behind）持久化，替代逐条 INSERT
+ * save：从 message_seq 预取的 ID 块里分配 ID → 追加写本地日志（journal）→ 进内存队列 → 日志 fsync 后发出，
+ * 调用方马上就能把消息放进会话历史缓存；后台线程攒满 batch-size 条或每隔 flush-interval-ms 用批量 INSERT 写库。
+ * 不丢消息：日志按段滚动，每次刷库先封存当前段、新开一段，封存段里的消息全部写库成功后才删除；
+ * 进程崩溃后重启时先把残留的日志段重放进库（ON CONFLICT DO NOTHING，已写过的跳过），再接受新消息，重放失败则启动失败。
+ * 写库前消息只在 unflushed 里：ConversationHistoryCache 加载窗口时会合并；直接查库的接口（消息列表等）最多落后 flush-interval-ms。
+ * 关闭 app.chat.persist.write-behind 时退化为逐条 messageRepository.insert（R2DBC）。
+ * 分配 ID（偶尔取一次 ID 块）和写日志是阻塞 IO，放在 jdbc 线程池上执行，不占用事件循环。
+ * fsync 是组提交：写日志时不 force，等待中的 save 由 journal-sync 线程一次 force 后一起完成，
+ * 一次 force 期间到达的消息由下一次 force 一起覆盖，并发保存时每条消息不再各自排队等一次 fsync。
+ */
+@Component
+public class MessageWriteBehind {
+
+    private static final Logger log = LoggerFactory.getLogger(MessageWriteBehind.class);
+
+    private static final String SEGMENT_PREFIX = "messages-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final MessageRepository messageRepository;
+    private final MessageJdbcRepository messageJdbcRepository;
+    private final ObjectMapper objectMapper;
+    private final BlockingSchedulers blockingSchedulers;
+
+    private final boolean enabled;
+    private final int batchSize;
+    private final long flushIntervalMs;
+    private final Path journalDir;
+    private final boolean fsync;
+
+    // 单线程：刷库、封存段的删除都在这个线程上，互不并发
+    private final ScheduledExecutorService flusher;
+    // 单线程：日志组提交（force）
+    private final ExecutorService syncer;
+
+    // 保护 queue、当前日志段和 sealed
+    private final Object lock = new Object();
+    private List<Message> queue = new ArrayList<>();
+    private FileChannel journal;
+    private Path journalPath;
+    private long segment;
+    // 当前段是否写过消息（没写过的不用封存，库不可用时不会每次重试都多出一个空段）
+    private boolean segmentDirty;
+    private final List<Path> sealed = new ArrayList<>();
+    private boolean flushRequested;
+    // 已写入日志、等待 force 的保存，以及是否已经安排了一次 force
+    private List<SyncWaiter> syncWaiters = new ArrayList<>();
+    private boolean syncScheduled;
+
+    // 预取的 ID 块 [nextId, idHi]
+    private final Object idLock = new Object();
+    private long nextId = 1;
+    private long idHi = 0;
+
+    // 已确认但还没写进库的消息，按 ID 排序
+    private final ConcurrentSkipListMap<Long, Message> unflushed = new ConcurrentSkipListMap<>();
+
+    private final AtomicLong saved = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong flushedRows = new AtomicLong();
+    private final AtomicLong sizeFlushes = new AtomicLong();
+    private final AtomicLong failedFlushes = new AtomicLong();
+    private final AtomicLong droppedRows = new AtomicLong();
+    private final AtomicLong recoveredRows = new AtomicLong();
+    private final AtomicLong journalSyncs = new AtomicLong();
+    private final AtomicLong totalFlushMicros = new AtomicLong();
+
+    public MessageWriteBehind(MessageRepository messageRepository,
+                              MessageJdbcRepository messageJdbcRepository,
+                              ObjectMapper objectMapper,
+                              BlockingSchedulers blockingSchedulers,
+                              @Value("${app.chat.persist.write-behind:true}") boolean enabled,
+                              @Value("${app.chat.persist.batch-size:100}") int batchSize,
+                              @Value("${app.chat.persist.flush-interval-ms:200}") long flushIntervalMs,
+                              @Value("${app.chat.persist.journal-dir:data/message-journal}") String journalDir,
+                              @Value("${app.chat.persist.fsync:true}") boolean fsync) {
+        this.messageRepository = messageRepository;
+        this.messageJdbcRepository = messageJdbcRepository;
+        this.objectMapper = objectMapper;
+        this.blockingSchedulers = blockingSchedulers;
+        this.enabled = enabled;
+        this.batchSize = Math.max(1, batchSize);
+        this.flushIntervalMs = Math.max(1, flushIntervalMs);
+        this.journalDir = Paths.get(journalDir);
+        this.fsync = fsync;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(daemonThreads("message-flush"));
+        this.syncer = Executors.newSingleThreadExecutor(daemonThreads("message-journal-sync"));
+    }
+
+    @PostConstruct
+    public void init() {
+        // 关闭写后持久化时 message.id 列默认值也用这个序列，同样要先追平已有数据
+        messageJdbcRepository.prepareSequence();
+        if (!enabled) {
+            return;
+        }
+        try {
+            Files.createDirectories(journalDir);
+            recover();
+            synchronized (lock) {
+                openSegment(segment + 1);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("初始化消息日志失败: " + journalDir.toAbsolutePath(), e);
+        }
+        flusher.scheduleWithFixedDelay(() -> flush(false), flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+        log.info("消息写后持久化已开启: batchSize={}, flushIntervalMs={}, journal={}", batchSize, flushIntervalMs,
+                journalDir.toAbsolutePath());
+    }
+
+    /**
+     * 保存一条消息：分配 ID、写入日志并 fsync 后发出（此时还没写库）
+     */
+    public Mono<Message> save(Message message) {
+        if (!enabled) {
+            return messageRepository.insert(message);
+        }
+        return Mono.fromCallable(() -> enqueue(message))
+                .subscribeOn(blockingSchedulers.jdbc())
+                .flatMap(Mono::fromFuture);
+    }
+
+    /**
+     * 某个会话已确认、还没写进库的消息（按 ID 升序）
+     */
+    public List<Message> unflushed(Long conversationId) {
+        List<Message> result = new ArrayList<>();
+        for (Message message : unflushed.values()) {
+            if (conversationId.equals(message.getConversationId())) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    private CompletableFuture<Message> enqueue(Message message) {
+        if (message.getId() == null) {
+            message.setId(nextId());
+        }
+        if (message.getCreatedAt() == null) {
+            message.setCreatedAt(LocalDateTime.now());
+        }
+        byte[] line = journalLine(message);
+        CompletableFuture<Message> durable = fsync ? new CompletableFuture<>() : CompletableFuture.completedFuture(message);
+        boolean full = false;
+        boolean sync = false;
+        synchronized (lock) {
+            appendJournal(line);
+            queue.add(message);
+            unflushed.put(message.getId(), message);
+            if (queue.size() >= batchSize && !flushRequested) {
+                flushRequested = true;
+                full = true;
+            }
+            if (fsync) {
+                syncWaiters.add(new SyncWaiter(message, durable));
+                if (!syncScheduled) {
+                    syncScheduled = true;
+                    sync = true;
+                }
+            }
+        }
+        saved.incrementAndGet();
+        if (full) {
+            flusher.execute(() -> flush(true));
+        }
+        if (sync) {
+            syncer.execute(this::syncJournal);
+        }
+        return durable;
+    }
+
+    // 只在 syncer 线程上执行：取走当前所有等待者，force 一次后一起完成；force 期间新到的等待者会再安排一次
+    private void syncJournal() {
+        List<SyncWaiter> waiters;
+        FileChannel channel;
+        synchronized (lock) {
+            waiters = syncWaiters;
+            syncWaiters = new ArrayList<>();
+            syncScheduled = false;
+            channel = journal;
+        }
+        try {
+            if (channel != null) {
+                channel.force(false);
+            }
+        } catch (ClosedChannelException e) {
+            // 段已滚动：openSegment / closeJournal 关闭前已经 force 过
+        } catch (IOException e) {
+            UncheckedIOException error = new UncheckedIOException("写入消息日志失败", e);
+            waiters.forEach(waiter -> waiter.durable().completeExceptionally(error));
+            return;
+        }
+        journalSyncs.incrementAndGet();
+        waiters.forEach(waiter -> waiter.durable().complete(waiter.message()));
+    }
+
+    public Map<String, Object> stats() {
+        long batchCount = batches.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("batchSize", batchSize);
+        stats.put("flushIntervalMs", flushIntervalMs);
+        stats.put("fsync", fsync);
+        synchronized (lock) {
+            stats.put("queued", queue.size());
+            stats.put("sealedSegments", sealed.size());
+        }
+        stats.put("unflushed", unflushed.size());
+        stats.put("saved", saved.get());
+        stats.put("batches", batchCount);
+        stats.put("flushedRows", flushedRows.get());
+        stats.put("sizeFlushes", sizeFlushes.get());
+        stats.put("failedFlushes", failedFlushes.get());
+        stats.put("droppedRows", droppedRows.get());
+        stats.put("recoveredRows", recoveredRows.get());
+        stats.put("journalSyncs", journalSyncs.get());
+        stats.put("avgBatchSize", batchCount == 0 ? 0.0 : (double) flushedRows.get() / batchCount);
+        stats.put("avgFlushMs", batchCount == 0 ? 0.0 : totalFlushMicros.get() / 1000.0 / batchCount);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (enabled) {
+            // 关闭前把队列里的消息写库；没写成功的留在日志里，下次启动时重放
+            try {
+                flusher.submit(() -> flush(false)).get(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | TimeoutException e) {
+                log.warn("关闭前写入消息失败，下次启动时从日志恢复", e);
+            }
+        }
+        flusher.shutdown();
+        syncer.shutdown();
+        synchronized (lock) {
+            closeJournal();
+        }
+    }
+
+    private long nextId() {
+        synchronized (idLock) {
+            if (nextId > idHi) {
+                idHi = messageJdbcRepository.nextIdBlock();
+                nextId = idHi - Message.ID_ALLOCATION_SIZE + 1;
+            }
+            return nextId++;
+        }
+    }
+
+    // 只在 flusher 线程上执行
+    private void flush(boolean bySize) {
+        List<Message> batch;
+        List<Path> covered;
+        synchronized (lock) {
+            flushRequested = false;
+            if (queue.isEmpty()) {
+                return;
+            }
+            // 先封存当前段，封存段里的消息正好是队列里的这些（加上之前写库失败放回队列的）
+            try {
+                if (segmentDirty) {
+                    openSegment(segment + 1);
+                }
+            } catch (IOException e) {
+                failedFlushes.incrementAndGet();
+                log.warn("滚动消息日志失败，本次不写库", e);
+                return;
+            }
+            batch = queue;
+            queue = new ArrayList<>(batchSize);
+            covered = new ArrayList<>(sealed);
+        }
+        if (bySize) {
+            sizeFlushes.incrementAndGet();
+        }
+
+        long start = System.nanoTime();
+        try {
+            write(batch);
+        } catch (RuntimeException e) {
+            // 放回队头，下次刷库时重试；对应的日志段不删
+            failedFlushes.incrementAndGet();
+            log.warn("批量写入消息失败，{} 条消息等待重试: {}", batch.size(), e.getMessage());
+            synchronized (lock) {
+                batch.addAll(queue);
+                queue = batch;
+            }
+            return;
+        }
+        batches.incrementAndGet();
+        totalFlushMicros.addAndGet((System.nanoTime() - start) / 1000);
+        for (Message message : batch) {
+            unflushed.remove(message.getId());
+        }
+        synchronized (lock) {
+            sealed.removeAll(covered);
+        }
+        for (Path path : covered) {
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                // 留着也没关系，重放时已写过的消息会跳过
+                log.warn("删除消息日志段失败: {}", path, e);
+            }
+        }
+    }
+
+    // 按 batch-size 分批写库；某一批违反约束（例如会话已删除）时逐条重试，仍然失败的丢弃
+    private void write(List<Message> messages) {
+        for (int from = 0; from < messages.size(); from += batchSize) {
+            List<Message> chunk = messages.subList(from, Math.min(from + batchSize, messages.size()));
+            try {
+                messageJdbcRepository.batchInsert(chunk);
+            } catch (DataIntegrityViolationException e) {
+                for (Message message : chunk) {
+                    try {
+                        messageJdbcRepository.insert(message);
+                    } catch (DataIntegrityViolationException rowError) {
+                        droppedRows.incrementAndGet();
+                        log.warn("消息 {}（会话 {}）无法写库，已丢弃: {}", message.getId(),
+                                message.getConversationId(), rowError.getMessage());
+                    }
+                }
+            }
+            flushedRows.addAndGet(chunk.size());
+        }
+    }
+
+    // 启动时重放上次残留的日志段
+    private void recover() throws IOException {
+        List<Path> segments;
+        try (Stream<Path> files = Files.list(journalDir)) {
+            segments = files.filter(MessageWriteBehind::isSegment).sorted().toList();
+        }
+        for (Path path : segments) {
+            List<Message> messages = readSegment(path);
+            write(messages);
+            recoveredRows.addAndGet(messages.size());
+            segment = Math.max(segment, segmentNumber(path));
+            Files.deleteIfExists(path);
+        }
+        if (!segments.isEmpty()) {
+            log.info("已从 {} 个消息日志段恢复 {} 条消息", segments.size(), recoveredRows.get());
+        }
+    }
+
+    // 按字节拆行：崩溃时写了一半的最后一行可能断在多字节字符中间，按行解码会直接抛异常导致启动失败
+    private List<Message> readSegment(Path path) throws IOException {
+        List<Message> messages = new ArrayList<>();
+        byte[] bytes = Files.readAllBytes(path);
+        int start = 0;
+        while (start < bytes.length) {
+            int end = start;
+            while (end < bytes.length && bytes[end] != '\n') {
+                end++;
+            }
+            if (end == bytes.length) {
+                // 没有换行结尾：崩溃时写了一半的最后一行，这条消息还没有确认给调用方
+                log.warn("跳过消息日志末尾不完整的一行: {}", path);
+                break;
+            }
+            String line = new String(bytes, start, end - start, StandardCharsets.UTF_8);
+            start = end + 1;
+            if (line.isBlank()) {
+                continue;
+            }
+            try {
+                messages.add(toMessage(objectMapper.readValue(line, JournalEntry.class)));
+            } catch (IOException e) {
+                log.warn("跳过无法解析的消息日志行: {}", path);
+            }
+        }
+        return messages;
+    }
+
+    // 必须持有 lock；当前段（如果有）进入 sealed
+    private void openSegment(long number) throws IOException {
+        Path path = journalDir.resolve(String.format("%s%012d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        if (journal != null) {
+            closeJournal();
+            sealed.add(journalPath);
+        }
+        journal = channel;
+        journalPath = path;
+        segment = number;
+        segmentDirty = false;
+    }
+
+    // 必须持有 lock
+    private void appendJournal(byte[] line) {
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(line);
+            while (buffer.hasRemaining()) {
+                journal.write(buffer);
+            }
+            segmentDirty = true;
+        } catch (IOException e) {
+            throw new UncheckedIOException("写入消息日志失败", e);
+        }
+    }
+
+    // 必须持有 lock；关闭前先 force，还在等待组提交的消息（syncJournal 遇到已关闭的段）以此为准
+    private void closeJournal() {
+        if (journal == null) {
+            return;
+        }
+        if (fsync) {
+            try {
+                journal.force(false);
+            } catch (IOException e) {
+                UncheckedIOException error = new UncheckedIOException("写入消息日志失败", e);
+                syncWaiters.forEach(waiter -> waiter.durable().completeExceptionally(error));
+                syncWaiters = new ArrayList<>();
+                log.warn("消息日志 force 失败: {}", journalPath, e);
+            }
+        }
+        try {
+            journal.close();
+        } catch (IOException e) {
+            log.warn("关闭消息日志失败: {}", journalPath, e);
+        }
+        journal = null;
+    }
+
+    private byte[] journalLine(Message message) {
+        JournalEntry entry = new JournalEntry(message.getId(), message.getConversationId(),
+                message.getRole(), message.getContent(), message.getCreatedAt());
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(entry);
+            byte[] line = new byte[json.length + 1];
+            System.arraycopy(json, 0, line, 0, json.length);
+            line[json.length] = '\n';
+            return line;
+        } catch (IOException e) {
+            throw new UncheckedIOException("序列化消息失败", e);
+        }
+    }
+
+    private static Message toMessage(JournalEntry entry) {
+        Message message = new Message();
+        message.setId(entry.id());
+        message.setConversationId(entry.conversationId());
+        message.setRole(entry.role());
+        message.setContent(entry.content());
+        message.setCreatedAt(entry.createdAt());
+        return message;
+    }
+
+    private static boolean isSegment(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        try {
+            return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    // 等待日志 force 的一次保存
+    private record SyncWaiter(Message message, CompletableFuture<Message> durable) {
+    }
+
+    // 日志里的一行（JSON）
+    private record JournalEntry(long id, long conversationId, String role, String content, LocalDateTime createdAt) {
+    }
+}
@@ -0,0 +1,19 @@
+package com.example.demo.retrieval;
+
+/**
+ * 检索结果的轻量投影：分片 ID、所属文档 ID、内容、L2 距离（只查这几列，不取 embedding）
+ * 只被关键词检索命中的分片没有向量距离，distance 为 NaN
+ */
+public record ChunkHit(long id, long docId, String content, float distance) {
+
+    public boolean hasDistance() {
+        return !Float.isNaN(distance);
+    }
+
+    /**
+     * prompt 和日志里展示的相关度
+     */
+    public String distanceLabel() {
+        return hasDistance() ? String.format("距离 %.4f", distance) : "关键词匹配";
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.demo.retrieval;
+
+import com.example.demo.vector.VectorHit;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 检索结果的距离截断与自适应 topK
+ * 1、distance 大于 max-distance 的结果直接丢弃（与问题基本无关，放进 prompt 只会干扰回答）；
+ * 2、自适应 topK：以最近的距离为基准，只保留 distance <= 最近距离 * (1 + adaptive-margin) 的结果，但至少保留 min-k 个，
+ *    问题明确时只留几个高度相关的分片，问题宽泛（距离接近）时用满 topK。
+ * 没有向量距离的结果（只被关键词检索命中，distance 为 NaN）不参与截断，原样保留。
+ */
+public final class HitSelector {
+
+    private HitSelector() {
+    }
+
+    /**
+     * @param hits 按相关度排序的检索结果，最多 topK 个
+     * @param maxDistance 距离上限，<= 0 表示不截断
+     * @param adaptiveMargin 相对最近距离的放宽比例，<= 0 表示不做自适应
+     * @param minK 自适应时至少保留的结果数
+     */
+    public static List<VectorHit> select(List<VectorHit> hits, float maxDistance, float adaptiveMargin, int minK) {
+        if (maxDistance <= 0 && adaptiveMargin <= 0) {
+            return hits;
+        }
+        float best = Float.POSITIVE_INFINITY;
+        for (VectorHit hit : hits) {
+            if (!Float.isNaN(hit.distance()) && (maxDistance <= 0 || hit.distance() <= maxDistance)) {
+                best = Math.min(best, hit.distance());
+            }
+        }
+        float bound = adaptiveMargin > 0 && best != Float.POSITIVE_INFINITY
+                ? best * (1 + adaptiveMargin)
+                : Float.POSITIVE_INFINITY;
+        List<VectorHit> selected = new ArrayList<>(hits.size());
+        int kept = 0;
+        for (VectorHit hit : hits) {
+            float distance = hit.distance();
+            if (Float.isNaN(distance)) {
+                selected.add(hit);
+                continue;
+            }
+            if (maxDistance > 0 && distance > maxDistance) {
+                continue;
+            }
+            if (distance <= bound || kept < minK) {
+                selected.add(hit);
+                kept++;
+            }
+        }
+        return selected;
+    }
+}
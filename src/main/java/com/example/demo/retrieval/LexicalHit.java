@@ -0,0 +1,7 @@
+package com.example.demo.retrieval;
+
+/**
+ * 关键词检索命中：分片 ID、所属文档 ID、ts_rank_cd 得分（越大越相关）
+ */
+public record LexicalHit(long chunkId, long docId, float score) {
+}
@@ -0,0 +1,174 @@
+package com.example.demo.retrieval;
+
+import com.example.demo.common.LexicalTokenizer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * document_chunk.content 的关键词检索（PostgreSQL 全文检索 + GIN 索引）
+ * 词项在 Java 里按 {@link LexicalTokenizer} 切好写入 search_tokens 列，索引建在 array_to_tsvector(string_to_array(search_tokens, ' ')) 上，
+ * 不依赖数据库的中文分词扩展；查询时词项之间取 OR，按 ts_rank_cd 排序。
+ * 启动后在后台补齐旧数据的 search_tokens，再建索引（CREATE INDEX CONCURRENTLY，不阻塞写入）。
+ */
+@Component
+public class LexicalIndex {
+
+    private static final Logger log = LoggerFactory.getLogger(LexicalIndex.class);
+
+    public static final String INDEX_NAME = "idx_document_chunk_search_tokens";
+
+    // 建索引和查询必须用同一个表达式，才能走索引
+    private static final String TSVECTOR_EXPR = "array_to_tsvector(string_to_array(search_tokens, ' '))";
+
+    private static final String SEARCH_SQL =
+            "SELECT id, doc_id, ts_rank_cd(" + TSVECTOR_EXPR + ", q, 1) AS score " +
+            "FROM document_chunk, CAST(? AS tsquery) q " +
+            "WHERE " + TSVECTOR_EXPR + " @@ q " +
+            "ORDER BY score DESC, id LIMIT ?";
+
+    private static final String PENDING_SQL =
+            "SELECT id, content FROM document_chunk WHERE search_tokens IS NULL ORDER BY id LIMIT ?";
+
+    private static final String UPDATE_TOKENS_SQL = "UPDATE document_chunk SET search_tokens = ? WHERE id = ?";
+
+    private static final String INDEX_VALID_SQL =
+            "SELECT i.indisvalid FROM pg_index i JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = ?";
+
+    private static final RowMapper<LexicalHit> HIT_ROW_MAPPER = (rs, rowNum) -> {
+        Long docId = rs.getObject("doc_id", Long.class);
+        return new LexicalHit(rs.getLong("id"), docId == null ? -1 : docId, rs.getFloat("score"));
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final int backfillBatchSize;
+    private final ExecutorService maintenanceExecutor;
+
+    private volatile boolean indexValid;
+    private volatile String lastError;
+    private final AtomicLong backfilled = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong searchMicros = new AtomicLong();
+    private final AtomicLong emptyQueries = new AtomicLong();
+
+    public LexicalIndex(JdbcTemplate jdbcTemplate,
+                        @Value("${app.rag.retrieval.lexical.backfill-batch-size:500}") int backfillBatchSize) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.backfillBatchSize = Math.max(1, backfillBatchSize);
+        this.maintenanceExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lexical-index");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 启动后补齐旧数据的词项并建索引（后台执行）
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        maintenanceExecutor.execute(() -> {
+            try {
+                long start = System.currentTimeMillis();
+                int filled = backfill();
+                ensureIndex();
+                if (filled > 0) {
+                    log.info("关键词索引补齐完成: 分片数={}, 耗时={}ms", filled, System.currentTimeMillis() - start);
+                }
+            } catch (Exception e) {
+                lastError = e.getMessage();
+                log.error("关键词索引初始化失败，关键词检索可能走全表扫描", e);
+            }
+        });
+    }
+
+    /**
+     * 关键词检索，按 ts_rank_cd 降序返回前 limit 个分片；问题里没有可用的词项时返回空列表
+     */
+    public List<LexicalHit> search(String query, int limit) {
+        List<String> tokens = LexicalTokenizer.queryTokens(query);
+        if (tokens.isEmpty() || limit <= 0) {
+            emptyQueries.incrementAndGet();
+            return List.of();
+        }
+        long start = System.nanoTime();
+        try {
+            return jdbcTemplate.query(SEARCH_SQL, HIT_ROW_MAPPER, LexicalTokenizer.toTsQuery(tokens), limit);
+        } finally {
+            searches.incrementAndGet();
+            searchMicros.addAndGet((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * 索引状态：索引是否有效、补齐的分片数、检索次数与平均耗时
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = searches.get();
+        stats.put("indexValid", indexValid);
+        stats.put("backfilled", backfilled.get());
+        stats.put("searches", total);
+        stats.put("emptyQueries", emptyQueries.get());
+        stats.put("avgSearchMicros", total == 0 ? 0 : searchMicros.get() / total);
+        stats.put("lastError", lastError);
+        return stats;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        maintenanceExecutor.shutdownNow();
+    }
+
+    // 按 ID 分批给 search_tokens 为空的分片（加列之前写入的数据）算词项
+    private int backfill() {
+        int total = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            List<Object[]> updates = new ArrayList<>();
+            jdbcTemplate.query(PENDING_SQL, rs -> {
+                updates.add(new Object[]{LexicalTokenizer.toIndexText(rs.getString("content")), rs.getLong("id")});
+            }, backfillBatchSize);
+            if (updates.isEmpty()) {
+                break;
+            }
+            jdbcTemplate.batchUpdate(UPDATE_TOKENS_SQL, updates);
+            total += updates.size();
+            backfilled.addAndGet(updates.size());
+        }
+        return total;
+    }
+
+    private void ensureIndex() {
+        List<Boolean> valid = jdbcTemplate.queryForList(INDEX_VALID_SQL, Boolean.class, INDEX_NAME);
+        if (!valid.isEmpty() && Boolean.TRUE.equals(valid.get(0))) {
+            indexValid = true;
+            return;
+        }
+        log.info("未找到有效的关键词索引，开始创建");
+        // CONCURRENTLY 不能在事务里执行；上次构建中断会留下无效索引，先删掉
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + INDEX_NAME);
+                statement.execute("CREATE INDEX CONCURRENTLY " + INDEX_NAME + " ON document_chunk USING gin (" + TSVECTOR_EXPR + ")");
+            }
+            return null;
+        });
+        indexValid = true;
+    }
+}
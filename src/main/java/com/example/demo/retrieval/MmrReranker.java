@@ -0,0 +1,157 @@
+package com.example.demo.retrieval;
+
+import com.example.demo.vector.ChunkVectorLoader;
+import com.example.demo.vector.VectorHit;
+import com.example.demo.vector.kernel.DistanceKernel;
+import com.example.demo.vector.kernel.DistanceKernels;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 最大边际相关性（Maximal Marginal Relevance）重排：相邻分片内容接近，topK 里常有几段几乎一样的，
+ * 先多取若干候选，再逐个挑选 score = lambda * sim(q, d) - (1 - lambda) * max sim(d, 已选)，兼顾相关性与多样性。
+ * lambda = 1 等于按相关性排序，越小越偏向多样性。
+ * 候选向量按候选位置直接读进一个连续的 float[]（每行原地归一化），之后的相似度计算只在原始数组上进行，不为候选分配对象；
+ * 单位向量的余弦相似度 = 1 - L2² / 2，直接复用向量检索的距离内核（可用 SIMD）。
+ */
+@Component
+public class MmrReranker {
+
+    private final ChunkVectorLoader loader;
+    private final int dimensions;
+    private final DistanceKernel kernel;
+
+    private final AtomicLong reranks = new AtomicLong();
+    private final AtomicLong candidates = new AtomicLong();
+    private final AtomicLong rerankMicros = new AtomicLong();
+
+    public MmrReranker(ChunkVectorLoader loader,
+                       @Value("${app.vector.dimensions:1536}") int dimensions,
+                       @Value("${app.vector.brute-force.simd:true}") boolean simd) {
+        this.loader = loader;
+        this.dimensions = dimensions;
+        this.kernel = DistanceKernels.create(simd);
+    }
+
+    /**
+     * 从候选里按 MMR 挑出 topK 个，按挑选顺序返回（保留原来的 distance）
+     * 没有向量的候选（已删除 / 未向量化）不参与挑选，名额有剩时按原顺序补在后面
+     * @param query 问题向量
+     * @param hits 按相关度排序的候选
+     * @param lambda 相关性权重，[0, 1]
+     */
+    public List<VectorHit> rerank(float[] query, List<VectorHit> hits, int topK, float lambda) {
+        if (hits.size() <= topK || query.length != dimensions) {
+            return hits;
+        }
+        long start = System.nanoTime();
+        long[] ids = new long[hits.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = hits.get(i).chunkId();
+        }
+        float[] vectors = new float[ids.length * dimensions];
+        boolean[] found = loader.loadInto(ids, dimensions, vectors);
+
+        // 有向量的候选按原顺序往前挪成连续的行，同时归一化
+        int[] hitIndexes = new int[hits.size()];
+        int count = 0;
+        for (int i = 0; i < hits.size(); i++) {
+            if (found[i]) {
+                normalizeInto(vectors, i * dimensions, vectors, count * dimensions, dimensions);
+                hitIndexes[count++] = i;
+            }
+        }
+        float[] unitQuery = new float[dimensions];
+        normalizeInto(query, 0, unitQuery, 0, dimensions);
+
+        int[] order = select(unitQuery, vectors, count, Math.min(topK, count), lambda);
+
+        List<VectorHit> result = new ArrayList<>(topK);
+        boolean[] used = new boolean[hits.size()];
+        for (int index : order) {
+            result.add(hits.get(hitIndexes[index]));
+            used[hitIndexes[index]] = true;
+        }
+        for (int i = 0; i < hits.size() && result.size() < topK; i++) {
+            if (!used[i] && !found[i]) {
+                result.add(hits.get(i));
+            }
+        }
+        reranks.incrementAndGet();
+        candidates.addAndGet(hits.size());
+        rerankMicros.addAndGet((System.nanoTime() - start) / 1000);
+        return result;
+    }
+
+    /**
+     * 重排次数、平均候选数与平均耗时（含读取候选向量）
+     */
+    public Map<String, Object> stats() {
+        long total = reranks.get();
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("kernel", kernel.name());
+        stats.put("reranks", total);
+        stats.put("avgCandidates", total == 0 ? 0.0 : (double) candidates.get() / total);
+        stats.put("avgRerankMicros", total == 0 ? 0 : rerankMicros.get() / total);
+        return stats;
+    }
+
+    // 贪心挑选：relevance[i] 为与问题的相似度，maxSimilarity[i] 为与已选候选的最大相似度，每选一个只更新一遍 maxSimilarity
+    private int[] select(float[] query, float[] vectors, int count, int k, float lambda) {
+        float[] relevance = new float[count];
+        float[] maxSimilarity = new float[count];
+        boolean[] picked = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            relevance[i] = similarity(query, 0, vectors, i * dimensions);
+            maxSimilarity[i] = Float.NEGATIVE_INFINITY;
+        }
+        int[] order = new int[k];
+        for (int step = 0; step < k; step++) {
+            int best = -1;
+            float bestScore = Float.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                if (picked[i]) {
+                    continue;
+                }
+                float redundancy = step == 0 ? 0 : maxSimilarity[i];
+                float score = lambda * relevance[i] - (1 - lambda) * redundancy;
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = i;
+                }
+            }
+            picked[best] = true;
+            order[step] = best;
+            int bestOffset = best * dimensions;
+            for (int i = 0; i < count; i++) {
+                if (!picked[i]) {
+                    maxSimilarity[i] = Math.max(maxSimilarity[i], similarity(vectors, bestOffset, vectors, i * dimensions));
+                }
+            }
+        }
+        return order;
+    }
+
+    // 单位向量：cos = 1 - ||a - b||² / 2
+    private float similarity(float[] a, int aOffset, float[] b, int bOffset) {
+        return 1 - kernel.l2Squared(a, aOffset, b, bOffset, dimensions) / 2;
+    }
+
+    private static void normalizeInto(float[] source, int sourceOffset, float[] target, int targetOffset, int length) {
+        double norm = 0;
+        for (int d = 0; d < length; d++) {
+            float v = source[sourceOffset + d];
+            norm += v * v;
+        }
+        float scale = norm == 0 ? 0 : (float) (1 / Math.sqrt(norm));
+        for (int d = 0; d < length; d++) {
+            target[targetOffset + d] = source[sourceOffset + d] * scale;
+        }
+    }
+}
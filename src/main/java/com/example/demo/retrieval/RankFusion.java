@@ -0,0 +1,72 @@
+package com.example.demo.retrieval;
+
+import com.example.demo.vector.VectorHit;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 倒数排名融合（Reciprocal Rank Fusion）：score = Σ 1 / (k + rank)，rank 从 1 开始
+ * 只看名次不看原始分数，L2 距离和 ts_rank 不在同一量纲也能直接合并；k 越大，名次靠后的结果权重下降得越慢
+ */
+public final class RankFusion {
+
+    private RankFusion() {
+    }
+
+    /**
+     * 合并向量检索和关键词检索的结果，按融合得分降序取前 limit 个
+     * 只被关键词检索命中的分片没有向量距离，distance 为 NaN
+     */
+    public static List<VectorHit> fuse(List<VectorHit> vectorHits, List<LexicalHit> lexicalHits, int k, int limit) {
+        Map<Long, Candidate> candidates = new LinkedHashMap<>();
+        for (int i = 0; i < vectorHits.size(); i++) {
+            VectorHit hit = vectorHits.get(i);
+            Candidate candidate = candidates.computeIfAbsent(hit.chunkId(), id -> new Candidate(hit.chunkId(), hit.docId()));
+            candidate.distance = hit.distance();
+            candidate.score += 1.0 / (k + i + 1);
+        }
+        for (int i = 0; i < lexicalHits.size(); i++) {
+            LexicalHit hit = lexicalHits.get(i);
+            Candidate candidate = candidates.computeIfAbsent(hit.chunkId(), id -> new Candidate(hit.chunkId(), hit.docId()));
+            candidate.score += 1.0 / (k + i + 1);
+        }
+        List<Candidate> ranked = new ArrayList<>(candidates.values());
+        // 得分相同时保持插入顺序（向量结果在前）
+        ranked.sort(Comparator.comparingDouble((Candidate candidate) -> candidate.score).reversed());
+        List<VectorHit> fused = new ArrayList<>(Math.min(limit, ranked.size()));
+        for (int i = 0; i < ranked.size() && i < limit; i++) {
+            Candidate candidate = ranked.get(i);
+            fused.add(new VectorHit(candidate.chunkId, candidate.docId, candidate.distance));
+        }
+        return fused;
+    }
+
+    /**
+     * 关键词检索结果转成 VectorHit（distance 为 NaN），只做关键词检索时使用
+     */
+    public static List<VectorHit> lexicalOnly(List<LexicalHit> lexicalHits, int limit) {
+        List<VectorHit> hits = new ArrayList<>(Math.min(limit, lexicalHits.size()));
+        for (int i = 0; i < lexicalHits.size() && i < limit; i++) {
+            LexicalHit hit = lexicalHits.get(i);
+            hits.add(new VectorHit(hit.chunkId(), hit.docId(), Float.NaN));
+        }
+        return hits;
+    }
+
+    private static final class Candidate {
+
+        private final long chunkId;
+        private final long docId;
+        private float distance = Float.NaN;
+        private double score;
+
+        Candidate(long chunkId, long docId) {
+            this.chunkId = chunkId;
+            this.docId = docId;
+        }
+    }
+}
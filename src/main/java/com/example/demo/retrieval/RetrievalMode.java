@@ -0,0 +1,25 @@
+package com.example.demo.retrieval;
+
+/**
+ * 检索方式
+ * VECTOR：只做向量检索；LEXICAL：只做关键词检索；HYBRID：两路并行检索，再用倒数排名融合（RRF）合并
+ */
+public enum RetrievalMode {
+    VECTOR,
+    LEXICAL,
+    HYBRID;
+
+    /**
+     * 按名称解析（忽略大小写），为空时返回默认值
+     */
+    public static RetrievalMode parse(String value, RetrievalMode defaultMode) {
+        if (value == null || value.isBlank()) {
+            return defaultMode;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的检索方式：" + value + "，可选 vector / lexical / hybrid");
+        }
+    }
+}
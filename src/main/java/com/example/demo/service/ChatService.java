@@ -3,35 +3,40 @@ package com.example.demo.service;
 import com.example.demo.domain.Conversation;
 import com.example.demo.domain.Message;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 
+/**
+ * 会话 / 消息服务：全部返回 Mono / Flux（读写库走 R2DBC，调用模型在 remote 线程池上），不阻塞事件循环
+ * 会话不存在时以 IllegalArgumentException 结束
+ */
 public interface ChatService {
 
     //展示所有会话
-    List<Conversation> listConversations();
+    Flux<Conversation> listConversations();
 
     //创建会话
-    Conversation creatConversation(String title);
+    Mono<Conversation> creatConversation(String title);
 
     //获取会话
-    Conversation getConversation(Long conversationId);
+    Mono<Conversation> getConversation(Long conversationId);
 
     //根据会话id展示信息
-    List<Message> listMessages(Long conversationId);
+    Mono<List<Message>> listMessages(Long conversationId);
 
     //添加信息
-    Message addMessage(Long conversationId, String role, String content);
+    Mono<Message> addMessage(Long conversationId, String role, String content);
 
     //流式ai回复
     Flux<String> streamAiResponse(Long conversationId, String userMessage);
 
-    //获取指定会话最新的用户消息
-    Message getLatestUserMessage(Long conversationId, String content);
+    //获取指定会话最新的用户消息（没有时为空）
+    Mono<Message> getLatestUserMessage(Long conversationId, String content);
 
-    //获取指定会话最新的AI助手消息
-    Message getLatestAssistantMessage(Long conversationId, String content);
+    //获取指定会话最新的AI助手消息（没有时为空）
+    Mono<Message> getLatestAssistantMessage(Long conversationId, String content);
 
     //只保存用户消息，不触发AI
-    Message addUserMessageOnly(Long conversationId, String content);
+    Mono<Message> addUserMessageOnly(Long conversationId, String content);
 }
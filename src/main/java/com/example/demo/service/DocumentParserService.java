@@ -1,8 +1,9 @@
 package com.example.demo.service;
 
-import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.web.multipart.MultipartFile;
-import reactor.core.publisher.Mono;
+
+import java.io.Writer;
+import java.nio.file.Path;
 
 public interface DocumentParserService {
 
@@ -12,9 +13,9 @@ public interface DocumentParserService {
     String parseDocument(MultipartFile file);
 
     /**
-     * 解析文档（响应式方式）
+     * 流式解析已保存到本地的文件，提取出的文本边解析边写入 target（不在内存中拼接整份文本）
      */
-    Mono<String> parseDocumentReactive(FilePart filePart);
+    void parseFile(Path path, Writer target);
 
     /**
      *  检查文本类型是否支持
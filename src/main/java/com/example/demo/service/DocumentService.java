@@ -1,6 +1,7 @@
 package com.example.demo.service;
 
 import com.example.demo.domain.Document;
+import com.example.demo.domain.IngestionJob;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.web.multipart.MultipartFile;
 import reactor.core.publisher.Mono;
@@ -8,12 +9,22 @@ import reactor.core.publisher.Mono;
 public interface DocumentService {
 
     /**
-     * 上传文档（响应式）
+     * 上传文档（响应式）：保存文件和元信息后立即返回，切分 / embedding / 存储由后台入库任务完成
      * @param file 文件
      * @param description 文档描述（可选）
-     * @return 保存后的 Document 对象
+     * @return 入库任务（包含 docId，可用任务 ID 查询进度）
      */
-    Mono<Document> uploadDocument(FilePart filePart, String description);
+    Mono<IngestionJob> uploadDocument(FilePart filePart, String description);
+
+    /**
+     * 用新文件替换已有文档的内容（响应式）：保存文件后创建增量入库任务
+     * 后台按分片内容哈希对比，只对新增的分片向量化并写入、只删除已不存在的分片；任务失败时保留原有内容
+     * @param docId 文档ID
+     * @param filePart 新文件
+     * @param description 文档描述（可选，不传则保留原描述）
+     * @return 入库任务
+     */
+    Mono<IngestionJob> replaceDocument(Long docId, FilePart filePart, String description);
 
     /**
      * 获取所有文档列表
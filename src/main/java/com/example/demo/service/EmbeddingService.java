@@ -1,6 +1,7 @@
 package com.example.demo.service;
 
 import java.util.List;
+import java.util.Map;
 
 public interface EmbeddingService {
 
@@ -15,7 +16,7 @@ public interface EmbeddingService {
     List<float[]> embedTexts(List<String> texts);
 
     /**
-     * 将 float[] 转换为 PostgreSQL vector 格式的字符串
+     * embedding 缓存统计（命中 / 未命中 / 淘汰）
      */
-    String toVectorString(float[] embedding);
+    Map<String, Object> getCacheStats();
 }
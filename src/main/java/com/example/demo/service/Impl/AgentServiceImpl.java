@@ -1,36 +1,53 @@
 package com.example.demo.service.Impl;
 
-import com.example.demo.domain.Conversation;
+import com.example.demo.cache.ConversationHistoryCache;
+import com.example.demo.cache.HistoryMessage;
+import com.example.demo.config.BlockingSchedulers;
 import com.example.demo.domain.Message;
+import com.example.demo.prompt.ConversationSummarizer;
+import com.example.demo.prompt.Prompt;
+import com.example.demo.prompt.PromptBuilder;
 import com.example.demo.repository.ConversationRepository;
-import com.example.demo.repository.MessageRepository;
+import com.example.demo.repository.MessageWriteBehind;
 import com.example.demo.service.AgentService;
 import com.example.demo.service.AiService;
 import com.example.demo.service.Tool;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 @Service
 public class AgentServiceImpl implements AgentService {
 
     private final AiService aiService;
     private final List<Tool> tools;  // 注入所有工具
-    private final MessageRepository messageRepository;
+    private final MessageWriteBehind messageWriter;
     private final ConversationRepository conversationRepository;
+    private final BlockingSchedulers blockingSchedulers;
+    private final ConversationHistoryCache historyCache;
+    private final PromptBuilder promptBuilder;
+    private final ConversationSummarizer summarizer;
 
     public AgentServiceImpl(AiService aiService,
                             List<Tool> tools,
-                            MessageRepository messageRepository,
-                            ConversationRepository conversationRepository) {
+                            MessageWriteBehind messageWriter,
+                            ConversationRepository conversationRepository,
+                            BlockingSchedulers blockingSchedulers,
+                            ConversationHistoryCache historyCache,
+                            PromptBuilder promptBuilder,
+                            ConversationSummarizer summarizer) {
         this.conversationRepository =conversationRepository;
+        this.blockingSchedulers = blockingSchedulers;
+        this.historyCache = historyCache;
+        this.promptBuilder = promptBuilder;
+        this.summarizer = summarizer;
         this.aiService = aiService;
         this.tools = tools;
-        this.messageRepository = messageRepository;
+        this.messageWriter = messageWriter;
     }
 
 
@@ -60,58 +77,50 @@ public class AgentServiceImpl implements AgentService {
 
     @Override
     public Flux<String> streamProcessWithTools(Long conversationId, String userMessage) {
-        // 1. 获取历史消息
-        List<Message> historyMessages = messageRepository
-                .findByConversationIdOrderByCreatedAtAsc(conversationId);
-
-        String conversationHistory = historyMessages.stream().limit(10)
-                .map(msg -> msg.getRole() + ": " + msg.getContent())
-                .collect(Collectors.joining("\n"));
-
-        // 2. 判断是否需要调用工具
-        String toolPrompt = buildToolPrompt(userMessage);
-        String aiDecision = aiService.generateResponse(toolPrompt, null);
-        Tool tool = findToolToUse(aiDecision,userMessage);
-
-        if(tool != null){
-            // 3. 调用工具
-            String toolResult = tool.execute(extractToolInput(userMessage));
-
-            // 4. 构建包含工具结果的 Prompt
-            String finalPrompt = String.format(
-                    "用户问题：%s\n工具执行结果：%s\n请基于工具结果回答用户问题。",
-                    userMessage, toolResult
-            );
-            // 5. 流式生成回答
-            StringBuilder fullResponse = new StringBuilder();
-            return aiService.streamResponse(finalPrompt, conversationHistory)
-                    .doOnNext(fullResponse::append)
-                    .doOnComplete(() -> {
-                        // 流结束后保存完整的 AI 回答
-                        Conversation conversation = conversationRepository.findById(conversationId)
-                                .orElseThrow(() -> new IllegalArgumentException("会话不存在"));
-                        Message assistantMsg = new Message();
-                        assistantMsg.setConversation(conversation);
-                        assistantMsg.setRole("assistant");
-                        assistantMsg.setContent(fullResponse.toString());
-                        messageRepository.save(assistantMsg);
-                    });
-        } else {
-            // 不需要工具，直接流式回答
-            StringBuilder fullResponse = new StringBuilder();
-            return aiService.streamResponse(userMessage, conversationHistory)
-                    .doOnNext(fullResponse::append)
-                    .doOnComplete(() -> {
-                        // 流结束后保存完整的 AI 回答
-                        Conversation conversation = conversationRepository.findById(conversationId)
-                                .orElseThrow(() -> new IllegalArgumentException("会话不存在"));
-                        Message assistantMsg = new Message();
-                        assistantMsg.setConversation(conversation);
-                        assistantMsg.setRole("assistant");
-                        assistantMsg.setContent(fullResponse.toString());
-                        messageRepository.save(assistantMsg);
-                    });
-        }
+        // 1. 获取会话摘要和最近的历史消息（R2DBC，会话不存在时直接结束，不再调用模型）
+        Mono<HistoryContext> history = conversationRepository.findById(conversationId)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("会话不存在: " + conversationId)))
+                .zipWith(historyCache.recent(conversationId),
+                        (conversation, messages) -> new HistoryContext(conversation.getSummary(), messages));
+
+        // 2. 判断是否需要调用工具，需要时调用工具并构建包含工具结果的 Prompt（阻塞的模型 / 工具调用放到 remote 线程池）
+        Mono<String> prompt = Mono.fromCallable(() -> {
+                    String toolPrompt = buildToolPrompt(userMessage);
+                    String aiDecision = aiService.generateResponse(toolPrompt, null);
+                    Tool tool = findToolToUse(aiDecision,userMessage);
+                    if (tool == null) {
+                        // 不需要工具，直接流式回答
+                        return userMessage;
+                    }
+                    // 3. 调用工具
+                    String toolResult = tool.execute(extractToolInput(userMessage));
+
+                    // 4. 构建包含工具结果的 Prompt
+                    return String.format(
+                            "用户问题：%s\n工具执行结果：%s\n请基于工具结果回答用户问题。",
+                            userMessage, toolResult
+                    );
+                })
+                .subscribeOn(blockingSchedulers.remote());
+
+        // 5. 按 token 预算组装 prompt，流式生成回答，结束后保存完整的 AI 回答
+        return history.zipWhen(historyContext -> prompt)
+                .flatMapMany(tuple -> {
+                    Prompt budgeted = promptBuilder.chat(tuple.getT2(), tuple.getT1().summary(), tuple.getT1().messages());
+                    StringBuilder fullResponse = new StringBuilder();
+                    return aiService.streamResponse(budgeted.user(), budgeted.context())
+                            .doOnNext(fullResponse::append)
+                            .concatWith(Mono.defer(() -> {
+                                Message assistantMsg = new Message();
+                                assistantMsg.setConversationId(conversationId);
+                                assistantMsg.setRole("assistant");
+                                assistantMsg.setContent(fullResponse.toString());
+                                return messageWriter.save(assistantMsg)
+                                        .map(historyCache::append)
+                                        .doOnNext(saved -> summarizer.submit(conversationId))
+                                        .then(Mono.<String>empty());
+                            }));
+                });
     }
 
     //检查是否有工具调用
@@ -148,4 +157,8 @@ public class AgentServiceImpl implements AgentService {
         }
         return userMessage;
     }
+
+    // 构建上下文用的会话摘要（可以为 null）和最近的对话历史
+    private record HistoryContext(String summary, List<HistoryMessage> messages) {
+    }
 }
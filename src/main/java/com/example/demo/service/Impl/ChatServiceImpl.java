@@ -1,21 +1,28 @@
 package com.example.demo.service.Impl;
 
+import com.example.demo.cache.ConversationHistoryCache;
+import com.example.demo.config.BlockingSchedulers;
 import com.example.demo.domain.Conversation;
 import com.example.demo.domain.Message;
+import com.example.demo.prompt.ConversationSummarizer;
+import com.example.demo.prompt.Prompt;
+import com.example.demo.prompt.PromptBuilder;
 import com.example.demo.repository.ConversationRepository;
 import com.example.demo.repository.MessageRepository;
+import com.example.demo.repository.MessageWriteBehind;
 import com.example.demo.service.AiService;
 import com.example.demo.service.ChatService;
 
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.util.StringUtils;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 @Service
 public class ChatServiceImpl implements ChatService {
@@ -23,154 +30,189 @@ public class ChatServiceImpl implements ChatService {
     private final AiService aiService;
     private final ConversationRepository conversationRepository;
     private final MessageRepository messageRepository;
+    private final MessageWriteBehind messageWriter;
+    private final BlockingSchedulers blockingSchedulers;
+    private final ConversationHistoryCache historyCache;
+    private final PromptBuilder promptBuilder;
+    private final ConversationSummarizer summarizer;
 
     public ChatServiceImpl(ConversationRepository conversationRepository,
                            MessageRepository messageRepository,
-                           AiService aiService) {
+                           MessageWriteBehind messageWriter,
+                           AiService aiService,
+                           BlockingSchedulers blockingSchedulers,
+                           ConversationHistoryCache historyCache,
+                           PromptBuilder promptBuilder,
+                           ConversationSummarizer summarizer) {
         this.conversationRepository = conversationRepository;
         this.messageRepository = messageRepository;
+        this.messageWriter = messageWriter;
         this.aiService = aiService;
+        this.blockingSchedulers = blockingSchedulers;
+        this.historyCache = historyCache;
+        this.promptBuilder = promptBuilder;
+        this.summarizer = summarizer;
     }
 
     @Override
-    public List<Conversation> listConversations() {
+    public Flux<Conversation> listConversations() {
         return conversationRepository.findAll();
     }
 
     @Override
-    @Transactional
-    public Conversation creatConversation(String title) {
+    public Mono<Conversation> creatConversation(String title) {
         Conversation conversation = new Conversation();
         conversation.setTitle(title != null && !title.isEmpty() ? title : "新会话");
-        return conversationRepository.save(conversation);
+        return conversationRepository.insert(conversation);
     }
 
     @Override
-    public Conversation getConversation(Long conversationId) {
-        return conversationRepository.findById(conversationId).orElseThrow(() -> new IllegalArgumentException("会话不存在" + conversationId));
+    public Mono<Conversation> getConversation(Long conversationId) {
+        return conversationRepository.findById(conversationId)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("会话不存在" + conversationId)));
     }
 
     @Override
-    public List<Message> listMessages(Long conversationId) {
-        return messageRepository.findByConversationIdOrderByCreatedAtAsc(conversationId);
+    public Mono<List<Message>> listMessages(Long conversationId) {
+        return withUnflushed(conversationId, null,
+                messageRepository.findByConversationIdOrderByCreatedAtAsc(conversationId));
     }
 
     //非流式问答
     @Override
-    public Message addMessage(Long conversationId, String role, String content) {
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(()->new IllegalArgumentException("会话不存在" + conversationId));
-
-        //保存用户信息
-        Message message = new Message();
-        message.setConversation(conversation);
-        message.setContent(content);
-        message.setRole(role);
-        messageRepository.save(message);
-
-        //如果是用户信息，调用ai回答
-        if(role.equals("user")){
-            //获取历史消息（用于上下文）
-            List<Message> historyMessages = messageRepository
-                    .findByConversationIdOrderByCreatedAtAsc(conversationId);
-
-            // 构建历史消息文本 -- 只取最近10条，避免token消耗过多
-            String historyText = historyMessages.stream().limit(10)
-                    .map(msg -> msg.getRole() + ": " + msg.getContent())
-                    .collect(Collectors.joining("\n"));
-
-            String aiResponse = aiService.generateResponse(content, historyText);
-
-            //保存AI的回答
-            Message assistantMessage = new Message();
-            assistantMessage.setConversation(conversation);
-            assistantMessage.setRole("assistant");
-            assistantMessage.setContent(aiResponse);
-            messageRepository.save(assistantMessage);
-
-            return assistantMessage;
-        }
-        return message;
+    public Mono<Message> addMessage(Long conversationId, String role, String content) {
+        return getConversation(conversationId).flatMap(conversation -> {
+            //保存用户信息
+            Message message = new Message();
+            message.setConversationId(conversationId);
+            message.setContent(content);
+            message.setRole(role);
+            Mono<Message> saved = messageWriter.save(message).map(historyCache::append);
+
+            //如果是用户信息，调用ai回答
+            if (!role.equals("user")) {
+                return saved;
+            }
+            // 构建历史消息文本 -- 更早的消息用会话摘要代替，只取最近的几条（app.chat.history.window），再按 token 预算截断，避免token消耗过多
+            return saved.then(historyCache.recent(conversationId))
+                    .map(history -> promptBuilder.chat(content, conversation.getSummary(), history))
+                    // 阻塞式的模型调用放到 remote 线程池
+                    .publishOn(blockingSchedulers.remote())
+                    .map(prompt -> aiService.generateResponse(prompt.user(), prompt.context()))
+                    .flatMap(aiResponse -> {
+                        //保存AI的回答
+                        Message assistantMessage = new Message();
+                        assistantMessage.setConversationId(conversationId);
+                        assistantMessage.setRole("assistant");
+                        assistantMessage.setContent(aiResponse);
+                        return messageWriter.save(assistantMessage).map(historyCache::append);
+                    })
+                    // 后台更新会话摘要（不影响本次返回）
+                    .doOnNext(assistantMessage -> summarizer.submit(conversationId));
+        });
     }
 
     @Override
     public Flux<String> streamAiResponse(Long conversationId, String userMessage) {
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(()->new IllegalArgumentException("会话不存在" + conversationId));
-
-        Message message = new Message();
-        message.setConversation(conversation);
-        message.setContent(userMessage);
-        message.setRole("user");
-        messageRepository.save(message);
-
-        //获取历史消息
-        List<Message> historyMessages = messageRepository.findByConversationIdOrderByCreatedAtAsc(conversationId);
-
-        String historyText = historyMessages.stream().limit(10)
-                .map(msg -> msg.getRole() + ": " + msg.getContent())
-                .collect(Collectors.joining("\n"));
-
-        // 调用流式 AI
-        StringBuilder fullResponse = new StringBuilder();
-
-        //优点：非阻塞、异步、适配 WebFlux 前端流式返回
-        return aiService.streamResponse(userMessage,historyText)
-                //用于在流的每个元素处理时执行额外逻辑 -  每收到 AI 返回的一段内容chunk，就拼接到 fullResponse 中
-                .doOnNext(chunk -> fullResponse.append(chunk))
-                .doOnComplete(() -> {
-            // 流结束后保存完整的 AI 回答
-            Message assistantMsg = new Message();
-            assistantMsg.setConversation(conversation);
-            assistantMsg.setRole("assistant");
-            assistantMsg.setContent(fullResponse.toString());
-            messageRepository.save(assistantMsg);
-        });
+        // 1. 保存用户消息、读取历史（R2DBC + 写后持久化，不占用事件循环）
+        return getConversation(conversationId)
+                .flatMap(conversation -> {
+                    Message message = new Message();
+                    message.setConversationId(conversationId);
+                    message.setContent(userMessage);
+                    message.setRole("user");
+
+                    //获取会话摘要和最近的历史消息（活跃会话直接取内存窗口），按 token 预算组装 prompt
+                    return messageWriter.save(message)
+                            .map(historyCache::append)
+                            .then(historyCache.recent(conversationId))
+                            .map(history -> promptBuilder.chat(userMessage, conversation.getSummary(), history));
+                })
+                .flatMapMany(prompt -> {
+                    // 调用流式 AI
+                    StringBuilder fullResponse = new StringBuilder();
+
+                    //优点：非阻塞、异步、适配 WebFlux 前端流式返回
+                    return aiService.streamResponse(prompt.user(), prompt.context())
+                            //用于在流的每个元素处理时执行额外逻辑 -  每收到 AI 返回的一段内容chunk，就拼接到 fullResponse 中
+                            .doOnNext(chunk -> fullResponse.append(chunk))
+                            // 流结束后保存完整的 AI 回答（保存完再结束流）
+                            .concatWith(Mono.defer(() -> {
+                                Message assistantMsg = new Message();
+                                assistantMsg.setConversationId(conversationId);
+                                assistantMsg.setRole("assistant");
+                                assistantMsg.setContent(fullResponse.toString());
+                                return messageWriter.save(assistantMsg)
+                                        .map(historyCache::append)
+                                        .doOnNext(saved -> summarizer.submit(conversationId))
+                                        .then(Mono.<String>empty());
+                            }));
+                });
     }
 
     // 获取最新的一条用户数据
     @Override
-    public Message getLatestUserMessage(Long conversationId, String content) {
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(()->new IllegalArgumentException("会话不存在" + conversationId));
-
-        List<Message> userMessages  = messageRepository.findByConversationIdAndRoleOrderByCreatedAtAsc(conversationId, "user");
-        // 过滤出内容匹配、按创建时间倒序排序，取第一条
-        Optional<Message> latestMessage = userMessages.stream()
-                .filter(msg -> StringUtils.hasText(msg.getContent())
-                        && msg.getContent().equals(content))
-                .max(Comparator.comparing(Message::getCreatedAt)); // 按创建时间最新排序
-
-        return latestMessage.orElse(null);
-
+    public Mono<Message> getLatestUserMessage(Long conversationId, String content) {
+        return getConversation(conversationId)
+                .then(withUnflushed(conversationId, "user",
+                        messageRepository.findByConversationIdAndRoleOrderByCreatedAtAsc(conversationId, "user")))
+                .mapNotNull(userMessages -> latestMatching(userMessages, content));
     }
 
 
     @Override
-    public Message getLatestAssistantMessage(Long conversationId, String content) {
+    public Mono<Message> getLatestAssistantMessage(Long conversationId, String content) {
         // 查询该会话下所有AI助手消息
-        List<Message> assistantMessages = messageRepository.findByConversationIdAndRoleOrderByCreatedAtAsc(
-                conversationId, "assistant");
+        return withUnflushed(conversationId, "assistant",
+                messageRepository.findByConversationIdAndRoleOrderByCreatedAtAsc(conversationId, "assistant"))
+                .mapNotNull(assistantMessages -> latestMatching(assistantMessages, content));
+    }
 
-        // 过滤出内容匹配、按创建时间倒序排序，取第一条
-        Optional<Message> latestMessage = assistantMessages.stream()
+    @Override
+    public Mono<Message> addUserMessageOnly(Long conversationId, String content) {
+        return getConversation(conversationId).flatMap(conversation -> {
+            Message message = new Message();
+            message.setConversationId(conversationId);
+            message.setRole("user");
+            message.setContent(content);
+
+            return messageWriter.save(message).map(historyCache::append);
+        });
+    }
+
+    // 过滤出内容匹配、按创建时间倒序排序，取第一条；没有时返回 null
+    private static Message latestMatching(List<Message> messages, String content) {
+        return messages.stream()
                 .filter(msg -> StringUtils.hasText(msg.getContent())
                         && msg.getContent().equals(content))
-                .max(Comparator.comparing(Message::getCreatedAt));
-
-        return latestMessage.orElse(null);
+                .max(Comparator.comparing(Message::getCreatedAt)) // 按创建时间最新排序
+                .orElse(null);
     }
 
-    @Override
-    public Message addUserMessageOnly(Long conversationId, String content) {
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(() -> new IllegalArgumentException("会话不存在" + conversationId));
-
-        Message message = new Message();
-        message.setConversation(conversation);
-        message.setRole("user");
-        message.setContent(content);
+    // 库里查到的消息加上还没写库的（写后持久化，见 MessageWriteBehind），按 ID 去重，按创建时间正序；role 为 null 时不过滤
+    // 先取还没写库的消息再查库：中间刚写完库的消息至少出现在其中一边
+    private Mono<List<Message>> withUnflushed(Long conversationId, String role, Flux<Message> stored) {
+        return Mono.defer(() -> {
+            List<Message> pending = messageWriter.unflushed(conversationId);
+            return stored.collectList().map(messages -> merge(messages, pending, role));
+        });
+    }
 
-        return messageRepository.save(message);
+    private static List<Message> merge(List<Message> stored, List<Message> pending, String role) {
+        if (pending.isEmpty()) {
+            return stored;
+        }
+        Map<Long, Message> merged = new LinkedHashMap<>();
+        for (Message message : stored) {
+            merged.put(message.getId(), message);
+        }
+        for (Message message : pending) {
+            if (role == null || role.equals(message.getRole())) {
+                merged.putIfAbsent(message.getId(), message);
+            }
+        }
+        List<Message> result = new ArrayList<>(merged.values());
+        result.sort(Comparator.comparing(Message::getCreatedAt).thenComparing(Message::getId));
+        return result;
     }
 }
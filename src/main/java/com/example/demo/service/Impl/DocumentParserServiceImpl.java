@@ -3,17 +3,23 @@ package com.example.demo.service.Impl;
 import com.example.demo.service.DocumentParserService;
 import org.apache.tika.Tika;
 import org.apache.tika.exception.TikaException;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.metadata.TikaCoreProperties;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.core.io.buffer.DataBufferUtils;
-import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
-import reactor.core.publisher.Mono;
+import org.xml.sax.SAXException;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.nio.file.Path;
 import java.util.Set;
 
 @Service
@@ -27,6 +33,8 @@ public class DocumentParserServiceImpl implements DocumentParserService {
 
     private final Tika tika = new Tika();
 
+    // 流式解析用的解析器：自动识别文件类型，线程安全
+    private final Parser parser = new AutoDetectParser();
 
     @Override
     public String parseDocument(MultipartFile file) {
@@ -46,34 +54,16 @@ public class DocumentParserServiceImpl implements DocumentParserService {
     }
 
     @Override
-    public Mono<String> parseDocumentReactive(FilePart filePart) {
-        if (filePart == null) {
-            return Mono.error(new IllegalArgumentException("文件不能为空"));
-        }
-
-        String filename = filePart.filename();
-        if (filename.isEmpty()) {
-            return Mono.error(new IllegalArgumentException("文件名不能为空"));
+    public void parseFile(Path path, Writer target) {
+        try (TikaInputStream inputStream = TikaInputStream.get(path)) {
+            // BodyContentHandler(Writer) 不限制长度，文本边解析边写出
+            parser.parse(inputStream, new BodyContentHandler(target), metadataOf(path), parseContext());
+            target.flush();
+            log.info("成功解析文档：{}", path.getFileName());
+        } catch (IOException | SAXException | TikaException e) {
+            log.error("解析文档失败：{}", path, e);
+            throw new RuntimeException("文档解析失败：" + e.getMessage(), e);
         }
-
-        // 使用 DataBufferUtils 读取文件内容为字节数组
-        return DataBufferUtils.join(filePart.content())
-                .map(dataBuffer -> {
-                    byte[] bytes = new byte[dataBuffer.readableByteCount()];
-                    dataBuffer.read(bytes);
-                    DataBufferUtils.release(dataBuffer);
-                    return bytes;
-                })
-                .map(bytes -> {
-                    try (InputStream inputStream = new ByteArrayInputStream(bytes)) {
-                        String text = tika.parseToString(inputStream);
-                        log.info("成功解析文档：{},提取文本长度：{}", filename, text.length());
-                        return text;
-                    } catch (IOException | TikaException e) {
-                        log.error("解析文档失败：{}", filename, e);
-                        throw new RuntimeException("文档解析失败：" + e.getMessage(), e);
-                    }
-                });
     }
 
     @Override
@@ -95,4 +85,16 @@ public class DocumentParserServiceImpl implements DocumentParserService {
         int lastDot = filename.lastIndexOf('.');
         return lastDot > 0 ? filename.substring(lastDot + 1) : "";
     }
+
+    private Metadata metadataOf(Path path) {
+        Metadata metadata = new Metadata();
+        metadata.set(TikaCoreProperties.RESOURCE_NAME_KEY, path.getFileName().toString());
+        return metadata;
+    }
+
+    private ParseContext parseContext() {
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, parser);  // 解析嵌入文档（如 docx 里的附件）
+        return context;
+    }
 }
@@ -1,11 +1,13 @@
 package com.example.demo.service.Impl;
 
+import com.example.demo.config.BlockingSchedulers;
 import com.example.demo.domain.Document;
+import com.example.demo.domain.IngestionJob;
 import com.example.demo.repository.DocumentMetaRepository;
-import com.example.demo.repository.DocumentRepository;
+import com.example.demo.repository.DocumentChunkJdbcRepository;
 import com.example.demo.service.DocumentParserService;
 import com.example.demo.service.DocumentService;
-import com.example.demo.service.RagService;
+import com.example.demo.service.IngestionJobService;
 
 import jakarta.annotation.PostConstruct;
 import lombok.extern.slf4j.Slf4j;
@@ -26,24 +28,27 @@ import java.util.List;
 @Slf4j
 public class DocumentServiceImpl implements DocumentService {
 
-    // 用于删除 chunks
-    private final DocumentRepository documentRepository;
+    // 用于删除 chunks（同时通知进程内向量索引）
+    private final DocumentChunkJdbcRepository documentChunkJdbcRepository;
     private final DocumentMetaRepository documentMetaRepository;
     private final DocumentParserService documentParserService;
-    private final RagService ragService;
+    private final IngestionJobService ingestionJobService;
+    private final BlockingSchedulers blockingSchedulers;
 
     @Value("${app.upload.dir:uploads}")  // 可以从 application.yml 配置
     private String uploadDir;
 
     public DocumentServiceImpl(
             DocumentMetaRepository documentMetaRepository,
-            DocumentRepository documentRepository,
+            DocumentChunkJdbcRepository documentChunkJdbcRepository,
             DocumentParserService documentParserService,
-            RagService ragService) {
+            IngestionJobService ingestionJobService,
+            BlockingSchedulers blockingSchedulers) {
         this.documentMetaRepository = documentMetaRepository;
-        this.documentRepository = documentRepository;
+        this.documentChunkJdbcRepository = documentChunkJdbcRepository;
         this.documentParserService = documentParserService;
-        this.ragService = ragService;
+        this.ingestionJobService = ingestionJobService;
+        this.blockingSchedulers = blockingSchedulers;
     }
 
     @PostConstruct
@@ -60,8 +65,7 @@ public class DocumentServiceImpl implements DocumentService {
 
 
     @Override
-    @Transactional
-    public Mono<Document> uploadDocument(FilePart filePart, String description) {
+    public Mono<IngestionJob> uploadDocument(FilePart filePart, String description) {
         String filename = filePart.filename();
         if (filename.isEmpty()) {
             return Mono.error(new IllegalArgumentException("文件名不能为空"));
@@ -76,12 +80,11 @@ public class DocumentServiceImpl implements DocumentService {
         String savedFilename = System.currentTimeMillis() + "_" + filename;
         Path filePath = Paths.get(uploadDir, savedFilename);
 
-        // 1. 先保存文件，然后解析内容
+        // 1. 先保存文件，再保存元信息并创建入库任务；解析、切分、embedding 都在后台完成，请求不再等待
         return DataBufferUtils.write(filePart.content(), filePath,   StandardOpenOption.CREATE,
                         StandardOpenOption.WRITE,
                         StandardOpenOption.TRUNCATE_EXISTING)
-                .then(documentParserService.parseDocumentReactive(filePart))
-                .flatMap(content -> {
+                .then(Mono.fromCallable(() -> {
                     // 2. 保存文档元信息
                     Document document = new Document();
                     document.setFilename(filename);
@@ -98,25 +101,55 @@ public class DocumentServiceImpl implements DocumentService {
                     Document savedDocument = documentMetaRepository.save(document);
                     log.info("文档元信息已保存: ID={}, filename={}", savedDocument.getId(), filename);
 
-                    // 3. 文档入库（切分 + embedding + 存储）
+                    // 3. 创建入库任务（切分 + embedding + 存储）
+                    return ingestionJobService.submit(savedDocument.getId(), filename, filePath, IngestionJob.Mode.CREATE);
+                }).subscribeOn(blockingSchedulers.jdbc()))
+                .doOnError(error -> {
+                    // 出错时删除文件
                     try {
-                        ragService.ingestDocument(content, savedDocument.getId());
-                        log.info("文档已入库: ID={}, filename={}", savedDocument.getId(), filename);
+                        Files.deleteIfExists(filePath);
                     } catch (Exception e) {
-                        log.error("文档入库失败: ID={}, filename={}", savedDocument.getId(), filename, e);
-                        documentMetaRepository.delete(savedDocument);
-                        try {
-                            Files.deleteIfExists(filePath);
-                        } catch (Exception ex) {
-                            log.warn("删除文件失败", ex);
-                        }
-                        return Mono.<Document>error(new RuntimeException("文档入库失败: " + e.getMessage(), e));
+                        log.warn("删除文件失败", e);
                     }
+                });
+    }
 
-                    return Mono.just(savedDocument);
+    @Override
+    public Mono<IngestionJob> replaceDocument(Long docId, FilePart filePart, String description) {
+        String filename = filePart.filename();
+        if (filename.isEmpty()) {
+            return Mono.error(new IllegalArgumentException("文件名不能为空"));
+        }
+        if (!documentParserService.isSupportedFileType(filename)) {
+            return Mono.error(new IllegalArgumentException("不支持的文件类型，支持：PDF、Word、Excel、PPT、TXT、Markdown"));
+        }
+
+        String savedFilename = System.currentTimeMillis() + "_" + filename;
+        Path filePath = Paths.get(uploadDir, savedFilename);
+
+        // 1. 先检查文档存在且没有进行中的入库任务（同一文档的两个任务并发对比分片会互相覆盖）
+        return Mono.fromRunnable(() -> {
+                    getDocumentById(docId);
+                    if (ingestionJobService.hasActiveJob(docId)) {
+                        throw new IllegalArgumentException("文档正在入库中，请稍后再试: " + docId);
+                    }
                 })
+                .subscribeOn(blockingSchedulers.jdbc())
+                // 2. 保存新文件
+                .then(DataBufferUtils.write(filePart.content(), filePath, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING))
+                .then(Mono.fromCallable(() -> {
+                    // 3. 描述立即更新；文件名 / 类型 / 大小在入库成功后再更新，失败时文档保持原样
+                    if (description != null) {
+                        Document document = getDocumentById(docId);
+                        document.setDescription(description);
+                        documentMetaRepository.save(document);
+                    }
+                    log.info("文档替换已提交: ID={}, filename={}", docId, filename);
+                    return ingestionJobService.submit(docId, filename, filePath, IngestionJob.Mode.REPLACE);
+                }).subscribeOn(blockingSchedulers.jdbc()))
                 .doOnError(error -> {
-                    // 出错时删除文件
                     try {
                         Files.deleteIfExists(filePath);
                     } catch (Exception e) {
@@ -136,14 +169,20 @@ public class DocumentServiceImpl implements DocumentService {
     }
 
     @Override
+    @Transactional
     public void deleteDocument(Long docId) {
-        // 1. 删除文档元信息
         Document document = documentMetaRepository.findById(docId)
                 .orElseThrow(() -> new IllegalArgumentException("文档不存在: " + docId));
-        // 删除相关的 chunks
-        documentRepository.deleteByDocId(docId);
-
+        // 有未结束的入库任务时不能删除，否则任务的存储阶段会把分片写到已删除的文档下
+        if (ingestionJobService.hasActiveJob(docId)) {
+            throw new IllegalArgumentException("文档正在入库中，请稍后再试: " + docId);
+        }
+        // 1. 先删除文档元信息（会等待正在写分片的存储事务提交，见 DocumentMetaRepository.lockIfExists）
         documentMetaRepository.delete(document);
+        documentMetaRepository.flush();
+        // 2. 再删除相关的 chunks（包括刚提交的）
+        documentChunkJdbcRepository.deleteByDocId(docId);
+
         log.info("文档已删除: ID={}, filename={}", docId, document.getFilename());
     }
 }
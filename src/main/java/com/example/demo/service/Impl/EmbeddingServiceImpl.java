@@ -1,29 +1,57 @@
 package com.example.demo.service.Impl;
 
+import com.example.demo.cache.EmbeddingCache;
+import com.example.demo.embedding.EmbeddingDispatcher;
+import com.example.demo.embedding.EmbeddingMicroBatcher;
 import com.example.demo.service.EmbeddingService;
 import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import java.util.List;
+import java.util.*;
 
 @Service
 public class EmbeddingServiceImpl implements EmbeddingService {
 
     private final EmbeddingModel embeddingModel;
+    private final EmbeddingCache embeddingCache;
+    private final EmbeddingMicroBatcher embeddingMicroBatcher;
+    private final EmbeddingDispatcher embeddingDispatcher;
 
-    public EmbeddingServiceImpl(EmbeddingModel embeddingModel){
+    // 缓存 key 的一部分：换模型后旧向量不能复用
+    @Value("${spring.ai.openai.embedding.options.model:text-embedding-v2}")
+    private String modelName;
+
+    public EmbeddingServiceImpl(EmbeddingModel embeddingModel,
+                                EmbeddingCache embeddingCache,
+                                EmbeddingMicroBatcher embeddingMicroBatcher,
+                                EmbeddingDispatcher embeddingDispatcher){
         this.embeddingModel = embeddingModel;
+        this.embeddingCache = embeddingCache;
+        this.embeddingMicroBatcher = embeddingMicroBatcher;
+        this.embeddingDispatcher = embeddingDispatcher;
     }
 
     //对文本生成embedding向量
     @Override
     public float[] embedText(String text) {
         // trim() : 把字符串首位的所有空白字符（空格、Tab、换行、全角空格等）去掉，返回一个新的字符串。
-        if(text == null | text.trim().isEmpty()){
+        if(text == null || text.trim().isEmpty()){
             throw new IllegalArgumentException("文本不能为空");
         }
 
-        return embeddingModel.embed(text);
+        String key = embeddingCache.key(modelName, text);
+        float[] cached = embeddingCache.get(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        // 未命中：与同一时间窗口内其他请求的文本合并成一次批量调用
+        float[] embedding = embeddingMicroBatcher.isEnabled()
+                ? embeddingMicroBatcher.embed(text)
+                : embeddingModel.embed(text);
+        embeddingCache.put(key, modelName, embedding);
+        return embedding;
     }
 
     @Override
@@ -32,23 +60,41 @@ public class EmbeddingServiceImpl implements EmbeddingService {
             return List.of();
         }
 
-        return embeddingModel.embed(texts);
-    }
+        // 1、先查缓存
+        List<String> keys = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            keys.add(embeddingCache.key(modelName, text));
+        }
+        Map<String, float[]> found = embeddingCache.getAll(new LinkedHashSet<>(keys));
 
-    @Override
-    public String toVectorString(float[] embedding){
-        if(embedding == null || embedding.length == 0){
-            return "[]";
+        // 2、只把未命中的文本（去重后）发给模型：按 token 预算分批、有限并发、失败批次单独重试
+        Map<String, String> missTexts = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (!found.containsKey(keys.get(i))) {
+                missTexts.putIfAbsent(keys.get(i), texts.get(i));
+            }
         }
-        //转换为 PostgreSQL vector 格式
-        StringBuilder sb = new StringBuilder("[");
-        for (int i = 0; i < embedding.length; i++) {
-            if(i > 0){
-                sb.append(",");
+        if (!missTexts.isEmpty()) {
+            List<float[]> missEmbeddings = embeddingDispatcher.embed(new ArrayList<>(missTexts.values()));
+            Map<String, float[]> computed = new LinkedHashMap<>();
+            int i = 0;
+            for (String key : missTexts.keySet()) {
+                computed.put(key, missEmbeddings.get(i++));
             }
-            sb.append(embedding[i]);
+            embeddingCache.putAll(computed, modelName);
+            found.putAll(computed);
+        }
+
+        // 3、按原始顺序拼回结果
+        List<float[]> result = new ArrayList<>(texts.size());
+        for (String key : keys) {
+            result.add(found.get(key));
         }
-        sb.append("]");
-        return sb.toString();
+        return result;
+    }
+
+    @Override
+    public Map<String, Object> getCacheStats() {
+        return embeddingCache.stats();
     }
 }
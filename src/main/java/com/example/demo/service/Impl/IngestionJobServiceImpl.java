@@ -0,0 +1,76 @@
+package com.example.demo.service.Impl;
+
+import com.example.demo.config.BlockingSchedulers;
+import com.example.demo.domain.IngestionJob;
+import com.example.demo.repository.IngestionJobRepository;
+import com.example.demo.service.IngestionJobService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+@Service
+@Slf4j
+public class IngestionJobServiceImpl implements IngestionJobService {
+
+    private final IngestionJobRepository ingestionJobRepository;
+    private final BlockingSchedulers blockingSchedulers;
+
+    @Value("${app.ingest.progress-interval-ms:500}")
+    private long progressIntervalMs;
+
+    public IngestionJobServiceImpl(IngestionJobRepository ingestionJobRepository,
+                                   BlockingSchedulers blockingSchedulers) {
+        this.ingestionJobRepository = ingestionJobRepository;
+        this.blockingSchedulers = blockingSchedulers;
+    }
+
+    @Override
+    public IngestionJob submit(Long docId, String filename, Path filePath, IngestionJob.Mode mode) {
+        IngestionJob job = new IngestionJob();
+        job.setMode(mode);
+        job.setDocId(docId);
+        job.setFilename(filename);
+        job.setFilePath(filePath.toAbsolutePath().toString());
+        IngestionJob saved = ingestionJobRepository.save(job);
+        log.info("入库任务已创建: jobId={}, docId={}, mode={}, filename={}", saved.getId(), docId, mode, filename);
+        return saved;
+    }
+
+    @Override
+    public boolean hasActiveJob(Long docId) {
+        return ingestionJobRepository.existsByDocIdAndStatusIn(docId,
+                List.of(IngestionJob.Status.PENDING, IngestionJob.Status.RUNNING));
+    }
+
+    @Override
+    public IngestionJob getJob(Long jobId) {
+        return ingestionJobRepository.findById(jobId)
+                .orElseThrow(() -> new IllegalArgumentException("入库任务不存在：" + jobId));
+    }
+
+    @Override
+    public List<IngestionJob> listJobsByDocument(Long docId) {
+        return ingestionJobRepository.findByDocIdOrderByIdDesc(docId);
+    }
+
+    @Override
+    public Flux<IngestionJob> watchJob(Long jobId) {
+        // 定时轮询任务表（JPA 查询是阻塞的，放到 jdbc 线程池上执行）
+        // 查询变慢或客户端消费慢时丢掉期间的 tick，否则 interval 发不出去会以 OverflowException 结束进度流
+        return Flux.interval(Duration.ZERO, Duration.ofMillis(progressIntervalMs))
+                .onBackpressureDrop()
+                .concatMap(tick -> Mono.fromCallable(() -> getJob(jobId))
+                        .subscribeOn(blockingSchedulers.jdbc()))
+                .distinctUntilChanged(job -> Arrays.asList(job.getStage(), job.getStatus(), job.getTotalChunks(),
+                        job.getEmbeddedChunks(), job.getReusedChunks(), job.getStoredChunks(), job.getRemovedChunks(),
+                        job.getAttempts()))
+                .takeUntil(IngestionJob::isFinished);
+    }
+}
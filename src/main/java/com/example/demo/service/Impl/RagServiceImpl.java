@@ -1,204 +1,505 @@
 package com.example.demo.service.Impl;
 
+import com.example.demo.cache.ConversationHistoryCache;
+import com.example.demo.cache.HistoryMessage;
+import com.example.demo.cache.RetrievalCache;
+import com.example.demo.cache.SemanticAnswerCache;
+import com.example.demo.config.BlockingSchedulers;
 import com.example.demo.domain.Conversation;
-import com.example.demo.domain.DocumentChunk;
 import com.example.demo.domain.Message;
+import com.example.demo.prompt.ConversationSummarizer;
+import com.example.demo.prompt.Prompt;
+import com.example.demo.prompt.PromptBuilder;
+import com.example.demo.ingest.TextChunker;
 import com.example.demo.repository.ConversationRepository;
+import com.example.demo.repository.DocumentChunkJdbcRepository;
 import com.example.demo.repository.DocumentRepository;
-import com.example.demo.repository.MessageRepository;
+import com.example.demo.repository.MessageWriteBehind;
+import com.example.demo.retrieval.ChunkHit;
+import com.example.demo.retrieval.HitSelector;
+import com.example.demo.retrieval.LexicalHit;
+import com.example.demo.retrieval.LexicalIndex;
+import com.example.demo.retrieval.MmrReranker;
+import com.example.demo.retrieval.RankFusion;
+import com.example.demo.retrieval.RetrievalMode;
 import com.example.demo.service.AiService;
-import com.example.demo.service.ChatService;
 import com.example.demo.service.EmbeddingService;
+import com.example.demo.service.RagOptions;
 import com.example.demo.service.RagService;
+import com.example.demo.vector.VectorFilter;
+import com.example.demo.vector.VectorHit;
+import com.example.demo.vector.VectorStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
 
-import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 
 @Service
 public class RagServiceImpl implements RagService {
 
+    private static final Logger log = LoggerFactory.getLogger(RagServiceImpl.class);
+
     private final EmbeddingService embeddingService;
     private final AiService aiService;
     private final DocumentRepository documentRepository;
-    private final ChatService chatService;
+    private final DocumentChunkJdbcRepository documentChunkJdbcRepository;
     private final ConversationRepository conversationRepository;
-    private final MessageRepository messageRepository;
+    private final MessageWriteBehind messageWriter;
+    private final TextChunker textChunker;
+    private final BlockingSchedulers blockingSchedulers;
+    private final VectorStore vectorStore;
+    private final RetrievalCache retrievalCache;
+    private final SemanticAnswerCache semanticAnswerCache;
+    private final LexicalIndex lexicalIndex;
+    private final MmrReranker mmrReranker;
+    private final ConversationHistoryCache historyCache;
+    private final PromptBuilder promptBuilder;
+    private final ConversationSummarizer summarizer;
+
+    // 流式入库时每批 embedding 的分片数
+    @Value("${app.rag.embed-batch-size:32}")
+    private int embedBatchSize;
+
+    // 流式入库时同时在途的 embedding 批次数
+    @Value("${app.rag.embed-concurrency:2}")
+    private int embedConcurrency;
+
+    // 语义缓存命中时，按多少个字符一段把缓存的回答回放成流
+    @Value("${app.rag.answer-cache.replay-chunk-chars:16}")
+    private int replayChunkChars;
+
+    // 请求没有指定检索方式时使用的默认方式：vector / lexical / hybrid
+    private final RetrievalMode defaultMode;
+
+    // 混合检索时每一路取的候选数（不少于 topK）
+    @Value("${app.rag.retrieval.hybrid-candidates:20}")
+    private int hybridCandidates;
+
+    // RRF 的平滑常数 k
+    @Value("${app.rag.retrieval.rrf-k:60}")
+    private int rrfK;
+
+    // 距离上限，超过的分片不进 prompt；0 表示不截断
+    @Value("${app.rag.retrieval.max-distance:0}")
+    private float maxDistance;
+
+    // 自适应 topK：只保留距离不超过 最近距离 * (1 + adaptive-margin) 的分片；0 表示固定取 topK
+    @Value("${app.rag.retrieval.adaptive-margin:0}")
+    private float adaptiveMargin;
+
+    // 自适应 topK 时至少保留的分片数
+    @Value("${app.rag.retrieval.min-k:1}")
+    private int minK;
+
+    // 批量检索一次最多的问题数
+    @Value("${app.rag.retrieval.batch.max-queries:64}")
+    private int maxBatchQueries;
+
+    // 请求没有指定 mmrLambda 时是否做 MMR 重排
+    @Value("${app.rag.retrieval.mmr.enabled:false}")
+    private boolean mmrEnabled;
+
+    // MMR 默认的相关性权重
+    @Value("${app.rag.retrieval.mmr.lambda:0.7}")
+    private float mmrLambda;
+
+    // MMR 默认多取的候选倍数
+    @Value("${app.rag.retrieval.mmr.fetch-factor:4}")
+    private int mmrFetchFactor;
 
     public RagServiceImpl(
             EmbeddingService embeddingService
             ,AiService aiService
             ,DocumentRepository documentRepository
-            ,ChatService chatService
+            ,DocumentChunkJdbcRepository documentChunkJdbcRepository
             ,ConversationRepository conversationRepository
-            ,MessageRepository messageRepository){
+            ,MessageWriteBehind messageWriter
+            ,TextChunker textChunker
+            ,BlockingSchedulers blockingSchedulers
+            ,VectorStore vectorStore
+            ,RetrievalCache retrievalCache
+            ,SemanticAnswerCache semanticAnswerCache
+            ,LexicalIndex lexicalIndex
+            ,MmrReranker mmrReranker
+            ,ConversationHistoryCache historyCache
+            ,PromptBuilder promptBuilder
+            ,ConversationSummarizer summarizer
+            ,@Value("${app.rag.retrieval.default-mode:vector}") String defaultMode){
         this.embeddingService = embeddingService;
         this.aiService = aiService;
         this.documentRepository = documentRepository;
-        this.chatService = chatService;
+        this.documentChunkJdbcRepository = documentChunkJdbcRepository;
         this.conversationRepository = conversationRepository;
-        this.messageRepository = messageRepository;
+        this.messageWriter = messageWriter;
+        this.textChunker = textChunker;
+        this.blockingSchedulers = blockingSchedulers;
+        this.vectorStore = vectorStore;
+        this.retrievalCache = retrievalCache;
+        this.semanticAnswerCache = semanticAnswerCache;
+        this.lexicalIndex = lexicalIndex;
+        this.mmrReranker = mmrReranker;
+        this.historyCache = historyCache;
+        this.promptBuilder = promptBuilder;
+        this.summarizer = summarizer;
+        this.defaultMode = RetrievalMode.parse(defaultMode, RetrievalMode.VECTOR);
     }
 
     //文档入库
     @Override
-    public void ingestDocument(String documentContent, Long docId) {
-        //1、文档切分 - 按500字切
-        List<String> chunks = splitText(documentContent,500);
-        //2、批量生成embedding
-        List<float[]> embeddings = embeddingService.embedTexts(chunks);
-        //3、存入数据库
-        for (int i = 0; i < chunks.size(); i++) {
-           /* DocumentChunk chunk = new DocumentChunk();
-            chunk.setDocId(docId);
-            chunk.setContent(chunks.get(i));
-            chunk.setEmbedding(embeddingService.toVectorString(embeddings.get(i)));
-            documentRepository.save(chunk);*/
-            String embeddingStr = embeddingService.toVectorString(embeddings.get(i));
-            documentRepository.insertWithVector(
-                    chunks.get(i),
-                    docId,
-                    embeddingStr,
-                    LocalDateTime.now()
-            );
-        }
+    public Mono<Integer> ingestDocument(String documentContent, Long docId) {
+        return ingestDocumentStream(Flux.just(documentContent), docId);
+    }
+
+    @Override
+    public Mono<Integer> ingestDocumentStream(Flux<String> textSegments, Long docId) {
+        //1、按句子 / 段落边界流式切分
+        return textChunker.chunk(textSegments)
+                //2、分批 embedding：最多 embedConcurrency 个批次在途，结果按原顺序输出；
+                //   prefetch = 1，下游没消费完就不再向切分器要分片，上游文本随之背压
+                .buffer(embedBatchSize)
+                .flatMapSequential(batch -> Mono.fromCallable(() -> new EmbeddedBatch(batch, embeddingService.embedTexts(batch)))
+                                .subscribeOn(blockingSchedulers.remote()),
+                        embedConcurrency, 1)
+                .collect(EmbeddedChunks::new, EmbeddedChunks::add)
+                //3、存入数据库 - 一个事务内用 COPY 批量写入，避免逐行 INSERT
+                .flatMap(all -> Mono.fromCallable(() -> documentChunkJdbcRepository.bulkInsert(docId, all.contents, all.embeddings))
+                        .subscribeOn(blockingSchedulers.jdbc()));
     }
 
 
     // rag检索
     @Override
-    public List<String> retrieveRelevantChunks(String query, int topK) {
-        //1、 对查询问题生成embedding
-        float[] queryEmbedding = embeddingService.embedText(query);
-        String queryVector = embeddingService.toVectorString(queryEmbedding);
-        //2、 向量相似度检查
-        List<DocumentChunk> similarChunks = documentRepository.findSimilarChunks(queryVector, topK);
-        
-        // 添加日志：调试检索结果
-        System.out.println("RAG检索 - 查询问题: " + query);
-        System.out.println("RAG检索 - 找到 " + similarChunks.size() + " 个相关文档片段");
-        if (similarChunks.isEmpty()) {
-            System.out.println("警告：未找到相关文档片段，请检查文档是否已入库");
-        } else {
-            for (int i = 0; i < similarChunks.size(); i++) {
-                System.out.println("片段 " + (i + 1) + " (前100字): " + 
-                    similarChunks.get(i).getContent().substring(0, Math.min(100, similarChunks.get(i).getContent().length())));
+    public Mono<List<String>> retrieveRelevantChunks(String query, RagOptions options) {
+        //1、 对查询问题生成embedding；2、 向量相似度检索（后端由 app.vector.backend 决定）/ 关键词检索 / 两者融合，再按 ID 取回分片内容
+        //   同样的问题命中检索结果缓存时跳过前两步
+        return retrieveAsync(query, options).map(retrieval -> {
+            List<ChunkHit> similarChunks = retrieval.chunks();
+
+            // 日志：检索结果与距离，便于调 max-distance / adaptive-margin
+            log.info("RAG检索 - 查询问题: {}, 找到 {} 个相关文档片段", query, similarChunks.size());
+            if (similarChunks.isEmpty()) {
+                log.warn("未找到相关文档片段，请检查文档是否已入库");
+            } else {
+                for (int i = 0; i < similarChunks.size(); i++) {
+                    ChunkHit chunk = similarChunks.get(i);
+                    log.info("片段 {} (id={}, {}) 前100字: {}", i + 1, chunk.id(), chunk.distanceLabel(),
+                            chunk.content().substring(0, Math.min(100, chunk.content().length())));
+                }
             }
+
+            //3、返回内容
+            return similarChunks.stream()
+                    .map(ChunkHit::content)
+                    .collect(Collectors.toList());
+        });
+    }
+
+    // 批量检索：一次 embedding 调用向量化全部问题，一条 SQL 完成全部向量检索（pgvector 后端），分片内容也一次取回
+    // 关键词检索仍按问题逐条执行；不读写检索结果缓存，离线评测要的是当前索引的真实结果
+    @Override
+    public List<List<ChunkHit>> retrieveBatch(List<String> queries, RagOptions options) {
+        if (queries.isEmpty()) {
+            return List.of();
+        }
+        if (queries.size() > maxBatchQueries) {
+            throw new IllegalArgumentException("批量检索最多 " + maxBatchQueries + " 个问题");
+        }
+        long start = System.nanoTime();
+        RetrievalMode mode = modeOf(options);
+        int topK = options.topK();
+        Float lambda = mmrLambdaOf(options);
+        int fetchK = lambda == null ? topK
+                : topK * (options.mmrFetchFactor() != null ? options.mmrFetchFactor() : Math.max(1, mmrFetchFactor));
+        int candidates = mode == RetrievalMode.HYBRID ? Math.max(fetchK, hybridCandidates) : fetchK;
+
+        List<float[]> embeddings = embeddingService.embedTexts(queries);
+        List<List<VectorHit>> vectorHits = mode == RetrievalMode.LEXICAL
+                ? null
+                : vectorStore.searchBatch(embeddings, candidates, options.recall(), VectorFilter.NONE);
+
+        List<List<VectorHit>> selected = new ArrayList<>(queries.size());
+        List<VectorHit> all = new ArrayList<>();
+        for (int i = 0; i < queries.size(); i++) {
+            List<LexicalHit> lexicalHits = mode == RetrievalMode.VECTOR ? List.of() : lexicalIndex.search(queries.get(i), candidates);
+            List<VectorHit> hits = combine(mode, vectorHits == null ? List.of() : vectorHits.get(i), lexicalHits, fetchK);
+            List<VectorHit> picked = select(embeddings.get(i), hits, topK, lambda);
+            selected.add(picked);
+            all.addAll(picked);
         }
 
-        //3、返回内容
-        return similarChunks.stream()
-                .map(DocumentChunk::getContent)
-                .collect(Collectors.toList());
+        Map<Long, ChunkHit> contents = new HashMap<>();
+        documentChunkJdbcRepository.findHits(all).forEach(chunk -> contents.put(chunk.id(), chunk));
+        List<List<ChunkHit>> results = new ArrayList<>(queries.size());
+        for (List<VectorHit> hits : selected) {
+            List<ChunkHit> chunks = new ArrayList<>(hits.size());
+            for (VectorHit hit : hits) {
+                ChunkHit chunk = contents.get(hit.chunkId());
+                if (chunk != null) {
+                    chunks.add(new ChunkHit(hit.chunkId(), hit.docId(), chunk.content(), hit.distance()));
+                }
+            }
+            results.add(chunks);
+        }
+        log.info("批量检索: {} 个问题, mode={}, topK={}, 耗时={}ms", queries.size(), mode, topK,
+                (System.nanoTime() - start) / 1_000_000);
+        return results;
     }
 
     //使用 RAG 生成回答
     @Override
     public String generateRagResponse(String query, List<String> relevantChunks) {
-        // 构建prompt，包含检索到的文档片段
-        StringBuilder context = new StringBuilder();
-        context.append("以下是与问题相关的文档片段：\n\n");
-        for (int i = 0; i < relevantChunks.size(); i++) {
-            context.append("片段 ").append(i + 1).append(":\n");
-            context.append(relevantChunks.get(i)).append("\n\n");
-        }
-        context.append("请基于以上文档内容回答问题：").append(query);
+        // 构建prompt，包含检索到的文档片段（按 token 预算截断 / 丢弃）
+        Prompt prompt = promptBuilder.rag(query, relevantChunks);
         // 调用 AI 生成回答
-        return aiService.generateResponse(query, context.toString());
+        return aiService.generateResponse(prompt.user(), prompt.context());
     }
 
 
     @Override
-    public Flux<String> streamRagResponse(Long conversationId, String query, int topK) {
-        // 1. 先保存用户消息
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(() -> new IllegalArgumentException("会话不存在: " + conversationId));
-        
+    public Flux<String> streamRagResponse(Long conversationId, String query, RagOptions options) {
+        // 1. 先保存用户消息，再获取历史消息（用于上下文，包括刚刚保存的用户消息）—— 读库走 R2DBC
+        Mono<HistoryContext> history = findConversation(conversationId)
+                .flatMap(conversation -> {
+                    Message userMsg = new Message();
+                    userMsg.setConversationId(conversationId);
+                    userMsg.setRole("user");
+                    userMsg.setContent(query);
+                    return messageWriter.save(userMsg)
+                            .map(historyCache::append)
+                            .then(historyCache.recent(conversationId))
+                            .map(messages -> new HistoryContext(conversation.getSummary(), messages));
+                });
+
+        // 2. RAG 检索：问题向量化走 remote 线程池，向量 / 关键词检索走 jdbc 线程池（命中检索结果缓存时只按 ID 取内容）
+        Mono<Retrieval> relevant = retrieveAsync(query, options);
+
+        // 用户消息保存完再检索，保持与之前相同的顺序（会话不存在时不会发起 embedding 调用）
+        return history.zipWhen(historyContext -> relevant)
+                .flatMapMany(tuple -> {
+                    HistoryContext historyContext = tuple.getT1();
+                    Retrieval retrieval = tuple.getT2();
+                    List<ChunkHit> relevantChunks = retrieval.chunks();
+
+                    log.info("RAG流式 - 检索到 {} 个文档片段, 距离: {}", relevantChunks.size(),
+                            relevantChunks.stream().map(ChunkHit::distanceLabel).collect(Collectors.joining(", ")));
+
+                    // 3. 按 token 预算构建包含会话摘要、对话历史和文档片段的上下文（没有检索到文档时提示模型）
+                    Prompt prompt = promptBuilder.rag(query, historyContext.summary(), historyContext.messages(), relevantChunks);
+                    log.info("RAG流式 - prompt 约 {} token, 丢弃历史 {} 条, 丢弃片段 {} 个, 截断 {} 处", prompt.estimatedTokens(),
+                            prompt.droppedHistory(), prompt.droppedChunks(), prompt.truncated());
+
+                    // 4. 流式生成回答（语义缓存命中时回放缓存的回答），流结束后保存完整的 AI 回答（保存完再结束流）
+                    //    缓存的键只有问题向量和分片集合：带了会话摘要或历史的回答依赖上文，既不查也不写缓存，
+                    //    否则会把一个会话的上下文回放给别的会话，追问也会拿到错误的回答
+                    boolean useAnswerCache = options.useAnswerCache() && historyContext.standalone();
+                    String cachedAnswer = findCachedAnswer(retrieval, useAnswerCache);
+                    Flux<String> answer = cachedAnswer != null
+                            ? replay(cachedAnswer)
+                            : aiService.streamResponse(prompt.user(), prompt.context());
+                    StringBuilder fullResponse = new StringBuilder();
+                    return answer
+                            .doOnNext(chunk -> fullResponse.append(chunk))
+                            .doOnComplete(() -> {
+                                if (cachedAnswer == null && useAnswerCache) {
+                                    semanticAnswerCache.put(retrieval.queryEmbedding(), retrieval.hits(), fullResponse.toString());
+                                }
+                            })
+                            .concatWith(Mono.defer(() -> {
+                                Message assistantMsg = new Message();
+                                assistantMsg.setConversationId(conversationId);
+                                assistantMsg.setRole("assistant");
+                                assistantMsg.setContent(fullResponse.toString());
+                                return messageWriter.save(assistantMsg)
+                                        .map(historyCache::append)
+                                        .doOnNext(saved -> summarizer.submit(conversationId))
+                                        .then(Mono.<String>empty());
+                            }));
+                });
+    }
+
+    @Override
+    public Mono<Message> ragChat(Long conversationId, String query, RagOptions options) {
+        // 1. 保存用户消息（只保存，回答由下面的 RAG 流程生成）
         Message userMsg = new Message();
-        userMsg.setConversation(conversation);
+        userMsg.setConversationId(conversationId);
         userMsg.setRole("user");
         userMsg.setContent(query);
-        messageRepository.save(userMsg);
-        
-        // 2. RAG 检索：找到相关文档片段
-        List<String> relevantChunks = retrieveRelevantChunks(query, topK);
-
-        // 3. 获取历史消息（用于上下文，包括刚刚保存的用户消息）
-        List<Message> historyMessages = messageRepository
-                .findByConversationIdOrderByCreatedAtAsc(conversationId);
-        String historyText = historyMessages.stream().limit(10)
-                .map(msg -> msg.getRole() + ": " + msg.getContent())
-                .collect(Collectors.joining("\n"));
-
-        // 4. 构建包含文档片段的上下文
-        StringBuilder context = new StringBuilder();
-        if (historyText != null && !historyText.isEmpty()) {
-            context.append("以下是对话历史：\n").append(historyText).append("\n\n");
-        }
-        
-        // 添加日志：调试检索结果
-        System.out.println("RAG流式 - 检索到 " + relevantChunks.size() + " 个文档片段");
-        
-        if (relevantChunks.isEmpty()) {
-            // 如果没有检索到文档，提示用户
-            context.append("注意：未在知识库中找到相关文档片段。\n\n");
-            context.append("请基于你的知识回答问题：").append(query);
-        } else {
-            context.append("以下是与问题相关的文档片段：\n\n");
-            for (int i = 0; i < relevantChunks.size(); i++) {
-                context.append("片段 ").append(i + 1).append(":\n");
-                context.append(relevantChunks.get(i)).append("\n\n");
+        return findConversation(conversationId)
+                .flatMap(conversation -> messageWriter.save(userMsg))
+                .map(historyCache::append)
+                // 2. RAG 检索
+                .then(retrieveAsync(query, options))
+                // 3. 生成回答（语义缓存命中时直接复用；阻塞式的模型调用在 remote 线程池上）
+                .flatMap(retrieval -> {
+                    String cachedAnswer = findCachedAnswer(retrieval, options.useAnswerCache());
+                    if (cachedAnswer != null) {
+                        return Mono.just(cachedAnswer);
+                    }
+                    Prompt prompt = promptBuilder.rag(query, null, List.of(), retrieval.chunks());
+                    return Mono.fromCallable(() -> aiService.generateResponse(prompt.user(), prompt.context()))
+                            .subscribeOn(blockingSchedulers.remote())
+                            .doOnNext(aiResponse -> {
+                                if (options.useAnswerCache()) {
+                                    semanticAnswerCache.put(retrieval.queryEmbedding(), retrieval.hits(), aiResponse);
+                                }
+                            });
+                })
+                // 4. 保存AI回答
+                .flatMap(aiResponse -> {
+                    Message assistantMsg = new Message();
+                    assistantMsg.setConversationId(conversationId);
+                    assistantMsg.setRole("assistant");
+                    assistantMsg.setContent(aiResponse);
+                    return messageWriter.save(assistantMsg);
+                })
+                .map(historyCache::append)
+                .doOnNext(saved -> summarizer.submit(conversationId));
+    }
+
+    private Mono<Conversation> findConversation(Long conversationId) {
+        return conversationRepository.findById(conversationId)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("会话不存在: " + conversationId)));
+    }
+
+    // 检索相关分片：先查检索结果缓存，未命中时按检索方式做向量 / 关键词检索，结果写回缓存
+    // 检索结果只有分片 ID（和距离），内容按 ID 批量查询（保持排序）
+    // 问题向量化走 remote 线程池，向量检索、关键词检索和取内容走 jdbc 线程池；
+    // 混合检索时关键词检索与"向量化 + 向量检索"并行，两路各取 hybridCandidates 个候选再做 RRF 融合。
+    // 只做关键词检索时也会向量化问题，语义回答缓存要用问题向量。
+    // 需要 MMR 重排时多取 topK * fetchFactor 个候选（缓存也按候选数区分）
+    private Mono<Retrieval> retrieveAsync(String query, RagOptions options) {
+        RetrievalMode mode = modeOf(options);
+        int topK = options.topK();
+        Float lambda = mmrLambdaOf(options);
+        int fetchK = lambda == null ? topK
+                : topK * (options.mmrFetchFactor() != null ? options.mmrFetchFactor() : Math.max(1, mmrFetchFactor));
+        return Mono.defer(() -> {
+            RetrievalCache.Lookup lookup = retrievalCache.lookup(query, fetchK, mode, options.recall());
+            if (lookup.hit()) {
+                return Mono.fromCallable(() -> toRetrieval(lookup.queryEmbedding(), lookup.results(), topK, lambda))
+                        .subscribeOn(blockingSchedulers.jdbc());
             }
-            context.append("请基于以上文档内容回答问题：").append(query);
+            long start = System.nanoTime();
+            int candidates = mode == RetrievalMode.HYBRID ? Math.max(fetchK, hybridCandidates) : fetchK;
+            Mono<Tuple2<float[], List<VectorHit>>> vector = Mono.fromCallable(() -> embeddingService.embedText(query))
+                    .subscribeOn(blockingSchedulers.remote())
+                    .publishOn(blockingSchedulers.jdbc())
+                    .map(queryEmbedding -> Tuples.of(queryEmbedding, mode == RetrievalMode.LEXICAL
+                            ? List.<VectorHit>of()
+                            : vectorStore.search(queryEmbedding, candidates, options.recall(), VectorFilter.NONE)));
+            Mono<List<LexicalHit>> lexical = mode == RetrievalMode.VECTOR
+                    ? Mono.just(List.<LexicalHit>of())
+                    : Mono.fromCallable(() -> lexicalIndex.search(query, candidates)).subscribeOn(blockingSchedulers.jdbc());
+            return Mono.zip(vector, lexical)
+                    .publishOn(blockingSchedulers.jdbc())
+                    .map(tuple -> {
+                        float[] queryEmbedding = tuple.getT1().getT1();
+                        List<VectorHit> hits = combine(mode, tuple.getT1().getT2(), tuple.getT2(), fetchK);
+                        retrievalCache.put(lookup, queryEmbedding, hits, System.nanoTime() - start);
+                        return toRetrieval(queryEmbedding, hits, topK, lambda);
+                    });
+        });
+    }
+
+    // 距离截断 / 自适应 topK / MMR 重排在缓存之后做（缓存的是完整的候选），再按 ID 只取内容
+    private Retrieval toRetrieval(float[] queryEmbedding, List<VectorHit> hits, int topK, Float lambda) {
+        List<VectorHit> selected = select(queryEmbedding, hits, topK, lambda);
+        return new Retrieval(queryEmbedding, selected, documentChunkJdbcRepository.findHits(selected));
+    }
+
+    // 按检索方式合并两路结果，取前 limit 个
+    private List<VectorHit> combine(RetrievalMode mode, List<VectorHit> vectorHits, List<LexicalHit> lexicalHits, int limit) {
+        return switch (mode) {
+            case VECTOR -> vectorHits;
+            case LEXICAL -> RankFusion.lexicalOnly(lexicalHits, limit);
+            case HYBRID -> RankFusion.fuse(vectorHits, lexicalHits, rrfK, limit);
+        };
+    }
+
+    private List<VectorHit> select(float[] queryEmbedding, List<VectorHit> hits, int topK, Float lambda) {
+        List<VectorHit> selected = HitSelector.select(hits, maxDistance, adaptiveMargin, minK);
+        if (selected.size() < hits.size()) {
+            log.debug("距离截断: {} -> {} 个分片", hits.size(), selected.size());
+        }
+        if (lambda != null) {
+            selected = mmrReranker.rerank(queryEmbedding, selected, topK, lambda);
+        }
+        if (selected.size() > topK) {
+            selected = new ArrayList<>(selected.subList(0, topK));
         }
+        return selected;
+    }
 
-        // 5. 流式生成回答
-        StringBuilder fullResponse = new StringBuilder();
-        return aiService.streamResponse(query, context.toString())
-                .doOnNext(chunk -> fullResponse.append(chunk))
-                .doOnComplete(() -> {
-                    // 流结束后保存完整的 AI 回答
-                    Conversation conversations = conversationRepository.findById(conversationId)
-                            .orElseThrow(() -> new IllegalArgumentException("会话不存在"));
-                    Message assistantMsg = new Message();
-                    assistantMsg.setConversation(conversations);
-                    assistantMsg.setRole("assistant");
-                    assistantMsg.setContent(fullResponse.toString());
-                    messageRepository.save(assistantMsg);
-                });
+    // 本次请求的 MMR 权重；不做 MMR（未开启，或 lambda = 1 等于按相关性排序）时返回 null
+    private Float mmrLambdaOf(RagOptions options) {
+        Float lambda = options.mmrLambda() != null ? options.mmrLambda() : (mmrEnabled ? Float.valueOf(mmrLambda) : null);
+        return lambda != null && lambda < 1 ? lambda : null;
     }
 
-    @Override
-    public Message ragChat(Long conversationId, String query) {
-        // 1. 保存用户消息
-        Message userMessage = chatService.addMessage(conversationId, "user", query);
-        // 2. RAG 检索
-        List<String> relevantChunks = retrieveRelevantChunks(query, 5);
-        // 3. 生成回答
-        String aiResponse = generateRagResponse(query, relevantChunks);
-        // 4. 保存AI回答
-        Conversation conversation = conversationRepository.findById(conversationId)
-                .orElseThrow(() -> new IllegalArgumentException("会话不存在"));
-        Message assistantMsg = new Message();
-        assistantMsg.setConversation(conversation);
-        assistantMsg.setRole("assistant");
-        assistantMsg.setContent(aiResponse);
-
-        return messageRepository.save(assistantMsg);
-    }
-
-    // 按字数切分文档
-    private List<String> splitText(String documentContent, int chunkSize) {
-        List<String> chunks = new ArrayList<>();
-        int length = documentContent.length();
-        for (int i = 0; i < length; i+=chunkSize) {
-            int end = Math.min(i + chunkSize, length);
-            chunks.add(documentContent.substring(i,end));
+    private RetrievalMode modeOf(RagOptions options) {
+        return options.mode() != null ? options.mode() : defaultMode;
+    }
+
+    // 语义缓存里可复用的回答；请求跳过缓存时只计数
+    private String findCachedAnswer(Retrieval retrieval, boolean useAnswerCache) {
+        if (!semanticAnswerCache.isEnabled()) {
+            return null;
+        }
+        if (!useAnswerCache) {
+            semanticAnswerCache.recordBypass();
+            return null;
+        }
+        return semanticAnswerCache.find(retrieval.queryEmbedding(), retrieval.hits());
+    }
+
+    // 把缓存的回答按固定字符数切段，像模型输出一样逐段推给前端（按码点切，不会拆开代理对）
+    private Flux<String> replay(String answer) {
+        int step = Math.max(1, replayChunkChars);
+        List<String> pieces = new ArrayList<>();
+        int start = 0;
+        while (start < answer.length()) {
+            int end = answer.offsetByCodePoints(start, Math.min(step, answer.codePointCount(start, answer.length())));
+            pieces.add(answer.substring(start, end));
+            start = end;
+        }
+        return Flux.fromIterable(pieces);
+    }
+
+    // 一次检索的结果：问题向量、截断后的命中（按相关度排序）、对应的分片内容与距离
+    private record Retrieval(float[] queryEmbedding, List<VectorHit> hits, List<ChunkHit> chunks) {
+    }
+
+    // 构建上下文用的会话摘要（可以为 null）和最近的对话历史（包括刚保存的当前问题）
+    private record HistoryContext(String summary, List<HistoryMessage> messages) {
+
+        // 会话里只有当前这个问题：回答不依赖上文
+        boolean standalone() {
+            return (summary == null || summary.isBlank()) && messages.size() <= 1;
+        }
+    }
+
+    private record EmbeddedBatch(List<String> contents, List<float[]> embeddings) {
+    }
+
+    private static final class EmbeddedChunks {
+
+        private final List<String> contents = new ArrayList<>();
+        private final List<float[]> embeddings = new ArrayList<>();
+
+        void add(EmbeddedBatch batch) {
+            contents.addAll(batch.contents());
+            embeddings.addAll(batch.embeddings());
         }
-        return chunks;
     }
 }
@@ -0,0 +1,40 @@
+package com.example.demo.service;
+
+import com.example.demo.domain.IngestionJob;
+import reactor.core.publisher.Flux;
+
+import java.nio.file.Path;
+import java.util.List;
+
+public interface IngestionJobService {
+
+    /**
+     * 为已落盘的文档创建入库任务，由后台 worker 异步执行
+     * @param docId 文档ID
+     * @param filename 原始文件名
+     * @param filePath 上传文件的保存路径
+     * @param mode 新建文档 / 替换已有文档
+     * @return 新建的任务
+     */
+    IngestionJob submit(Long docId, String filename, Path filePath, IngestionJob.Mode mode);
+
+    /**
+     * 文档是否有未结束的入库任务
+     */
+    boolean hasActiveJob(Long docId);
+
+    /**
+     * 根据 ID 获取任务
+     */
+    IngestionJob getJob(Long jobId);
+
+    /**
+     * 获取某个文档的所有入库任务（最新的在前）
+     */
+    List<IngestionJob> listJobsByDocument(Long docId);
+
+    /**
+     * 订阅任务进度：每次阶段 / 状态 / 分片计数变化时推送一次，任务结束后完成
+     */
+    Flux<IngestionJob> watchJob(Long jobId);
+}
@@ -0,0 +1,34 @@
+package com.example.demo.service;
+
+import com.example.demo.retrieval.RetrievalMode;
+import com.example.demo.vector.RecallLevel;
+
+/**
+ * 单次 RAG 请求的选项
+ * @param topK 检索的文档片段数量
+ * @param mode 检索方式，null 表示使用 app.rag.retrieval.default-mode
+ * @param useAnswerCache 是否使用语义回答缓存（false 时既不复用也不写入；带会话摘要或历史的请求总是跳过缓存）
+ * @param mmrLambda MMR 重排的相关性权重 [0, 1]，null 表示使用 app.rag.retrieval.mmr 的配置，1 表示不重排
+ * @param mmrFetchFactor MMR 重排时多取的候选倍数（候选数 = topK * mmrFetchFactor），null 表示使用配置
+ * @param recall 向量检索的召回档位（决定 ef_search / probes），null 表示使用 app.vector.search.default-recall
+ */
+public record RagOptions(int topK, RetrievalMode mode, boolean useAnswerCache, Float mmrLambda, Integer mmrFetchFactor,
+                         RecallLevel recall) {
+
+    public RagOptions {
+        if (mmrLambda != null && (mmrLambda < 0 || mmrLambda > 1)) {
+            throw new IllegalArgumentException("mmrLambda 必须在 [0, 1] 之间");
+        }
+        if (mmrFetchFactor != null && mmrFetchFactor < 1) {
+            throw new IllegalArgumentException("mmrFetchFactor 必须是正整数");
+        }
+    }
+
+    public RagOptions(int topK, RetrievalMode mode, boolean useAnswerCache) {
+        this(topK, mode, useAnswerCache, null, null, null);
+    }
+
+    public static RagOptions of(int topK) {
+        return new RagOptions(topK, null, true);
+    }
+}
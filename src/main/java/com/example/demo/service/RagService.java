@@ -1,7 +1,9 @@
 package com.example.demo.service;
 
 import com.example.demo.domain.Message;
+import com.example.demo.retrieval.ChunkHit;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 
@@ -9,13 +11,34 @@ public interface RagService {
 
     /**
      * 文档入库（切分 + embedding + 存储）
+     * @return 写入的分片数
      */
-    void ingestDocument(String documentContent, Long docId);
+    Mono<Integer> ingestDocument(String documentContent, Long docId);
+
+    /**
+     * 流式文档入库：文本分段流入，边切分边分批 embedding，前面的批次向量化时后面的文本还在解析 / 切分
+     * @param textSegments 文档文本（可以是解析器输出的文本段）
+     * @return 写入的分片数
+     */
+    Mono<Integer> ingestDocumentStream(Flux<String> textSegments, Long docId);
 
     /**
      * RAG 检索：根据问题找到相关文档片段
      */
-    List<String> retrieveRelevantChunks(String query, int topK);
+    default Mono<List<String>> retrieveRelevantChunks(String query, int topK) {
+        return retrieveRelevantChunks(query, RagOptions.of(topK));
+    }
+
+    /**
+     * RAG 检索：按选项里的检索方式（向量 / 关键词 / 混合）找到相关文档片段
+     */
+    Mono<List<String>> retrieveRelevantChunks(String query, RagOptions options);
+
+    /**
+     * 批量 RAG 检索（查询扩展、改写后的多个问题、离线评测）：一次向量化全部问题，一次数据库往返完成向量检索
+     * @return 与 queries 一一对应的检索结果（分片 ID、文档 ID、内容、距离）
+     */
+    List<List<ChunkHit>> retrieveBatch(List<String> queries, RagOptions options);
 
     /**
      * 使用 RAG 生成回答 : 非流式
@@ -29,7 +52,15 @@ public interface RagService {
      * @param topK 检索的文档片段数量
      * @return 流式回答
      */
-    Flux<String> streamRagResponse(Long conversationId, String query, int topK);
+    default Flux<String> streamRagResponse(Long conversationId, String query, int topK) {
+        return streamRagResponse(conversationId, query, RagOptions.of(topK));
+    }
+
+    /**
+     * RAG 流式对话
+     * @param options topK、检索方式、是否使用语义回答缓存
+     */
+    Flux<String> streamRagResponse(Long conversationId, String query, RagOptions options);
 
     /**
      * RAG 对话（完整流程）：检索 + 生成 + 保存消息
@@ -37,5 +68,13 @@ public interface RagService {
      * @param query 用户问题
      * @return AI回答的Messagee
      */
-    Message ragChat(Long conversationId, String query);
+    default Mono<Message> ragChat(Long conversationId, String query) {
+        return ragChat(conversationId, query, RagOptions.of(5));
+    }
+
+    /**
+     * RAG 对话（完整流程）
+     * @param options topK、检索方式、是否使用语义回答缓存
+     */
+    Mono<Message> ragChat(Long conversationId, String query, RagOptions options);
 }
@@ -0,0 +1,307 @@
+package com.example.demo.vector;
+
+import com.example.demo.vector.kernel.DistanceKernel;
+import com.example.demo.vector.kernel.DistanceKernels;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 精确检索（暴力扫描）的进程内向量存储，同步机制见 {@link ReplicatedVectorStore}
+ * 所有向量连续存放在一个 float[] 里（第 i 个向量占 [i * dim, (i + 1) * dim)），删除时用最后一个向量填补空位，保持数组紧凑；
+ * 检索时把区间切成若干段，在 ForkJoinPool 上并行扫描，每段各自保留 topK 再合并。距离计算优先使用 SIMD 内核。
+ * 适合几十万分片以内的语料：结果是精确的，也用作其它后端召回率测试的基准。
+ */
+@Component
+public class BruteForceVectorStore extends ReplicatedVectorStore {
+
+    public static final String NAME = "brute-force";
+
+    // float[] 的长度上限（留一点余量给 JVM 的数组头）
+    private static final long MAX_FLOATS = Integer.MAX_VALUE - 8;
+
+    private final int dimensions;
+    private final int segmentSize;
+    private final DistanceKernel kernel;
+    private final ForkJoinPool pool;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private float[] vectors = new float[0];
+    private long[] chunkIds = new long[0];
+    private long[] docIds = new long[0];
+    private int count;
+    // 只在同步线程上读写
+    private final Map<Long, Integer> indexByChunkId = new HashMap<>();
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong searchMicros = new AtomicLong();
+
+    public BruteForceVectorStore(ChunkVectorLoader loader,
+                                 @Value("${app.vector.backend:pgvector}") String backend,
+                                 @Value("${app.vector.brute-force.enabled:false}") boolean enabled,
+                                 @Value("${app.vector.dimensions:1536}") int dimensions,
+                                 @Value("${app.vector.sync.load-batch-size:1000}") int loadBatchSize,
+                                 @Value("${app.vector.brute-force.parallelism:0}") int parallelism,
+                                 @Value("${app.vector.brute-force.segment-size:4096}") int segmentSize,
+                                 @Value("${app.vector.brute-force.simd:true}") boolean simd) {
+        super(NAME, loader, backend, enabled, dimensions, loadBatchSize);
+        this.dimensions = dimensions;
+        this.segmentSize = Math.max(256, segmentSize);
+        this.kernel = DistanceKernels.create(simd);
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    }
+
+    @Override
+    public List<VectorHit> search(float[] query, int topK, RecallLevel recall, VectorFilter filter) {
+        if (topK <= 0) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        VectorFilter docFilter = filter == null ? VectorFilter.NONE : filter;
+        lock.readLock().lock();
+        try {
+            ScanTask task = new ScanTask(query, topK, docFilter, 0, count);
+            TopK best = count <= segmentSize ? task.compute() : pool.invoke(task);
+            return best.toHits(chunkIds, docIds);
+        } finally {
+            lock.readLock().unlock();
+            searches.incrementAndGet();
+            searchMicros.addAndGet((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * 随机取若干个已存储的向量（召回率测试用作查询）
+     */
+    public List<float[]> sampleVectors(int samples) {
+        lock.readLock().lock();
+        try {
+            List<float[]> result = new ArrayList<>(Math.min(samples, count));
+            for (int i = 0; i < samples && count > 0; i++) {
+                int index = ThreadLocalRandom.current().nextInt(count);
+                result.add(Arrays.copyOfRange(vectors, index * dimensions, (index + 1) * dimensions));
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = syncStats();
+        long total = searches.get();
+        stats.put("kernel", kernel.name());
+        stats.put("parallelism", pool.getParallelism());
+        stats.put("heapBytes", (long) vectors.length * Float.BYTES + (long) chunkIds.length * Long.BYTES * 2);
+        stats.put("searches", total);
+        stats.put("avgSearchMicros", total == 0 ? 0 : searchMicros.get() / total);
+        return stats;
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        pool.shutdownNow();
+    }
+
+    // ---------------- 以下方法只在同步线程上执行 ----------------
+
+    @Override
+    protected void clear() {
+        lock.writeLock().lock();
+        try {
+            vectors = new float[0];
+            chunkIds = new long[0];
+            docIds = new long[0];
+            count = 0;
+            indexByChunkId.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected int size() {
+        return count;
+    }
+
+    @Override
+    protected boolean contains(long chunkId) {
+        return indexByChunkId.containsKey(chunkId);
+    }
+
+    @Override
+    protected Collection<Long> chunkIds() {
+        return indexByChunkId.keySet();
+    }
+
+    @Override
+    protected void applyAdd(List<VectorRecord> records) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(count + records.size());
+            for (VectorRecord record : records) {
+                System.arraycopy(record.vector(), 0, vectors, count * dimensions, dimensions);
+                chunkIds[count] = record.chunkId();
+                docIds[count] = record.docId();
+                indexByChunkId.put(record.chunkId(), count);
+                count++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected int applyDelete(Collection<Long> ids) {
+        int removed = 0;
+        lock.writeLock().lock();
+        try {
+            for (Long chunkId : ids) {
+                Integer index = indexByChunkId.remove(chunkId);
+                if (index == null) {
+                    continue;
+                }
+                // 用最后一个向量填补被删除的位置
+                int last = count - 1;
+                if (index != last) {
+                    System.arraycopy(vectors, last * dimensions, vectors, index * dimensions, dimensions);
+                    chunkIds[index] = chunkIds[last];
+                    docIds[index] = docIds[last];
+                    indexByChunkId.put(chunkIds[index], index);
+                }
+                count--;
+                removed++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    @Override
+    protected int applyDeleteByDoc(long docId) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (docIds[i] == docId) {
+                ids.add(chunkIds[i]);
+            }
+        }
+        return applyDelete(ids);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= chunkIds.length) {
+            return;
+        }
+        long maxVectors = MAX_FLOATS / dimensions;
+        if (required > maxVectors) {
+            throw new IllegalStateException("暴力检索存储最多容纳 " + maxVectors + " 个向量，请改用 hnsw / pgvector");
+        }
+        int capacity = (int) Math.min(maxVectors, Math.max(required, Math.max(1024L, chunkIds.length + (chunkIds.length >> 1))));
+        vectors = Arrays.copyOf(vectors, capacity * dimensions);
+        chunkIds = Arrays.copyOf(chunkIds, capacity);
+        docIds = Arrays.copyOf(docIds, capacity);
+    }
+
+    // ---------------- 并行扫描 ----------------
+
+    // 扫描 [from, to)，区间大于 segmentSize 时一分为二
+    private final class ScanTask extends RecursiveTask<TopK> {
+
+        private final float[] query;
+        private final int k;
+        private final VectorFilter filter;
+        private final int from;
+        private final int to;
+
+        ScanTask(float[] query, int k, VectorFilter filter, int from, int to) {
+            this.query = query;
+            this.k = k;
+            this.filter = filter;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected TopK compute() {
+            if (to - from > segmentSize) {
+                int mid = (from + to) >>> 1;
+                ScanTask left = new ScanTask(query, k, filter, from, mid);
+                left.fork();
+                TopK right = new ScanTask(query, k, filter, mid, to).compute();
+                return right.merge(left.join());
+            }
+            TopK best = new TopK(k);
+            boolean filtered = !filter.isEmpty();
+            for (int i = from; i < to; i++) {
+                if (filtered && !filter.matches(docIds[i])) {
+                    continue;
+                }
+                float distance = kernel.l2Squared(vectors, i * dimensions, query, 0, dimensions);
+                best.offer(distance, i);
+            }
+            return best;
+        }
+    }
+
+    /**
+     * 最多保留 k 个最近的 (距离平方, 下标)，按距离升序；k 通常很小，插入排序即可
+     */
+    private static final class TopK {
+
+        private final float[] distances;
+        private final int[] indexes;
+        private int size;
+
+        TopK(int k) {
+            this.distances = new float[k];
+            this.indexes = new int[k];
+        }
+
+        void offer(float distance, int index) {
+            if (size == distances.length) {
+                if (distance >= distances[size - 1]) {
+                    return;
+                }
+                size--;
+            }
+            int i = size - 1;
+            while (i >= 0 && distances[i] > distance) {
+                distances[i + 1] = distances[i];
+                indexes[i + 1] = indexes[i];
+                i--;
+            }
+            distances[i + 1] = distance;
+            indexes[i + 1] = index;
+            size++;
+        }
+
+        TopK merge(TopK other) {
+            for (int i = 0; i < other.size; i++) {
+                offer(other.distances[i], other.indexes[i]);
+            }
+            return this;
+        }
+
+        List<VectorHit> toHits(long[] chunkIds, long[] docIds) {
+            List<VectorHit> hits = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                hits.add(new VectorHit(chunkIds[indexes[i]], docIds[indexes[i]], (float) Math.sqrt(distances[i])));
+            }
+            return hits;
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.demo.vector;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+
+import java.sql.PreparedStatement;
+import java.util.List;
+
+/**
+ * 从 document_chunk 读取向量，供进程内的向量存储加载 / 追平 / 对账
+ * 向量用 CAST(embedding AS real[]) 以数组形式读出，不经过文本解析
+ */
+@Component
+public class ChunkVectorLoader {
+
+    private static final String MAX_ID_SQL = "SELECT COALESCE(MAX(id), 0) FROM document_chunk";
+
+    private static final String AFTER_ID_SQL =
+            "SELECT id, doc_id, CAST(embedding AS real[]) AS embedding FROM document_chunk " +
+            "WHERE id > ? AND embedding IS NOT NULL ORDER BY id LIMIT ?";
+
+    private static final String ALL_IDS_SQL = "SELECT id FROM document_chunk WHERE embedding IS NOT NULL ORDER BY id";
+
+    private static final String BY_IDS_SQL =
+            "SELECT id, doc_id, CAST(embedding AS real[]) AS embedding FROM document_chunk " +
+            "WHERE id = ANY(?) AND embedding IS NOT NULL ORDER BY id";
+
+    // WITH ORDINALITY 带回每个 ID 在参数数组里的位置（从 1 开始），调用方不需要再按 ID 查找
+    private static final String BY_POSITIONS_SQL =
+            "SELECT c.position, CAST(d.embedding AS real[]) AS embedding " +
+            "FROM unnest(CAST(? AS bigint[])) WITH ORDINALITY AS c(id, position) " +
+            "JOIN document_chunk d ON d.id = c.id WHERE d.embedding IS NOT NULL";
+
+    private static final RowMapper<VectorRecord> RECORD_ROW_MAPPER = (rs, rowNum) -> {
+        Long docId = rs.getObject("doc_id", Long.class);
+        return new VectorRecord(rs.getLong("id"), docId == null ? -1 : docId,
+                PgVectorCodec.fromSqlArray(rs.getArray("embedding")));
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public ChunkVectorLoader(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public long maxId() {
+        Long maxId = jdbcTemplate.queryForObject(MAX_ID_SQL, Long.class);
+        return maxId == null ? 0 : maxId;
+    }
+
+    /**
+     * ID 大于 afterId 的分片，按 ID 升序最多 limit 条
+     */
+    public List<VectorRecord> loadAfter(long afterId, int limit) {
+        return jdbcTemplate.query(AFTER_ID_SQL, RECORD_ROW_MAPPER, afterId, limit);
+    }
+
+    public List<VectorRecord> loadByIds(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return List.of();
+        }
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(BY_IDS_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", ids.toArray()));
+            return ps;
+        }, RECORD_ROW_MAPPER);
+    }
+
+    /**
+     * 按 ids 的顺序把向量读进一个连续数组：第 i 个 ID 的向量放在 target[i * dimensions] 起，不为每个分片建对象
+     * @return 每个位置是否读到了向量（已删除、未向量化或维度不符的为 false，对应的位置保持不变）
+     */
+    public boolean[] loadInto(long[] ids, int dimensions, float[] target) {
+        boolean[] found = new boolean[ids.length];
+        if (ids.length == 0) {
+            return found;
+        }
+        Long[] boxed = new Long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            boxed[i] = ids[i];
+        }
+        jdbcTemplate.query(connection -> {
+            PreparedStatement ps = connection.prepareStatement(BY_POSITIONS_SQL);
+            ps.setArray(1, connection.createArrayOf("bigint", boxed));
+            return ps;
+        }, (RowCallbackHandler) rs -> {
+            int position = rs.getInt("position") - 1;
+            float[] vector = PgVectorCodec.fromSqlArray(rs.getArray("embedding"));
+            if (vector != null && vector.length == dimensions) {
+                System.arraycopy(vector, 0, target, position * dimensions, dimensions);
+                found[position] = true;
+            }
+        });
+        return found;
+    }
+
+    /**
+     * 所有带向量的分片 ID（升序）
+     */
+    public long[] allIds() {
+        List<Long> ids = jdbcTemplate.queryForList(ALL_IDS_SQL, Long.class);
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.demo.vector;
+
+/**
+ * document_chunk 新增了分片（事务提交后由进程内向量索引追平）
+ */
+public record ChunksInsertedEvent(Long docId, int count) {
+}
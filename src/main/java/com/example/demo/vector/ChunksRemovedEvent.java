@@ -0,0 +1,9 @@
+package com.example.demo.vector;
+
+import java.util.List;
+
+/**
+ * document_chunk 删除了分片；chunkIds 为 null 表示删除了该文档的全部分片
+ */
+public record ChunksRemovedEvent(Long docId, List<Long> chunkIds) {
+}
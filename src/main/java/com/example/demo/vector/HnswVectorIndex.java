@@ -0,0 +1,340 @@
+package com.example.demo.vector;
+
+import com.example.demo.vector.hnsw.HnswGraph;
+import com.example.demo.vector.hnsw.HnswSnapshot;
+import com.example.demo.vector.hnsw.OffHeapVectors;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongPredicate;
+
+/**
+ * 进程内的 HNSW 向量索引（document_chunk.embedding 的副本，同步机制见 {@link ReplicatedVectorStore}）
+ * 向量放在堆外（direct / mmap），图结构在堆内；启动时加载快照文件（向量区直接 mmap），
+ * 只需从数据库追平快照之后新增 / 删除的分片，不需要全量重建。检索无锁，可与插入并发。
+ * 删除只打墓碑，墓碑比例超过阈值时用存活节点重建整张图。
+ */
+@Component
+public class HnswVectorIndex extends ReplicatedVectorStore {
+
+    public static final String NAME = "hnsw";
+
+    private static final int LATENCY_WINDOW = 1024;
+
+    private final VectorIndexManager vectorIndexManager;
+
+    private final int dimensions;
+    private final Path snapshotPath;
+    private final int m;
+    private final int efConstruction;
+    private final int segmentCapacity;
+    private final double maxDeletedRatio;
+    private final double recallSampleRate;
+
+    private final ThreadPoolExecutor recallExecutor;
+
+    // 以下字段只在同步线程上读写
+    private final Map<Long, Integer> ordinalByChunkId = new HashMap<>();
+    private long snapshotMaxChunkId;
+    private boolean dirty;
+
+    private volatile HnswGraph graph;
+    private volatile String loadedFrom;
+    private volatile LocalDateTime lastSnapshotAt;
+    private volatile long lastSnapshotMillis;
+
+    private final AtomicLong compactions = new AtomicLong();
+    private final AtomicLong searches = new AtomicLong();
+    // 最近 LATENCY_WINDOW 次检索的延迟环形缓冲，写入位置取自 searches 计数，不加锁
+    private final AtomicLongArray latencyMicros = new AtomicLongArray(LATENCY_WINDOW);
+    private final AtomicLong recallSamples = new AtomicLong();
+    private final AtomicLong recallHits = new AtomicLong();
+    private final AtomicLong recallExpected = new AtomicLong();
+
+    public HnswVectorIndex(ChunkVectorLoader loader,
+                           VectorIndexManager vectorIndexManager,
+                           @Value("${app.vector.backend:pgvector}") String backend,
+                           @Value("${app.vector.hnsw.enabled:false}") boolean enabled,
+                           @Value("${app.vector.dimensions:1536}") int dimensions,
+                           @Value("${app.vector.sync.load-batch-size:1000}") int loadBatchSize,
+                           @Value("${app.vector.hnsw.snapshot-path:data/hnsw/document_chunk.hnsw}") String snapshotPath,
+                           @Value("${app.vector.hnsw.m:16}") int m,
+                           @Value("${app.vector.hnsw.ef-construction:100}") int efConstruction,
+                           @Value("${app.vector.hnsw.segment-capacity:16384}") int segmentCapacity,
+                           @Value("${app.vector.hnsw.max-deleted-ratio:0.2}") double maxDeletedRatio,
+                           @Value("${app.vector.hnsw.recall-sample-rate:0.01}") double recallSampleRate) {
+        super(NAME, loader, backend, enabled, dimensions, loadBatchSize);
+        this.vectorIndexManager = vectorIndexManager;
+        this.dimensions = dimensions;
+        this.snapshotPath = Paths.get(snapshotPath);
+        this.m = m;
+        this.efConstruction = efConstruction;
+        this.segmentCapacity = segmentCapacity;
+        this.maxDeletedRatio = maxDeletedRatio;
+        this.recallSampleRate = recallSampleRate;
+        // 召回率抽样用暴力检索对比，忙不过来时直接丢弃样本，不影响线上检索
+        this.recallExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(4),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "hnsw-recall");
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * 按 L2 距离检索最近的 topK 个分片，ef 取召回档位对应的 ef_search
+     */
+    @Override
+    public List<VectorHit> search(float[] query, int topK, RecallLevel recall, VectorFilter filter) {
+        HnswGraph current = graph;
+        if (current == null) {
+            return List.of();
+        }
+        RecallLevel level = recall != null ? recall : vectorIndexManager.getDefaultRecall();
+        int ef = Math.min(1000, Math.max(topK, vectorIndexManager.getEfSearch(level)));
+        LongPredicate docFilter = filter == null || filter.isEmpty() ? null : filter::matches;
+        long start = System.nanoTime();
+        List<HnswGraph.Hit> hits = current.search(query, topK, ef, docFilter);
+        recordLatency((System.nanoTime() - start) / 1000);
+        if (recallSampleRate > 0 && ThreadLocalRandom.current().nextDouble() < recallSampleRate) {
+            float[] copy = query.clone();
+            recallExecutor.execute(() -> sampleRecall(current, copy, topK, docFilter, hits));
+        }
+        List<VectorHit> result = new ArrayList<>(hits.size());
+        for (HnswGraph.Hit hit : hits) {
+            result.add(new VectorHit(hit.chunkId(), hit.docId(), hit.distance()));
+        }
+        return result;
+    }
+
+    /**
+     * 定时写快照（有变化时）
+     */
+    @Scheduled(initialDelayString = "${app.vector.hnsw.snapshot-interval-ms:60000}",
+            fixedDelayString = "${app.vector.hnsw.snapshot-interval-ms:60000}")
+    public void scheduledSnapshot() {
+        if (isEnabled() && isReady()) {
+            submit("写快照", this::writeSnapshotIfDirty);
+        }
+    }
+
+    /**
+     * 索引状态：节点数、墓碑数、内存占用、检索延迟分位数、抽样召回率
+     */
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = syncStats();
+        HnswGraph current = graph;
+        stats.put("loadedFrom", loadedFrom);
+        stats.put("nodes", current == null ? 0 : current.size());
+        stats.put("deleted", current == null ? 0 : current.deletedCount());
+        stats.put("directBytes", current == null ? 0 : current.vectors().directBytes());
+        stats.put("mappedBytes", current == null ? 0 : current.vectors().mappedBytes());
+        stats.put("compactions", compactions.get());
+        stats.put("lastSnapshotAt", lastSnapshotAt);
+        stats.put("lastSnapshotMillis", lastSnapshotMillis);
+        stats.put("searches", searches.get());
+        stats.putAll(latencyPercentiles());
+        long expected = recallExpected.get();
+        stats.put("recallSamples", recallSamples.get());
+        stats.put("sampledRecall", expected == 0 ? null : recallHits.get() * 1.0 / expected);
+        return stats;
+    }
+
+    @Override
+    public void shutdown() {
+        recallExecutor.shutdownNow();
+        super.shutdown();
+    }
+
+    // ---------------- 以下方法只在同步线程上执行 ----------------
+
+    @Override
+    protected long restore() {
+        HnswSnapshot.Loaded loaded = null;
+        try {
+            loaded = HnswSnapshot.load(snapshotPath, dimensions, segmentCapacity);
+        } catch (Exception e) {
+            log.warn("读取 HNSW 快照失败，改为从数据库全量构建: {}", e.getMessage());
+        }
+        if (loaded == null) {
+            clear();
+            return 0;
+        }
+        graph = loaded.graph();
+        snapshotMaxChunkId = loaded.maxChunkId();
+        loadedFrom = "snapshot";
+        ordinalByChunkId.clear();
+        for (int ordinal = 0; ordinal < graph.size(); ordinal++) {
+            HnswGraph.Node node = graph.node(ordinal);
+            if (!node.isDeleted()) {
+                ordinalByChunkId.put(node.chunkId(), ordinal);
+            }
+        }
+        return snapshotMaxChunkId;
+    }
+
+    @Override
+    protected void clear() {
+        graph = newGraph();
+        ordinalByChunkId.clear();
+        snapshotMaxChunkId = 0;
+        loadedFrom = "database";
+    }
+
+    @Override
+    protected int size() {
+        HnswGraph current = graph;
+        return current == null ? 0 : current.size() - current.deletedCount();
+    }
+
+    @Override
+    protected boolean contains(long chunkId) {
+        return ordinalByChunkId.containsKey(chunkId);
+    }
+
+    @Override
+    protected Collection<Long> chunkIds() {
+        return ordinalByChunkId.keySet();
+    }
+
+    @Override
+    protected void applyAdd(List<VectorRecord> records) {
+        for (VectorRecord record : records) {
+            int ordinal = graph.insert(record.chunkId(), record.docId(), record.vector());
+            ordinalByChunkId.put(record.chunkId(), ordinal);
+            snapshotMaxChunkId = Math.max(snapshotMaxChunkId, record.chunkId());
+        }
+        dirty = true;
+    }
+
+    @Override
+    protected int applyDelete(Collection<Long> chunkIds) {
+        int count = 0;
+        for (Long chunkId : chunkIds) {
+            Integer ordinal = ordinalByChunkId.remove(chunkId);
+            if (ordinal != null && graph.markDeleted(ordinal)) {
+                count++;
+            }
+        }
+        dirty |= count > 0;
+        return count;
+    }
+
+    @Override
+    protected int applyDeleteByDoc(long docId) {
+        List<Long> chunkIds = new ArrayList<>();
+        for (Map.Entry<Long, Integer> entry : ordinalByChunkId.entrySet()) {
+            if (graph.node(entry.getValue()).docId() == docId) {
+                chunkIds.add(entry.getKey());
+            }
+        }
+        return applyDelete(chunkIds);
+    }
+
+    // 墓碑比例超过阈值时用存活节点重建一张新图，建好后整体替换（检索期间继续使用旧图）
+    @Override
+    protected void afterChange() {
+        HnswGraph current = graph;
+        if (current == null || current.size() == 0 || current.deletedCount() < current.size() * maxDeletedRatio) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        HnswGraph compacted = newGraph();
+        Map<Long, Integer> ordinals = new HashMap<>();
+        float[] vector = new float[dimensions];
+        for (int ordinal = 0; ordinal < current.size(); ordinal++) {
+            HnswGraph.Node node = current.node(ordinal);
+            if (node.isDeleted()) {
+                continue;
+            }
+            current.vectors().copy(ordinal, vector);
+            ordinals.put(node.chunkId(), compacted.insert(node.chunkId(), node.docId(), vector));
+        }
+        graph = compacted;
+        ordinalByChunkId.clear();
+        ordinalByChunkId.putAll(ordinals);
+        compactions.incrementAndGet();
+        dirty = true;
+        log.info("HNSW 索引压缩完成: {} -> {} 个节点, 耗时={}ms",
+                current.size(), compacted.size(), System.currentTimeMillis() - begin);
+    }
+
+    @Override
+    protected void beforeShutdown() {
+        writeSnapshotIfDirty();
+    }
+
+    private HnswGraph newGraph() {
+        return new HnswGraph(new OffHeapVectors(dimensions, segmentCapacity), m, efConstruction);
+    }
+
+    private void writeSnapshotIfDirty() {
+        if (!dirty || graph == null) {
+            return;
+        }
+        long begin = System.currentTimeMillis();
+        try {
+            HnswSnapshot.write(graph, snapshotMaxChunkId, snapshotPath);
+            dirty = false;
+            lastSnapshotAt = LocalDateTime.now();
+            lastSnapshotMillis = System.currentTimeMillis() - begin;
+            log.info("HNSW 快照已写入: {}, 节点数={}, 耗时={}ms", snapshotPath.toAbsolutePath(), graph.size(), lastSnapshotMillis);
+        } catch (Exception e) {
+            log.warn("写 HNSW 快照失败: {}", e.getMessage(), e);
+        }
+    }
+
+    // ---------------- 统计 ----------------
+
+    // 与暴力检索的结果比较，累计 recall@k
+    private void sampleRecall(HnswGraph sampled, float[] query, int k, LongPredicate docFilter, List<HnswGraph.Hit> hits) {
+        Set<Long> expected = new HashSet<>();
+        sampled.exactSearch(query, k, docFilter).forEach(hit -> expected.add(hit.chunkId()));
+        long found = hits.stream().filter(hit -> expected.contains(hit.chunkId())).count();
+        recallSamples.incrementAndGet();
+        recallHits.addAndGet(found);
+        recallExpected.addAndGet(expected.size());
+    }
+
+    private void recordLatency(long micros) {
+        latencyMicros.set((int) (searches.getAndIncrement() % LATENCY_WINDOW), micros);
+    }
+
+    // 最近 LATENCY_WINDOW 次检索的延迟分位数（微秒）；与检索并发读取，只是近似快照
+    private Map<String, Object> latencyPercentiles() {
+        Map<String, Object> latency = new LinkedHashMap<>();
+        int count = (int) Math.min(searches.get(), LATENCY_WINDOW);
+        if (count == 0) {
+            return latency;
+        }
+        long[] sorted = new long[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = latencyMicros.get(i);
+        }
+        Arrays.sort(sorted);
+        latency.put("p50Micros", sorted[(int) Math.ceil(count * 0.50) - 1]);
+        latency.put("p95Micros", sorted[(int) Math.ceil(count * 0.95) - 1]);
+        latency.put("p99Micros", sorted[(int) Math.ceil(count * 0.99) - 1]);
+        return latency;
+    }
+}
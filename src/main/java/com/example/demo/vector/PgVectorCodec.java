@@ -0,0 +1,91 @@
+package com.example.demo.vector;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * pgvector 的 vector 类型编解码
+ *
+ * 查询 / 插入参数：float[] 直接用 setObject 绑定，PgJDBC 会按 float4[] 的二进制格式发送，
+ * 服务端再用 CAST(... AS vector) 把 real[] 转成 vector —— 全程不经过十进制文本。
+ * COPY BINARY：按 pgvector 的 vector_recv 格式写出（int16 维度 + int16 保留位 + float4 * 维度）。
+ */
+public final class PgVectorCodec {
+
+    /**
+     * SQL 中的 vector 参数占位符，配合 {@link #bind} 使用
+     */
+    public static final String VECTOR_PARAM = "CAST(CAST(? AS real[]) AS vector)";
+
+    private PgVectorCodec() {
+    }
+
+    /**
+     * 绑定 vector 参数（二进制 float4[]）
+     */
+    public static void bind(PreparedStatement ps, int index, float[] embedding) throws SQLException {
+        ps.setObject(index, embedding);
+    }
+
+    /**
+     * vector 二进制格式的字节长度
+     */
+    public static int binaryLength(float[] embedding) {
+        return 4 + 4 * embedding.length;
+    }
+
+    /**
+     * 按 pgvector 二进制格式写出（网络字节序）
+     */
+    public static void writeBinary(DataOutput out, float[] embedding) throws IOException {
+        out.writeShort(embedding.length);
+        out.writeShort(0);
+        for (float v : embedding) {
+            out.writeFloat(v);
+        }
+    }
+
+    /**
+     * 读取 embedding::real[] 查询出来的数组
+     */
+    public static float[] fromSqlArray(Array array) throws SQLException {
+        if (array == null) {
+            return null;
+        }
+        Object value = array.getArray();
+        if (value instanceof float[] floats) {
+            return floats;
+        }
+        Object[] boxed = (Object[]) value;
+        float[] embedding = new float[boxed.length];
+        for (int i = 0; i < boxed.length; i++) {
+            embedding[i] = ((Number) boxed[i]).floatValue();
+        }
+        return embedding;
+    }
+
+    /**
+     * 解析 vector 的文本形式 [1.0,2.0,...]（仅用于兼容实体上的字符串字段）
+     */
+    public static float[] parse(String text) {
+        if (text == null) {
+            return null;
+        }
+        String body = text.trim();
+        if (body.startsWith("[")) {
+            body = body.substring(1, body.length() - 1);
+        }
+        if (body.isEmpty()) {
+            return new float[0];
+        }
+        String[] parts = body.split(",");
+        float[] embedding = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            embedding[i] = Float.parseFloat(parts[i].trim());
+        }
+        return embedding;
+    }
+}
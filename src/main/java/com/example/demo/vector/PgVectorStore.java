@@ -0,0 +1,269 @@
+package com.example.demo.vector;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 pgvector 的向量存储：直接在 document_chunk 上检索（ANN 索引见 {@link VectorIndexManager}）
+ * 向量本身由 DocumentChunkJdbcRepository 随分片一起写入 / 删除，所以这里的 add / delete 不做任何事
+ * 索引建在压缩向量上时（halfvec / binary_quantize）分两步：先按压缩表达式从索引取 topK * rerank-factor 个候选，
+ * 再在这些候选上用全精度向量的 L2 距离重新排序取 topK
+ */
+@Component
+public class PgVectorStore implements VectorStore {
+
+    public static final String NAME = "pgvector";
+
+    // 查询向量以二进制 float4[] 传入；ORDER BY 用与索引一致的表达式，才能走 ANN 索引
+    private static final String SEARCH_SQL =
+            "SELECT id, doc_id, embedding <-> " + PgVectorCodec.VECTOR_PARAM + " AS distance FROM document_chunk " +
+            "ORDER BY embedding <-> " + PgVectorCodec.VECTOR_PARAM + " LIMIT ?";
+
+    private static final String SEARCH_IN_DOCS_SQL =
+            "SELECT id, doc_id, embedding <-> " + PgVectorCodec.VECTOR_PARAM + " AS distance FROM document_chunk " +
+            "WHERE doc_id = ANY(?) " +
+            "ORDER BY embedding <-> " + PgVectorCodec.VECTOR_PARAM + " LIMIT ?";
+
+    // 两步检索：内层按压缩表达式取候选（走压缩索引），外层按全精度距离精排
+    // 参数顺序：查询向量（精排）、[文档 ID]、查询向量（粗排）、候选数、topK
+    private static final String RERANK_SQL_TEMPLATE =
+            "SELECT id, doc_id, embedding <-> " + PgVectorCodec.VECTOR_PARAM + " AS distance FROM (" +
+            "SELECT id, doc_id, embedding FROM document_chunk %s" +
+            "ORDER BY %s %s %s LIMIT ?) candidates " +
+            "ORDER BY distance LIMIT ?";
+
+    // 批量检索：所有查询向量首尾相接成一个 float4[] 传入，在库里按维度切回 n 个 vector，
+    // 每个查询向量通过 LATERAL 各自按 ORDER BY ... LIMIT 走一次 ANN 索引，一次往返拿到全部结果
+    // 参数顺序：拼接后的向量、维度、[文档 ID]、[候选数]、topK
+    private static final String BATCH_SQL_TEMPLATE =
+            "WITH p AS (SELECT CAST(? AS real[]) AS v, CAST(? AS int) AS d), " +
+            "q AS (SELECT ord, CAST(p.v[(ord - 1) * p.d + 1 : ord * p.d] AS vector) AS qv " +
+            "FROM p, generate_series(1, cardinality(p.v) / p.d) AS ord) " +
+            "SELECT q.ord, h.id, h.doc_id, h.distance FROM q CROSS JOIN LATERAL (%s) h " +
+            "ORDER BY q.ord, h.distance";
+
+    private static final String BATCH_LATERAL_TEMPLATE =
+            "SELECT id, doc_id, embedding <-> q.qv AS distance FROM document_chunk %s" +
+            "ORDER BY embedding <-> q.qv LIMIT ?";
+
+    private static final String BATCH_RERANK_LATERAL_TEMPLATE =
+            "SELECT id, doc_id, embedding <-> q.qv AS distance FROM (" +
+            "SELECT id, doc_id, embedding FROM document_chunk %s" +
+            "ORDER BY %s %s %s LIMIT ?) candidates " +
+            "ORDER BY distance LIMIT ?";
+
+    private static final RowMapper<VectorHit> HIT_ROW_MAPPER = (rs, rowNum) -> {
+        Long docId = rs.getObject("doc_id", Long.class);
+        return new VectorHit(rs.getLong("id"), docId == null ? -1 : docId, rs.getFloat("distance"));
+    };
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorIndexManager vectorIndexManager;
+
+    private final int rerankFactor;
+    // 各压缩方式对应的两步检索 SQL：[0] 不过滤，[1] 按文档过滤
+    private final Map<Quantization, String[]> rerankSql = new EnumMap<>(Quantization.class);
+    // 各压缩方式对应的批量检索 SQL，同上
+    private final Map<Quantization, String[]> batchSql = new EnumMap<>(Quantization.class);
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong searchMicros = new AtomicLong();
+    private final AtomicLong batchSearches = new AtomicLong();
+    private final AtomicLong batchQueries = new AtomicLong();
+    private final AtomicLong batchSearchMicros = new AtomicLong();
+
+    public PgVectorStore(JdbcTemplate jdbcTemplate, VectorIndexManager vectorIndexManager,
+                         @Value("${app.vector.search.rerank-factor:4}") int rerankFactor) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorIndexManager = vectorIndexManager;
+        this.rerankFactor = Math.max(1, rerankFactor);
+        int dimensions = vectorIndexManager.getDimensions();
+        String inDocs = "WHERE doc_id = ANY(?) ";
+        for (Quantization quantization : new Quantization[]{Quantization.HALF, Quantization.BINARY}) {
+            String column = VectorIndexManager.quantizedExpression(quantization, "embedding", dimensions);
+            String query = VectorIndexManager.quantizedExpression(quantization, PgVectorCodec.VECTOR_PARAM, dimensions);
+            String batchQuery = VectorIndexManager.quantizedExpression(quantization, "q.qv", dimensions);
+            String operator = VectorIndexManager.quantizedOperator(quantization);
+            rerankSql.put(quantization, new String[]{
+                    String.format(RERANK_SQL_TEMPLATE, "", column, operator, query),
+                    String.format(RERANK_SQL_TEMPLATE, inDocs, column, operator, query)});
+            batchSql.put(quantization, new String[]{
+                    String.format(BATCH_SQL_TEMPLATE, String.format(BATCH_RERANK_LATERAL_TEMPLATE, "", column, operator, batchQuery)),
+                    String.format(BATCH_SQL_TEMPLATE, String.format(BATCH_RERANK_LATERAL_TEMPLATE, inDocs, column, operator, batchQuery))});
+        }
+        batchSql.put(Quantization.NONE, new String[]{
+                String.format(BATCH_SQL_TEMPLATE, String.format(BATCH_LATERAL_TEMPLATE, "")),
+                String.format(BATCH_SQL_TEMPLATE, String.format(BATCH_LATERAL_TEMPLATE, inDocs))});
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void add(List<VectorRecord> records) {
+    }
+
+    @Override
+    public void delete(Collection<Long> chunkIds) {
+    }
+
+    @Override
+    public void deleteByDoc(Long docId) {
+    }
+
+    /**
+     * 在同一事务里先按召回档位 SET LOCAL hnsw.ef_search / ivfflat.probes，事务结束后自动恢复
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<VectorHit> search(float[] query, int topK, RecallLevel recall, VectorFilter filter) {
+        long start = System.nanoTime();
+        Quantization quantization = vectorIndexManager.getActiveQuantization();
+        int candidates = quantization == Quantization.NONE ? topK : topK * rerankFactor;
+        String searchSetting = vectorIndexManager.searchSetting(
+                recall != null ? recall : vectorIndexManager.getDefaultRecall(), candidates);
+        if (searchSetting != null) {
+            jdbcTemplate.execute(searchSetting);
+        }
+        try {
+            if (quantization != Quantization.NONE) {
+                return searchWithRerank(quantization, query, candidates, topK, filter);
+            }
+            if (filter == null || filter.isEmpty()) {
+                return jdbcTemplate.query(SEARCH_SQL, ps -> {
+                    PgVectorCodec.bind(ps, 1, query);
+                    PgVectorCodec.bind(ps, 2, query);
+                    ps.setInt(3, topK);
+                }, HIT_ROW_MAPPER);
+            }
+            return jdbcTemplate.query(SEARCH_IN_DOCS_SQL, ps -> {
+                PgVectorCodec.bind(ps, 1, query);
+                ps.setArray(2, ps.getConnection().createArrayOf("bigint", filter.docIds().toArray()));
+                PgVectorCodec.bind(ps, 3, query);
+                ps.setInt(4, topK);
+            }, HIT_ROW_MAPPER);
+        } finally {
+            searches.incrementAndGet();
+            searchMicros.addAndGet((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * 一条 SQL 完成多个查询向量的检索（召回档位的会话参数同 search）
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<List<VectorHit>> searchBatch(List<float[]> queries, int topK, RecallLevel recall, VectorFilter filter) {
+        if (queries.isEmpty()) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        int dimensions = queries.get(0).length;
+        float[] flattened = new float[queries.size() * dimensions];
+        for (int i = 0; i < queries.size(); i++) {
+            float[] query = queries.get(i);
+            if (query.length != dimensions) {
+                throw new IllegalArgumentException("批量检索的查询向量维度不一致");
+            }
+            System.arraycopy(query, 0, flattened, i * dimensions, dimensions);
+        }
+        Quantization quantization = vectorIndexManager.getActiveQuantization();
+        int candidates = quantization == Quantization.NONE ? topK : topK * rerankFactor;
+        String searchSetting = vectorIndexManager.searchSetting(
+                recall != null ? recall : vectorIndexManager.getDefaultRecall(), candidates);
+        if (searchSetting != null) {
+            jdbcTemplate.execute(searchSetting);
+        }
+        boolean filtered = filter != null && !filter.isEmpty();
+        String sql = batchSql.get(quantization)[filtered ? 1 : 0];
+        List<List<VectorHit>> results = new ArrayList<>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            results.add(new ArrayList<>(topK));
+        }
+        try {
+            jdbcTemplate.query(sql, ps -> {
+                int index = 1;
+                PgVectorCodec.bind(ps, index++, flattened);
+                ps.setInt(index++, dimensions);
+                if (filtered) {
+                    ps.setArray(index++, ps.getConnection().createArrayOf("bigint", filter.docIds().toArray()));
+                }
+                if (quantization != Quantization.NONE) {
+                    ps.setInt(index++, candidates);
+                }
+                ps.setInt(index, topK);
+            }, (RowCallbackHandler) rs -> {
+                Long docId = rs.getObject("doc_id", Long.class);
+                results.get(rs.getInt("ord") - 1).add(
+                        new VectorHit(rs.getLong("id"), docId == null ? -1 : docId, rs.getFloat("distance")));
+            });
+            return results;
+        } finally {
+            batchSearches.incrementAndGet();
+            batchQueries.addAndGet(queries.size());
+            batchSearchMicros.addAndGet((System.nanoTime() - start) / 1000);
+        }
+    }
+
+    /**
+     * 向量与索引的占用（见 {@link VectorIndexManager#memoryReport()}）
+     */
+    public Map<String, Object> memoryReport() {
+        return vectorIndexManager.memoryReport();
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long total = searches.get();
+        stats.put("ready", true);
+        stats.put("quantization", vectorIndexManager.getActiveQuantization());
+        stats.put("rerankFactor", rerankFactor);
+        stats.put("searches", total);
+        stats.put("avgSearchMicros", total == 0 ? 0 : searchMicros.get() / total);
+        long batches = batchSearches.get();
+        stats.put("batchSearches", batches);
+        stats.put("batchQueries", batchQueries.get());
+        stats.put("avgBatchSearchMicros", batches == 0 ? 0 : batchSearchMicros.get() / batches);
+        return stats;
+    }
+
+    private List<VectorHit> searchWithRerank(Quantization quantization, float[] query, int candidates, int topK,
+                                             VectorFilter filter) {
+        String[] sql = rerankSql.get(quantization);
+        if (filter == null || filter.isEmpty()) {
+            return jdbcTemplate.query(sql[0], ps -> {
+                PgVectorCodec.bind(ps, 1, query);
+                PgVectorCodec.bind(ps, 2, query);
+                ps.setInt(3, candidates);
+                ps.setInt(4, topK);
+            }, HIT_ROW_MAPPER);
+        }
+        return jdbcTemplate.query(sql[1], ps -> {
+            PgVectorCodec.bind(ps, 1, query);
+            ps.setArray(2, ps.getConnection().createArrayOf("bigint", filter.docIds().toArray()));
+            PgVectorCodec.bind(ps, 3, query);
+            ps.setInt(4, candidates);
+            ps.setInt(5, topK);
+        }, HIT_ROW_MAPPER);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.demo.vector;
+
+/**
+ * 向量的压缩存储方式
+ * HALF：半精度（2 字节 / 维）；INT8：按向量对称标量量化（1 字节 / 维 + 4 字节缩放系数）；BINARY：只保留符号位（1 位 / 维）
+ * 压缩后的向量只用来粗排，取 topK * rerank-factor 个候选再用全精度向量精排
+ */
+public enum Quantization {
+    NONE,
+    HALF,
+    INT8,
+    BINARY;
+
+    /**
+     * 按名称解析（忽略大小写），为空时返回默认值
+     */
+    public static Quantization parse(String value, Quantization defaultValue) {
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的量化方式：" + value + "，可选 none / half / int8 / binary");
+        }
+    }
+
+    /**
+     * 每个向量占用的字节数（不含索引结构本身的开销）
+     */
+    public long bytesPerVector(int dimensions) {
+        return switch (this) {
+            case NONE -> 4L * dimensions;
+            case HALF -> 2L * dimensions;
+            case INT8 -> dimensions + 4L;
+            case BINARY -> (dimensions + 63) / 64 * 8L;
+        };
+    }
+}
@@ -0,0 +1,464 @@
+package com.example.demo.vector;
+
+import com.example.demo.vector.kernel.DistanceKernel;
+import com.example.demo.vector.kernel.DistanceKernels;
+import com.example.demo.vector.kernel.Float16;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 压缩存储的进程内向量存储，同步机制见 {@link ReplicatedVectorStore}
+ * 内存里只保留压缩后的向量（half / int8 / binary，见 {@link Quantization}），全精度向量留在数据库里：
+ * 检索时先扫描压缩向量取 topK * rerank-factor 个候选，再按 ID 读出候选的全精度向量精排，返回精确的 L2 距离。
+ * 与 brute-force 一样删除时用最后一个向量填补空位；召回率可以用 GET /api/vector/index/recall 与精确检索对比。
+ */
+@Component
+public class QuantizedVectorStore extends ReplicatedVectorStore {
+
+    public static final String NAME = "quantized";
+
+    private final ChunkVectorLoader loader;
+    private final int dimensions;
+    private final Quantization quantization;
+    private final int rerankFactor;
+    private final DistanceKernel kernel;
+    private final Codes codes;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private long[] chunkIds = new long[0];
+    private long[] docIds = new long[0];
+    private int count;
+    // 只在同步线程上读写
+    private final Map<Long, Integer> indexByChunkId = new HashMap<>();
+
+    private final AtomicLong searches = new AtomicLong();
+    private final AtomicLong searchMicros = new AtomicLong();
+    private final AtomicLong rerankMicros = new AtomicLong();
+
+    public QuantizedVectorStore(ChunkVectorLoader loader,
+                                @Value("${app.vector.backend:pgvector}") String backend,
+                                @Value("${app.vector.quantized.enabled:false}") boolean enabled,
+                                @Value("${app.vector.dimensions:1536}") int dimensions,
+                                @Value("${app.vector.sync.load-batch-size:1000}") int loadBatchSize,
+                                @Value("${app.vector.quantized.quantization:int8}") String quantization,
+                                @Value("${app.vector.quantized.rerank-factor:4}") int rerankFactor,
+                                @Value("${app.vector.brute-force.simd:true}") boolean simd) {
+        super(NAME, loader, backend, enabled, dimensions, loadBatchSize);
+        this.loader = loader;
+        this.dimensions = dimensions;
+        this.quantization = Quantization.parse(quantization, Quantization.INT8);
+        this.rerankFactor = Math.max(1, rerankFactor);
+        this.kernel = DistanceKernels.create(simd);
+        this.codes = switch (this.quantization) {
+            case HALF -> new HalfCodes(dimensions);
+            case INT8 -> new Int8Codes(dimensions);
+            case BINARY -> new BinaryCodes(dimensions);
+            case NONE -> throw new IllegalArgumentException("quantized 存储的量化方式只能是 half / int8 / binary，全精度请用 brute-force");
+        };
+    }
+
+    /**
+     * 粗排取候选（读锁内扫描压缩向量），精排按 ID 读全精度向量（锁外），召回档位不影响结果
+     */
+    @Override
+    public List<VectorHit> search(float[] query, int topK, RecallLevel recall, VectorFilter filter) {
+        if (topK <= 0) {
+            return List.of();
+        }
+        long start = System.nanoTime();
+        VectorFilter docFilter = filter == null ? VectorFilter.NONE : filter;
+        int candidateCount = topK * rerankFactor;
+        List<Long> candidates;
+        lock.readLock().lock();
+        try {
+            Object prepared = codes.prepare(query);
+            float[] distances = new float[candidateCount];
+            int[] indexes = new int[candidateCount];
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (!docFilter.isEmpty() && !docFilter.matches(docIds[i])) {
+                    continue;
+                }
+                float distance = codes.distance(prepared, i);
+                if (size == candidateCount) {
+                    if (distance >= distances[size - 1]) {
+                        continue;
+                    }
+                    size--;
+                }
+                // 插入排序，按近似距离升序
+                int j = size - 1;
+                while (j >= 0 && distances[j] > distance) {
+                    distances[j + 1] = distances[j];
+                    indexes[j + 1] = indexes[j];
+                    j--;
+                }
+                distances[j + 1] = distance;
+                indexes[j + 1] = i;
+                size++;
+            }
+            candidates = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                candidates.add(chunkIds[indexes[i]]);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        long rerankStart = System.nanoTime();
+        List<VectorHit> hits = new ArrayList<>(candidates.size());
+        for (VectorRecord record : loader.loadByIds(candidates)) {
+            if (record.vector().length != dimensions) {
+                continue;
+            }
+            float distance = kernel.l2Squared(record.vector(), 0, query, 0, dimensions);
+            hits.add(new VectorHit(record.chunkId(), record.docId(), (float) Math.sqrt(distance)));
+        }
+        hits.sort(Comparator.comparingDouble(VectorHit::distance));
+        long end = System.nanoTime();
+        searches.incrementAndGet();
+        searchMicros.addAndGet((end - start) / 1000);
+        rerankMicros.addAndGet((end - rerankStart) / 1000);
+        return hits.size() > topK ? new ArrayList<>(hits.subList(0, topK)) : hits;
+    }
+
+    /**
+     * 内存占用：压缩向量与同样数量的全精度向量相比节省的字节数
+     */
+    public Map<String, Object> memoryReport() {
+        int size = count;
+        long fullBytes = size * Quantization.NONE.bytesPerVector(dimensions);
+        long codeBytes = size * quantization.bytesPerVector(dimensions);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("quantization", quantization);
+        report.put("vectors", size);
+        report.put("fullPrecisionVectorBytes", fullBytes);
+        report.put("quantizedVectorBytes", codeBytes);
+        report.put("savedBytes", fullBytes - codeBytes);
+        report.put("compressionRatio", (double) Quantization.NONE.bytesPerVector(dimensions) / quantization.bytesPerVector(dimensions));
+        return report;
+    }
+
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = syncStats();
+        long total = searches.get();
+        stats.put("quantization", quantization);
+        stats.put("rerankFactor", rerankFactor);
+        stats.put("heapBytes", codes.bytes() + (long) chunkIds.length * Long.BYTES * 2);
+        stats.put("searches", total);
+        stats.put("avgSearchMicros", total == 0 ? 0 : searchMicros.get() / total);
+        stats.put("avgRerankMicros", total == 0 ? 0 : rerankMicros.get() / total);
+        stats.put("memory", memoryReport());
+        return stats;
+    }
+
+    // ---------------- 以下方法只在同步线程上执行 ----------------
+
+    @Override
+    protected void clear() {
+        lock.writeLock().lock();
+        try {
+            codes.resize(0);
+            chunkIds = new long[0];
+            docIds = new long[0];
+            count = 0;
+            indexByChunkId.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected int size() {
+        return count;
+    }
+
+    @Override
+    protected boolean contains(long chunkId) {
+        return indexByChunkId.containsKey(chunkId);
+    }
+
+    @Override
+    protected Collection<Long> chunkIds() {
+        return indexByChunkId.keySet();
+    }
+
+    @Override
+    protected void applyAdd(List<VectorRecord> records) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(count + records.size());
+            for (VectorRecord record : records) {
+                codes.encode(count, record.vector());
+                chunkIds[count] = record.chunkId();
+                docIds[count] = record.docId();
+                indexByChunkId.put(record.chunkId(), count);
+                count++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    protected int applyDelete(Collection<Long> ids) {
+        int removed = 0;
+        lock.writeLock().lock();
+        try {
+            for (Long chunkId : ids) {
+                Integer index = indexByChunkId.remove(chunkId);
+                if (index == null) {
+                    continue;
+                }
+                int last = count - 1;
+                if (index != last) {
+                    codes.move(last, index);
+                    chunkIds[index] = chunkIds[last];
+                    docIds[index] = docIds[last];
+                    indexByChunkId.put(chunkIds[index], index);
+                }
+                count--;
+                removed++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return removed;
+    }
+
+    @Override
+    protected int applyDeleteByDoc(long docId) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (docIds[i] == docId) {
+                ids.add(chunkIds[i]);
+            }
+        }
+        return applyDelete(ids);
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= chunkIds.length) {
+            return;
+        }
+        int capacity = Math.max(required, Math.max(1024, chunkIds.length + (chunkIds.length >> 1)));
+        codes.resize(capacity);
+        chunkIds = Arrays.copyOf(chunkIds, capacity);
+        docIds = Arrays.copyOf(docIds, capacity);
+    }
+
+    // ---------------- 压缩编码 ----------------
+
+    /**
+     * 压缩向量的连续存储：第 i 个向量占一段固定长度；distance 只用于排序，不要求是真实距离
+     */
+    private interface Codes {
+
+        void resize(int vectors);
+
+        void encode(int index, float[] vector);
+
+        void move(int from, int to);
+
+        /**
+         * 查询向量预处理（每次检索一次）
+         */
+        Object prepare(float[] query);
+
+        float distance(Object preparedQuery, int index);
+
+        long bytes();
+    }
+
+    // 半精度：逐维解码后算 L2 距离平方
+    private static final class HalfCodes implements Codes {
+
+        private final int dimensions;
+        private short[] values = new short[0];
+
+        HalfCodes(int dimensions) {
+            this.dimensions = dimensions;
+        }
+
+        @Override
+        public void resize(int vectors) {
+            values = Arrays.copyOf(values, vectors * dimensions);
+        }
+
+        @Override
+        public void encode(int index, float[] vector) {
+            int offset = index * dimensions;
+            for (int d = 0; d < dimensions; d++) {
+                values[offset + d] = Float16.fromFloat(vector[d]);
+            }
+        }
+
+        @Override
+        public void move(int from, int to) {
+            System.arraycopy(values, from * dimensions, values, to * dimensions, dimensions);
+        }
+
+        @Override
+        public Object prepare(float[] query) {
+            return query;
+        }
+
+        @Override
+        public float distance(Object preparedQuery, int index) {
+            float[] query = (float[]) preparedQuery;
+            int offset = index * dimensions;
+            float sum = 0;
+            for (int d = 0; d < dimensions; d++) {
+                float diff = query[d] - Float16.toFloat(values[offset + d]);
+                sum += diff * diff;
+            }
+            return sum;
+        }
+
+        @Override
+        public long bytes() {
+            return (long) values.length * Short.BYTES;
+        }
+    }
+
+    /**
+     * int8 对称量化：每个向量一个缩放系数 scale = max|x| / 127，x ≈ code * scale
+     * ||q - x||² ≈ ||q||² - 2 * scale * (q · code) + scale² * ||code||²，||q||² 对所有向量相同，排序时省略
+     */
+    private static final class Int8Codes implements Codes {
+
+        private final int dimensions;
+        private byte[] values = new byte[0];
+        private float[] scales = new float[0];
+        private float[] squaredNorms = new float[0];
+
+        Int8Codes(int dimensions) {
+            this.dimensions = dimensions;
+        }
+
+        @Override
+        public void resize(int vectors) {
+            values = Arrays.copyOf(values, vectors * dimensions);
+            scales = Arrays.copyOf(scales, vectors);
+            squaredNorms = Arrays.copyOf(squaredNorms, vectors);
+        }
+
+        @Override
+        public void encode(int index, float[] vector) {
+            float maxAbs = 0;
+            for (float v : vector) {
+                maxAbs = Math.max(maxAbs, Math.abs(v));
+            }
+            float scale = maxAbs == 0 ? 1 : maxAbs / 127f;
+            int offset = index * dimensions;
+            long norm = 0;
+            for (int d = 0; d < dimensions; d++) {
+                int code = Math.round(vector[d] / scale);
+                values[offset + d] = (byte) code;
+                norm += (long) code * code;
+            }
+            scales[index] = scale;
+            squaredNorms[index] = scale * scale * norm;
+        }
+
+        @Override
+        public void move(int from, int to) {
+            System.arraycopy(values, from * dimensions, values, to * dimensions, dimensions);
+            scales[to] = scales[from];
+            squaredNorms[to] = squaredNorms[from];
+        }
+
+        @Override
+        public Object prepare(float[] query) {
+            return query;
+        }
+
+        @Override
+        public float distance(Object preparedQuery, int index) {
+            float[] query = (float[]) preparedQuery;
+            int offset = index * dimensions;
+            float dot = 0;
+            for (int d = 0; d < dimensions; d++) {
+                dot += query[d] * values[offset + d];
+            }
+            return squaredNorms[index] - 2 * scales[index] * dot;
+        }
+
+        @Override
+        public long bytes() {
+            return values.length + (long) scales.length * Float.BYTES * 2;
+        }
+    }
+
+    // 二值量化：每维只保留符号位，距离为汉明距离（与 pgvector 的 binary_quantize 一致，x > 0 记为 1）
+    private static final class BinaryCodes implements Codes {
+
+        private final int dimensions;
+        private final int words;
+        private long[] values = new long[0];
+
+        BinaryCodes(int dimensions) {
+            this.dimensions = dimensions;
+            this.words = (dimensions + 63) / 64;
+        }
+
+        @Override
+        public void resize(int vectors) {
+            values = Arrays.copyOf(values, vectors * words);
+        }
+
+        @Override
+        public void encode(int index, float[] vector) {
+            encodeInto(vector, values, index * words);
+        }
+
+        @Override
+        public void move(int from, int to) {
+            System.arraycopy(values, from * words, values, to * words, words);
+        }
+
+        @Override
+        public Object prepare(float[] query) {
+            long[] bits = new long[words];
+            encodeInto(query, bits, 0);
+            return bits;
+        }
+
+        @Override
+        public float distance(Object preparedQuery, int index) {
+            long[] query = (long[]) preparedQuery;
+            int offset = index * words;
+            int distance = 0;
+            for (int w = 0; w < words; w++) {
+                distance += Long.bitCount(query[w] ^ values[offset + w]);
+            }
+            return distance;
+        }
+
+        @Override
+        public long bytes() {
+            return (long) values.length * Long.BYTES;
+        }
+
+        private void encodeInto(float[] vector, long[] target, int offset) {
+            Arrays.fill(target, offset, offset + words, 0L);
+            for (int d = 0; d < dimensions; d++) {
+                if (vector[d] > 0) {
+                    target[offset + (d >>> 6)] |= 1L << (d & 63);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package com.example.demo.vector;
+
+/**
+ * 向量检索的召回档位
+ * 档位越高，HNSW 的 ef_search / IVFFlat 的 probes 越大：召回率更高，查询更慢
+ * 具体数值见 app.vector.search 配置
+ */
+public enum RecallLevel {
+    FAST,
+    BALANCED,
+    HIGH;
+
+    /**
+     * 按名称解析（忽略大小写），为空时返回默认档位
+     */
+    public static RecallLevel parse(String value, RecallLevel defaultLevel) {
+        if (value == null || value.isBlank()) {
+            return defaultLevel;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("不支持的召回档位：" + value + "，可选 fast / balanced / high");
+        }
+    }
+}
@@ -0,0 +1,319 @@
+package com.example.demo.vector;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 进程内向量存储的公共部分：把 document_chunk 复制到内存并保持同步
+ * 启动时先恢复持久化的副本（如果有），再按 ID 追平；之后靠 ChunksInsertedEvent / ChunksRemovedEvent（事务提交后）增量同步，
+ * 并定时全量比对 ID，补上事件丢失或事务乱序提交漏掉的分片。
+ * 所有修改都在该存储自己的同步线程上串行执行，子类的 apply* 方法只会在这个线程上被调用，检索由子类自行保证线程安全。
+ */
+public abstract class ReplicatedVectorStore implements VectorStore {
+
+    protected final Logger log = LoggerFactory.getLogger(getClass());
+
+    private final String name;
+    private final ChunkVectorLoader loader;
+    private final boolean enabled;
+    private final int dimensions;
+    private final int loadBatchSize;
+    private final ExecutorService syncExecutor;
+
+    private volatile boolean started;   // start() 之后提交的任务才会排在恢复 / 加载之后执行
+    private volatile long maxChunkId;   // 只在同步线程上写
+    private volatile boolean ready;
+    private volatile long loadMillis;
+    private volatile LocalDateTime lastReconcileAt;
+    private final AtomicLong added = new AtomicLong();
+    private final AtomicLong removed = new AtomicLong();
+
+    /**
+     * @param backend app.vector.backend，选中本存储时即使 enabled=false 也会加载
+     */
+    protected ReplicatedVectorStore(String name, ChunkVectorLoader loader, String backend, boolean enabled,
+                                    int dimensions, int loadBatchSize) {
+        this.name = name;
+        this.loader = loader;
+        this.enabled = enabled || name.equalsIgnoreCase(backend.trim());
+        this.dimensions = dimensions;
+        this.loadBatchSize = Math.max(1, loadBatchSize);
+        this.syncExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    @Override
+    public void add(List<VectorRecord> records) {
+        submit("写入", () -> addRecords(records));
+    }
+
+    @Override
+    public void delete(Collection<Long> chunkIds) {
+        submit("删除分片", () -> removed.addAndGet(applyDelete(chunkIds)));
+    }
+
+    @Override
+    public void deleteByDoc(Long docId) {
+        submit("删除文档分片", () -> removed.addAndGet(applyDeleteByDoc(docId == null ? -1 : docId)));
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        started = true;
+        syncExecutor.execute(() -> {
+            long begin = System.currentTimeMillis();
+            try {
+                long restored = restore();
+                // 持久化副本之后数据库被清空 / 重建过（ID 回退），副本已不可信
+                if (restored > 0 && loader.maxId() < restored) {
+                    log.warn("数据库最大分片 ID 小于 {} 副本记录的 {}，丢弃副本全量加载", name, restored);
+                    clear();
+                    restored = 0;
+                }
+                maxChunkId = restored;
+                catchUp();
+                ready = true;
+                loadMillis = System.currentTimeMillis() - begin;
+                log.info("向量存储 {} 就绪: 分片数={}, 耗时={}ms", name, size(), loadMillis);
+                reconcile();
+            } catch (Exception e) {
+                log.error("向量存储 {} 加载失败，检索继续使用 pgvector", name, e);
+            }
+        });
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onChunksInserted(ChunksInsertedEvent event) {
+        if (enabled) {
+            submit("追平新增分片", this::catchUp);
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onChunksRemoved(ChunksRemovedEvent event) {
+        if (enabled) {
+            if (event.chunkIds() != null) {
+                delete(event.chunkIds());
+            } else {
+                deleteByDoc(event.docId());
+            }
+        }
+    }
+
+    /**
+     * 定时对账：补上漏掉的新增分片，删除库里已不存在的分片
+     */
+    @Scheduled(initialDelayString = "${app.vector.sync.reconcile-interval-ms:300000}",
+            fixedDelayString = "${app.vector.sync.reconcile-interval-ms:300000}")
+    public void scheduledReconcile() {
+        if (enabled && ready) {
+            submit("对账", this::reconcile);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (enabled && ready) {
+            syncExecutor.execute(() -> {
+                try {
+                    beforeShutdown();
+                } catch (Exception e) {
+                    log.warn("向量存储 {} 关闭前处理失败: {}", name, e.getMessage(), e);
+                }
+            });
+        }
+        syncExecutor.shutdown();
+        try {
+            if (!syncExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("向量存储 {} 的同步任务未能在 30 秒内完成", name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 同步状态：是否启用 / 就绪、加载耗时、已同步的最大分片 ID、累计写入 / 删除数
+     */
+    protected Map<String, Object> syncStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", ready);
+        stats.put("size", size());
+        stats.put("loadMillis", loadMillis);
+        stats.put("maxChunkId", maxChunkId);
+        stats.put("added", added.get());
+        stats.put("removed", removed.get());
+        stats.put("lastReconcileAt", lastReconcileAt);
+        return stats;
+    }
+
+    /**
+     * 在同步线程上执行（失败只记日志），之后调用 afterChange
+     */
+    protected final void submit(String action, Runnable task) {
+        // 启动前的变更不用排队，加载时会从数据库读到最新状态
+        if (!started) {
+            return;
+        }
+        syncExecutor.execute(() -> {
+            try {
+                task.run();
+                afterChange();
+            } catch (Exception e) {
+                log.warn("向量存储 {} {}失败: {}", name, action, e.getMessage(), e);
+            }
+        });
+    }
+
+    // ---------------- 子类实现，除 size 外都只在同步线程上调用 ----------------
+
+    /**
+     * 恢复持久化的副本，返回副本覆盖到的最大分片 ID；没有副本时返回 0
+     */
+    protected long restore() {
+        return 0;
+    }
+
+    protected abstract void clear();
+
+    protected abstract int size();
+
+    protected abstract boolean contains(long chunkId);
+
+    /**
+     * 当前存活的分片 ID（调用方只读）
+     */
+    protected abstract Collection<Long> chunkIds();
+
+    /**
+     * 写入记录（已去重并校验维度）
+     */
+    protected abstract void applyAdd(List<VectorRecord> records);
+
+    /**
+     * @return 实际删除的数量
+     */
+    protected abstract int applyDelete(Collection<Long> chunkIds);
+
+    protected abstract int applyDeleteByDoc(long docId);
+
+    /**
+     * 每批修改完成后调用（例如判断是否需要压缩）
+     */
+    protected void afterChange() {
+    }
+
+    /**
+     * 应用关闭前调用（例如写快照）
+     */
+    protected void beforeShutdown() {
+    }
+
+    // ---------------- 同步 ----------------
+
+    private void addRecords(List<VectorRecord> records) {
+        List<VectorRecord> accepted = new ArrayList<>(records.size());
+        for (VectorRecord record : records) {
+            if (contains(record.chunkId())) {
+                continue;
+            }
+            if (record.vector() == null || record.vector().length != dimensions) {
+                log.warn("分片向量维度与 {} 的维度 {} 不一致，跳过: chunkId={}", name, dimensions, record.chunkId());
+                continue;
+            }
+            accepted.add(record);
+        }
+        if (!accepted.isEmpty()) {
+            applyAdd(accepted);
+            added.addAndGet(accepted.size());
+        }
+    }
+
+    // 按 ID 递增分批读取比 maxChunkId 大的分片
+    private void catchUp() {
+        while (true) {
+            List<VectorRecord> records = loader.loadAfter(maxChunkId, loadBatchSize);
+            if (records.isEmpty()) {
+                return;
+            }
+            addRecords(records);
+            maxChunkId = Math.max(maxChunkId, records.get(records.size() - 1).chunkId());
+            if (records.size() < loadBatchSize) {
+                return;
+            }
+        }
+    }
+
+    // 全量比对 ID：写入库里有但副本里没有的，删除副本里有但库里已不存在的
+    private void reconcile() {
+        long[] dbIds = loader.allIds();
+        List<Long> stale = new ArrayList<>();
+        for (Long chunkId : chunkIds()) {
+            if (Arrays.binarySearch(dbIds, chunkId) < 0) {
+                stale.add(chunkId);
+            }
+        }
+        if (!stale.isEmpty()) {
+            removed.addAndGet(applyDelete(stale));
+        }
+
+        List<Long> missing = new ArrayList<>();
+        for (long id : dbIds) {
+            if (!contains(id)) {
+                missing.add(id);
+            }
+        }
+        for (int from = 0; from < missing.size(); from += loadBatchSize) {
+            addRecords(loader.loadByIds(missing.subList(from, Math.min(missing.size(), from + loadBatchSize))));
+        }
+        if (dbIds.length > 0) {
+            maxChunkId = Math.max(maxChunkId, dbIds[dbIds.length - 1]);
+        }
+        lastReconcileAt = LocalDateTime.now();
+        if (!stale.isEmpty() || !missing.isEmpty()) {
+            log.info("向量存储 {} 对账完成: 删除={}, 补入={}", name, stale.size(), missing.size());
+        }
+    }
+}
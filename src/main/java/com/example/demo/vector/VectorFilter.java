@@ -0,0 +1,23 @@
+package com.example.demo.vector;
+
+import java.util.Set;
+
+/**
+ * 检索过滤条件：只在指定文档的分片里检索，docIds 为 null 表示不过滤
+ */
+public record VectorFilter(Set<Long> docIds) {
+
+    public static final VectorFilter NONE = new VectorFilter(null);
+
+    public static VectorFilter ofDocs(Set<Long> docIds) {
+        return docIds == null || docIds.isEmpty() ? NONE : new VectorFilter(Set.copyOf(docIds));
+    }
+
+    public boolean isEmpty() {
+        return docIds == null;
+    }
+
+    public boolean matches(long docId) {
+        return docIds == null || docIds.contains(docId);
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.demo.vector;
+
+/**
+ * 向量检索命中：分片 ID、所属文档 ID、L2 距离（与 pgvector 的 <-> 一致）
+ * 混合检索里只被关键词检索命中的分片没有向量距离，distance 为 NaN
+ */
+public record VectorHit(long chunkId, long docId, float distance) {
+}
@@ -0,0 +1,438 @@
+package com.example.demo.vector;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * document_chunk.embedding 的 ANN 索引管理
+ * 索引类型与参数来自 app.vector.index 配置：启动时若没有对应的有效索引就在后台创建；也可以通过接口按新参数重建。
+ * 重建时先 CREATE INDEX CONCURRENTLY 建一个临时名字的新索引，建好后再删旧索引、改名，期间检索不受影响。
+ * 查询时按召回档位在事务内 SET LOCAL hnsw.ef_search / ivfflat.probes（见 {@link #searchSetting}）。
+ * 索引可以建在压缩后的向量上（app.vector.index.quantization = half / binary，表达式索引），
+ * 表里仍保存全精度向量，检索时先在压缩索引上多取候选，再用全精度距离精排（见 PgVectorStore）。
+ */
+@Component
+public class VectorIndexManager {
+
+    private static final Logger log = LoggerFactory.getLogger(VectorIndexManager.class);
+
+    public static final String INDEX_NAME = "idx_document_chunk_embedding";
+    private static final String BUILDING_INDEX_NAME = INDEX_NAME + "_new";
+
+    private static final String LIST_INDEXES_SQL =
+            "SELECT c.relname AS name, am.amname AS method, i.indisvalid AS valid, " +
+            "pg_relation_size(c.oid) AS size_bytes, pg_size_pretty(pg_relation_size(c.oid)) AS size, " +
+            "COALESCE(s.idx_scan, 0) AS scans, pg_get_indexdef(c.oid) AS definition " +
+            "FROM pg_index i " +
+            "JOIN pg_class c ON c.oid = i.indexrelid " +
+            "JOIN pg_am am ON am.oid = c.relam " +
+            "LEFT JOIN pg_stat_user_indexes s ON s.indexrelid = i.indexrelid " +
+            "WHERE i.indrelid = to_regclass('document_chunk') AND am.amname IN ('hnsw', 'ivfflat') " +
+            "ORDER BY c.relname";
+
+    private static final String BUILD_PROGRESS_SQL =
+            "SELECT p.phase, p.blocks_done, p.blocks_total, p.tuples_done, p.tuples_total, c.relname AS index_name " +
+            "FROM pg_stat_progress_create_index p " +
+            "LEFT JOIN pg_class c ON c.oid = p.index_relid " +
+            "WHERE p.relid = to_regclass('document_chunk')";
+
+    private static final String ROW_ESTIMATE_SQL =
+            "SELECT COALESCE((SELECT reltuples::bigint FROM pg_class WHERE oid = to_regclass('document_chunk')), 0)";
+
+    public enum IndexType { HNSW, IVFFLAT, NONE }
+
+    /**
+     * 索引参数：HNSW 用 m / efConstruction，IVFFlat 用 lists（0 表示按行数自动计算），quantization 为索引里向量的压缩方式
+     */
+    public record IndexSpec(IndexType type, int m, int efConstruction, int lists, Quantization quantization) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ExecutorService buildExecutor;
+
+    private final IndexSpec configuredSpec;
+    private final int dimensions;
+    private final boolean autoCreate;
+    private final String maintenanceWorkMem;
+    private final int parallelWorkers;
+    private final Map<RecallLevel, Integer> efSearch;
+    private final Map<RecallLevel, Integer> probes;
+    private final RecallLevel defaultRecall;
+
+    // 当前生效的索引类型，决定查询时设置哪个参数
+    private volatile IndexType activeType = IndexType.NONE;
+    // 当前索引建在哪种压缩向量上，决定查询时 ORDER BY 用哪个表达式
+    private volatile Quantization activeQuantization = Quantization.NONE;
+
+    private final Object buildLock = new Object();
+    private boolean building;
+    private IndexSpec lastSpec;
+    private LocalDateTime lastStartedAt;
+    private LocalDateTime lastFinishedAt;
+    private Long lastBuildMillis;
+    private String lastError;
+
+    public VectorIndexManager(JdbcTemplate jdbcTemplate,
+                              @Value("${app.vector.index.type:hnsw}") String type,
+                              @Value("${app.vector.index.auto-create:true}") boolean autoCreate,
+                              @Value("${app.vector.index.hnsw.m:16}") int m,
+                              @Value("${app.vector.index.hnsw.ef-construction:64}") int efConstruction,
+                              @Value("${app.vector.index.ivfflat.lists:0}") int lists,
+                              @Value("${app.vector.index.quantization:none}") String quantization,
+                              @Value("${app.vector.dimensions:1536}") int dimensions,
+                              @Value("${app.vector.index.maintenance-work-mem:512MB}") String maintenanceWorkMem,
+                              @Value("${app.vector.index.parallel-workers:2}") int parallelWorkers,
+                              @Value("${app.vector.search.ef-search.fast:40}") int efSearchFast,
+                              @Value("${app.vector.search.ef-search.balanced:100}") int efSearchBalanced,
+                              @Value("${app.vector.search.ef-search.high:300}") int efSearchHigh,
+                              @Value("${app.vector.search.probes.fast:1}") int probesFast,
+                              @Value("${app.vector.search.probes.balanced:10}") int probesBalanced,
+                              @Value("${app.vector.search.probes.high:40}") int probesHigh,
+                              @Value("${app.vector.search.default-recall:balanced}") String defaultRecall) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.configuredSpec = new IndexSpec(parseType(type), m, efConstruction, lists, parseQuantization(quantization));
+        this.dimensions = dimensions;
+        this.autoCreate = autoCreate;
+        this.maintenanceWorkMem = maintenanceWorkMem;
+        this.parallelWorkers = parallelWorkers;
+        this.efSearch = Map.of(RecallLevel.FAST, efSearchFast, RecallLevel.BALANCED, efSearchBalanced, RecallLevel.HIGH, efSearchHigh);
+        this.probes = Map.of(RecallLevel.FAST, probesFast, RecallLevel.BALANCED, probesBalanced, RecallLevel.HIGH, probesHigh);
+        this.defaultRecall = RecallLevel.parse(defaultRecall, RecallLevel.BALANCED);
+        this.buildExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "vector-index-build");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static IndexType parseType(String type) {
+        try {
+            return IndexType.valueOf(type.trim().toUpperCase());
+        } catch (IllegalArgumentException | NullPointerException e) {
+            throw new IllegalArgumentException("不支持的向量索引类型：" + type + "，可选 hnsw / ivfflat / none");
+        }
+    }
+
+    /**
+     * 索引的压缩方式：pgvector 支持 halfvec 和 bit（binary_quantize），没有 int8 向量类型
+     */
+    public static Quantization parseQuantization(String quantization) {
+        Quantization result = Quantization.parse(quantization, Quantization.NONE);
+        if (result == Quantization.INT8) {
+            throw new IllegalArgumentException("pgvector 索引不支持 int8 量化，可选 none / half / binary（int8 可用进程内的 quantized 存储）");
+        }
+        return result;
+    }
+
+    public IndexSpec getConfiguredSpec() {
+        return configuredSpec;
+    }
+
+    public RecallLevel getDefaultRecall() {
+        return defaultRecall;
+    }
+
+    public Quantization getActiveQuantization() {
+        return activeQuantization;
+    }
+
+    public int getDimensions() {
+        return dimensions;
+    }
+
+    /**
+     * 启动后检查索引：没有与配置类型一致的有效索引时在后台创建
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void ensureIndex() {
+        try {
+            List<Map<String, Object>> indexes = listIndexes();
+            activeType = activeTypeOf(indexes);
+            activeQuantization = activeQuantizationOf(indexes);
+            if (!autoCreate || configuredSpec.type() == IndexType.NONE) {
+                return;
+            }
+            if (configuredSpec.type() == IndexType.IVFFLAT && estimatedRows() <= 0) {
+                log.info("document_chunk 暂无数据，IVFFlat 索引等入库后再通过接口创建");
+                return;
+            }
+            if (activeType != configuredSpec.type() || activeQuantization != configuredSpec.quantization()) {
+                log.info("未找到 {}（量化方式 {}）向量索引，开始后台创建", configuredSpec.type(), configuredSpec.quantization());
+                rebuild(configuredSpec);
+            }
+        } catch (Exception e) {
+            log.warn("检查向量索引失败: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * 按给定参数在后台重建索引
+     * @return false 表示已有索引正在构建
+     */
+    public boolean rebuild(IndexSpec spec) {
+        synchronized (buildLock) {
+            if (building) {
+                return false;
+            }
+            building = true;
+            lastSpec = spec;
+            lastStartedAt = LocalDateTime.now();
+            lastFinishedAt = null;
+            lastBuildMillis = null;
+            lastError = null;
+        }
+        buildExecutor.execute(() -> runBuild(spec));
+        return true;
+    }
+
+    /**
+     * 召回档位对应的 ef_search（进程内 HNSW 索引也使用同一组配置）
+     */
+    public int getEfSearch(RecallLevel recall) {
+        return efSearch.get(recall);
+    }
+
+    /**
+     * 检索前要在同一事务里执行的参数设置语句；没有 ANN 索引时返回 null
+     * HNSW 每次最多返回 ef_search 条结果，所以 ef_search 不小于 limit
+     */
+    public String searchSetting(RecallLevel recall, int limit) {
+        return switch (activeType) {
+            case HNSW -> "SET LOCAL hnsw.ef_search = " + Math.min(1000, Math.max(limit, efSearch.get(recall)));
+            case IVFFLAT -> "SET LOCAL ivfflat.probes = " + probes.get(recall);
+            case NONE -> null;
+        };
+    }
+
+    /**
+     * 索引状态：当前索引（类型、是否有效、大小、扫描次数）、构建进度、最近一次构建的结果
+     */
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("configured", configuredSpec);
+        status.put("activeType", activeType);
+        status.put("activeQuantization", activeQuantization);
+        status.put("estimatedRows", estimatedRows());
+        status.put("indexes", listIndexes());
+        synchronized (buildLock) {
+            status.put("building", building);
+            Map<String, Object> lastBuild = new LinkedHashMap<>();
+            lastBuild.put("spec", lastSpec);
+            lastBuild.put("startedAt", lastStartedAt);
+            lastBuild.put("finishedAt", lastFinishedAt);
+            lastBuild.put("millis", lastBuildMillis);
+            lastBuild.put("error", lastError);
+            status.put("lastBuild", lastBuild);
+        }
+        status.put("progress", buildProgress());
+        return status;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        buildExecutor.shutdownNow();
+    }
+
+    private void runBuild(IndexSpec spec) {
+        long start = System.currentTimeMillis();
+        String error = null;
+        try {
+            build(spec);
+            log.info("向量索引构建完成: {}, 耗时={}ms", spec, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            error = e.getMessage();
+            log.error("向量索引构建失败: {}", spec, e);
+        } finally {
+            List<Map<String, Object>> indexes = listIndexesQuietly();
+            activeType = activeTypeOf(indexes);
+            activeQuantization = activeQuantizationOf(indexes);
+            synchronized (buildLock) {
+                building = false;
+                lastFinishedAt = LocalDateTime.now();
+                lastBuildMillis = System.currentTimeMillis() - start;
+                lastError = error;
+            }
+        }
+    }
+
+    private void build(IndexSpec spec) {
+        List<String> oldIndexes = new ArrayList<>();
+        for (Map<String, Object> index : listIndexes()) {
+            oldIndexes.add((String) index.get("name"));
+        }
+
+        String createSql = spec.type() == IndexType.NONE ? null : createIndexSql(spec);
+        // CREATE / DROP INDEX CONCURRENTLY 不能在事务里执行，连接保持自动提交；会话参数用完后复位再还给连接池
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                if (createSql != null) {
+                    statement.execute("SET maintenance_work_mem = '" + maintenanceWorkMem.replace("'", "") + "'");
+                    statement.execute("SET max_parallel_maintenance_workers = " + parallelWorkers);
+                    // 上次构建中断留下的无效索引
+                    statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + BUILDING_INDEX_NAME);
+                    statement.execute(createSql);
+                }
+                for (String oldIndex : oldIndexes) {
+                    if (!oldIndex.equals(BUILDING_INDEX_NAME)) {
+                        statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + oldIndex);
+                    }
+                }
+                if (createSql != null) {
+                    statement.execute("ALTER INDEX " + BUILDING_INDEX_NAME + " RENAME TO " + INDEX_NAME);
+                }
+            } finally {
+                try (Statement reset = connection.createStatement()) {
+                    reset.execute("RESET maintenance_work_mem");
+                    reset.execute("RESET max_parallel_maintenance_workers");
+                }
+            }
+            return null;
+        });
+    }
+
+    private String createIndexSql(IndexSpec spec) {
+        String prefix = "CREATE INDEX CONCURRENTLY " + BUILDING_INDEX_NAME + " ON document_chunk USING ";
+        if (spec.type() == IndexType.HNSW) {
+            return prefix + "hnsw (" + indexColumn(spec.quantization()) + ") " +
+                    "WITH (m = " + spec.m() + ", ef_construction = " + spec.efConstruction() + ")";
+        }
+        long rows = estimatedRows();
+        if (rows <= 0) {
+            throw new IllegalStateException("document_chunk 没有数据，IVFFlat 需要已有数据来训练聚类中心，请入库后再建索引");
+        }
+        // pgvector 建议：100 万行以内 lists = 行数 / 1000，以上 lists = sqrt(行数)
+        int lists = spec.lists() > 0 ? spec.lists()
+                : (int) Math.max(1, rows <= 1_000_000 ? rows / 1000 : Math.sqrt(rows));
+        return prefix + "ivfflat (" + indexColumn(spec.quantization()) + ") WITH (lists = " + lists + ")";
+    }
+
+    // 索引列（表达式）和操作符类；表达式必须与 PgVectorStore 的 ORDER BY 完全一致才会走索引
+    private String indexColumn(Quantization quantization) {
+        return switch (quantization) {
+            case HALF -> "(" + quantizedExpression(Quantization.HALF, "embedding", dimensions) + ") halfvec_l2_ops";
+            case BINARY -> "(" + quantizedExpression(Quantization.BINARY, "embedding", dimensions) + ") bit_hamming_ops";
+            default -> "embedding vector_l2_ops";
+        };
+    }
+
+    /**
+     * 压缩后的向量表达式（建索引和查询共用）
+     */
+    public static String quantizedExpression(Quantization quantization, String vector, int dimensions) {
+        return switch (quantization) {
+            case HALF -> "CAST(" + vector + " AS halfvec(" + dimensions + "))";
+            case BINARY -> "CAST(binary_quantize(" + vector + ") AS bit(" + dimensions + "))";
+            default -> vector;
+        };
+    }
+
+    /**
+     * 与压缩表达式对应的距离操作符：halfvec 用 L2（<->），bit 用汉明距离（<~>）
+     */
+    public static String quantizedOperator(Quantization quantization) {
+        return quantization == Quantization.BINARY ? "<~>" : "<->";
+    }
+
+    /**
+     * 向量占用估算：全精度 / 压缩后的向量字节数，以及当前 ANN 索引的实际大小
+     */
+    public Map<String, Object> memoryReport() {
+        long rows = estimatedRows();
+        long indexBytes = 0;
+        for (Map<String, Object> index : listIndexes()) {
+            if (INDEX_NAME.equals(index.get("name"))) {
+                indexBytes = ((Number) index.get("size_bytes")).longValue();
+            }
+        }
+        long fullBytes = rows * Quantization.NONE.bytesPerVector(dimensions);
+        long quantizedBytes = rows * activeQuantization.bytesPerVector(dimensions);
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("quantization", activeQuantization);
+        report.put("estimatedRows", rows);
+        report.put("indexBytes", indexBytes);
+        report.put("fullPrecisionVectorBytes", fullBytes);
+        report.put("indexedVectorBytes", quantizedBytes);
+        report.put("savedBytes", fullBytes - quantizedBytes);
+        report.put("compressionRatio", quantizedBytes == 0 ? 1.0 : (double) fullBytes / quantizedBytes);
+        return report;
+    }
+
+    private List<Map<String, Object>> listIndexes() {
+        return jdbcTemplate.queryForList(LIST_INDEXES_SQL);
+    }
+
+    private List<Map<String, Object>> listIndexesQuietly() {
+        try {
+            return listIndexes();
+        } catch (Exception e) {
+            log.warn("读取向量索引信息失败: {}", e.getMessage());
+            return List.of();
+        }
+    }
+
+    private IndexType activeTypeOf(List<Map<String, Object>> indexes) {
+        for (Map<String, Object> index : indexes) {
+            if (INDEX_NAME.equals(index.get("name")) && Boolean.TRUE.equals(index.get("valid"))) {
+                return parseType((String) index.get("method"));
+            }
+        }
+        return IndexType.NONE;
+    }
+
+    private Quantization activeQuantizationOf(List<Map<String, Object>> indexes) {
+        for (Map<String, Object> index : indexes) {
+            if (INDEX_NAME.equals(index.get("name")) && Boolean.TRUE.equals(index.get("valid"))) {
+                String definition = String.valueOf(index.get("definition"));
+                if (definition.contains("binary_quantize")) {
+                    return Quantization.BINARY;
+                }
+                if (definition.contains("halfvec")) {
+                    return Quantization.HALF;
+                }
+            }
+        }
+        return Quantization.NONE;
+    }
+
+    private long estimatedRows() {
+        Long rows = jdbcTemplate.queryForObject(ROW_ESTIMATE_SQL, Long.class);
+        return rows == null ? 0 : rows;
+    }
+
+    // 正在构建时返回 pg_stat_progress_create_index 的阶段与完成比例
+    private Map<String, Object> buildProgress() {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(BUILD_PROGRESS_SQL);
+        if (rows.isEmpty()) {
+            return null;
+        }
+        Map<String, Object> progress = new LinkedHashMap<>(rows.get(0));
+        long tuplesTotal = ((Number) progress.get("tuples_total")).longValue();
+        long blocksTotal = ((Number) progress.get("blocks_total")).longValue();
+        double percent;
+        if (tuplesTotal > 0) {
+            percent = ((Number) progress.get("tuples_done")).longValue() * 100.0 / tuplesTotal;
+        } else if (blocksTotal > 0) {
+            percent = ((Number) progress.get("blocks_done")).longValue() * 100.0 / blocksTotal;
+        } else {
+            percent = 0;
+        }
+        progress.put("percent", Math.round(percent * 10) / 10.0);
+        return progress;
+    }
+}
@@ -0,0 +1,7 @@
+package com.example.demo.vector;
+
+/**
+ * 写入向量存储的一条记录
+ */
+public record VectorRecord(long chunkId, long docId, float[] vector) {
+}
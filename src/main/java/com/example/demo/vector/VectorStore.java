@@ -0,0 +1,54 @@
+package com.example.demo.vector;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 向量存储：按 L2 距离检索分片
+ * document_chunk 是唯一的数据来源，进程内的实现（HNSW / 暴力检索）是它的副本，
+ * 由 DocumentChunkJdbcRepository 发布的事件和定时对账保持同步；add / delete 供手动补写使用
+ */
+public interface VectorStore {
+
+    /**
+     * 后端名称，与 app.vector.backend 的取值一致
+     */
+    String name();
+
+    /**
+     * 是否已加载完成、可以检索
+     */
+    boolean isReady();
+
+    void add(List<VectorRecord> records);
+
+    void delete(Collection<Long> chunkIds);
+
+    void deleteByDoc(Long docId);
+
+    /**
+     * 检索最相似的 topK 个分片，按距离升序
+     * @param recall 召回档位（精确检索的后端忽略），为 null 时使用默认档位
+     */
+    List<VectorHit> search(float[] query, int topK, RecallLevel recall, VectorFilter filter);
+
+    default List<VectorHit> search(float[] query, int topK) {
+        return search(query, topK, null, VectorFilter.NONE);
+    }
+
+    /**
+     * 批量检索：每个查询向量各自的 topK，结果与 queries 一一对应
+     * 默认逐个调用 search；pgvector 覆盖为一条 SQL
+     */
+    default List<List<VectorHit>> searchBatch(List<float[]> queries, int topK, RecallLevel recall, VectorFilter filter) {
+        List<List<VectorHit>> results = new ArrayList<>(queries.size());
+        for (float[] query : queries) {
+            results.add(search(query, topK, recall, filter));
+        }
+        return results;
+    }
+
+    Map<String, Object> stats();
+}
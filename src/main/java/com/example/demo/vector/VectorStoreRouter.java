@@ -0,0 +1,158 @@
+package com.example.demo.vector;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.stereotype.Component;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 按 app.vector.backend 选择检索使用的向量存储（pgvector / hnsw / brute-force / quantized），
+ * 选中的进程内存储还没加载完成时退回 pgvector。业务代码注入 VectorStore 时拿到的就是它。
+ */
+@Primary
+@Component
+public class VectorStoreRouter implements VectorStore {
+
+    private final PgVectorStore pgVectorStore;
+    private final Map<String, VectorStore> stores = new LinkedHashMap<>();
+    private final VectorStore configured;
+    private final BruteForceVectorStore bruteForceVectorStore;
+    private final QuantizedVectorStore quantizedVectorStore;
+
+    public VectorStoreRouter(PgVectorStore pgVectorStore,
+                             HnswVectorIndex hnswVectorIndex,
+                             BruteForceVectorStore bruteForceVectorStore,
+                             QuantizedVectorStore quantizedVectorStore,
+                             @Value("${app.vector.backend:pgvector}") String backend) {
+        this.pgVectorStore = pgVectorStore;
+        this.bruteForceVectorStore = bruteForceVectorStore;
+        this.quantizedVectorStore = quantizedVectorStore;
+        stores.put(pgVectorStore.name(), pgVectorStore);
+        stores.put(hnswVectorIndex.name(), hnswVectorIndex);
+        stores.put(bruteForceVectorStore.name(), bruteForceVectorStore);
+        stores.put(quantizedVectorStore.name(), quantizedVectorStore);
+        this.configured = stores.get(backend.trim().toLowerCase());
+        if (configured == null) {
+            throw new IllegalArgumentException("不支持的向量检索后端：" + backend + "，可选 " + String.join(" / ", stores.keySet()));
+        }
+    }
+
+    /**
+     * 当前实际用于检索的存储
+     */
+    public VectorStore active() {
+        return configured.isReady() ? configured : pgVectorStore;
+    }
+
+    @Override
+    public String name() {
+        return active().name();
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    // 进程内的存储由事件同步，这里的写入转发给所有存储（pgvector 为空操作）
+    @Override
+    public void add(List<VectorRecord> records) {
+        stores.values().forEach(store -> store.add(records));
+    }
+
+    @Override
+    public void delete(Collection<Long> chunkIds) {
+        stores.values().forEach(store -> store.delete(chunkIds));
+    }
+
+    @Override
+    public void deleteByDoc(Long docId) {
+        stores.values().forEach(store -> store.deleteByDoc(docId));
+    }
+
+    @Override
+    public List<VectorHit> search(float[] query, int topK, RecallLevel recall, VectorFilter filter) {
+        return active().search(query, topK, recall, filter);
+    }
+
+    @Override
+    public List<List<VectorHit>> searchBatch(List<float[]> queries, int topK, RecallLevel recall, VectorFilter filter) {
+        return active().searchBatch(queries, topK, recall, filter);
+    }
+
+    /**
+     * 召回率测试：随机取暴力检索存储里的向量作为查询，以它的精确结果为基准，计算其它已就绪后端的 recall@k
+     */
+    public Map<String, Object> measureRecall(int samples, int topK, RecallLevel recall) {
+        if (!bruteForceVectorStore.isReady()) {
+            throw new IllegalArgumentException("召回率测试需要启用 brute-force 存储（app.vector.brute-force.enabled=true）");
+        }
+        List<float[]> queries = bruteForceVectorStore.sampleVectors(samples);
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("samples", queries.size());
+        result.put("topK", topK);
+        result.put("recall", recall);
+        for (VectorStore store : stores.values()) {
+            if (store == bruteForceVectorStore || !store.isReady()) {
+                continue;
+            }
+            long hits = 0;
+            long expected = 0;
+            long micros = 0;
+            for (float[] query : queries) {
+                Set<Long> truth = new HashSet<>();
+                bruteForceVectorStore.search(query, topK, null, VectorFilter.NONE).forEach(hit -> truth.add(hit.chunkId()));
+                long start = System.nanoTime();
+                List<VectorHit> found = store.search(query, topK, recall, VectorFilter.NONE);
+                micros += (System.nanoTime() - start) / 1000;
+                hits += found.stream().filter(hit -> truth.contains(hit.chunkId())).count();
+                expected += truth.size();
+            }
+            Map<String, Object> storeResult = new LinkedHashMap<>();
+            storeResult.put("recall", expected == 0 ? null : hits * 1.0 / expected);
+            storeResult.put("avgSearchMicros", queries.isEmpty() ? 0 : micros / queries.size());
+            result.put(store.name(), storeResult);
+        }
+        return result;
+    }
+
+    /**
+     * 压缩存储报告：pgvector 索引与进程内 quantized 存储的内存占用；brute-force 已就绪时附带各后端相对精确检索的 recall@k
+     */
+    public Map<String, Object> quantizationReport(int samples, int topK, RecallLevel recall) {
+        Map<String, Object> memory = new LinkedHashMap<>();
+        memory.put(pgVectorStore.name(), pgVectorStore.memoryReport());
+        if (quantizedVectorStore.isEnabled()) {
+            memory.put(quantizedVectorStore.name(), quantizedVectorStore.memoryReport());
+        }
+        Map<String, Object> report = new LinkedHashMap<>();
+        report.put("memory", memory);
+        if (bruteForceVectorStore.isReady()) {
+            report.put("recall", measureRecall(samples, topK, recall));
+        } else {
+            report.put("recall", null);
+            report.put("note", "启用 brute-force 存储（app.vector.brute-force.enabled=true）后才能计算 recall@k");
+        }
+        return report;
+    }
+
+    /**
+     * 配置的后端、实际使用的后端，以及各存储的状态
+     */
+    @Override
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("configured", configured.name());
+        stats.put("active", active().name());
+        for (VectorStore store : stores.values()) {
+            stats.put(store.name(), store.stats());
+        }
+        return stats;
+    }
+}
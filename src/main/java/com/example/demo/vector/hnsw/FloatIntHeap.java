@@ -0,0 +1,110 @@
+package com.example.demo.vector.hnsw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * (float 距离, int 序号) 的二叉堆，避免检索时装箱和创建对象
+ * min 堆用作候选队列，max 堆用作“当前最好的 ef 个结果”
+ */
+final class FloatIntHeap {
+
+    private final boolean max;
+    private float[] keys;
+    private int[] values;
+    private int size;
+
+    private FloatIntHeap(boolean max, int initialCapacity) {
+        this.max = max;
+        int capacity = Math.max(4, initialCapacity);
+        this.keys = new float[capacity];
+        this.values = new int[capacity];
+    }
+
+    static FloatIntHeap min(int initialCapacity) {
+        return new FloatIntHeap(false, initialCapacity);
+    }
+
+    static FloatIntHeap max(int initialCapacity) {
+        return new FloatIntHeap(true, initialCapacity);
+    }
+
+    int size() {
+        return size;
+    }
+
+    void push(float key, int value) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (!before(key, keys[parent])) {
+                break;
+            }
+            keys[i] = keys[parent];
+            values[i] = values[parent];
+            i = parent;
+        }
+        keys[i] = key;
+        values[i] = value;
+    }
+
+    float peekKey() {
+        return keys[0];
+    }
+
+    /**
+     * 弹出堆顶，返回它的序号
+     */
+    int pop() {
+        int top = values[0];
+        size--;
+        if (size > 0) {
+            float key = keys[size];
+            int value = values[size];
+            int i = 0;
+            int half = size >>> 1;
+            while (i < half) {
+                int child = 2 * i + 1;
+                int right = child + 1;
+                if (right < size && before(keys[right], keys[child])) {
+                    child = right;
+                }
+                if (!before(keys[child], key)) {
+                    break;
+                }
+                keys[i] = keys[child];
+                values[i] = values[child];
+                i = child;
+            }
+            keys[i] = key;
+            values[i] = value;
+        }
+        return top;
+    }
+
+    /**
+     * 按距离从近到远返回所有序号（不修改堆）
+     */
+    List<Integer> sortedAscending() {
+        long[] packed = new long[size];
+        for (int i = 0; i < size; i++) {
+            // 非负 float 的 bit 表示与数值大小顺序一致，拼成 long 一次排序
+            packed[i] = ((long) Float.floatToRawIntBits(keys[i]) << 32) | (values[i] & 0xffffffffL);
+        }
+        Arrays.sort(packed);
+        List<Integer> sorted = new ArrayList<>(size);
+        for (long entry : packed) {
+            sorted.add((int) entry);
+        }
+        return sorted;
+    }
+
+    private boolean before(float a, float b) {
+        return max ? a > b : a < b;
+    }
+}
@@ -0,0 +1,409 @@
+package com.example.demo.vector.hnsw;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.LongPredicate;
+
+/**
+ * HNSW 图（L2 距离）
+ * 向量存放在 {@link OffHeapVectors}；每个节点每层的邻居是一个 int[]，修改时整体替换（写时复制），
+ * 所以检索线程不需要加锁，插入在检索进行中也能安全执行。插入 / 删除只能由一个线程调用。
+ * 删除只打墓碑：节点仍参与图的遍历，但不出现在结果里；墓碑太多时由调用方重建整张图。
+ * 按文档过滤的检索也用同样的方式：不满足条件的节点照常遍历，只是不进入结果。
+ */
+public final class HnswGraph {
+
+    private static final int[] NO_NEIGHBORS = new int[0];
+
+    private final OffHeapVectors vectors;
+    private final int m;
+    private final int maxConnections0;   // 第 0 层邻居上限（2M）
+    private final int efConstruction;
+    private final double levelMultiplier;
+
+    private volatile Node[] nodes;
+    private volatile int size;                 // 已发布（可被检索到）的节点数
+    private volatile EntryPoint entryPoint;    // 入口节点与最高层，一起发布
+    private final AtomicInteger deletedCount = new AtomicInteger();
+
+    public HnswGraph(OffHeapVectors vectors, int m, int efConstruction) {
+        this.vectors = vectors;
+        this.m = Math.max(2, m);
+        this.maxConnections0 = this.m * 2;
+        this.efConstruction = Math.max(this.m, efConstruction);
+        this.levelMultiplier = 1 / Math.log(this.m);
+        this.nodes = new Node[Math.max(16, vectors.size())];
+    }
+
+    public OffHeapVectors vectors() {
+        return vectors;
+    }
+
+    public int m() {
+        return m;
+    }
+
+    public int efConstruction() {
+        return efConstruction;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int deletedCount() {
+        return deletedCount.get();
+    }
+
+    public Node node(int ordinal) {
+        return nodes[ordinal];
+    }
+
+    public EntryPoint entryPoint() {
+        return entryPoint;
+    }
+
+    /**
+     * 插入一个向量，返回节点序号
+     */
+    public int insert(long chunkId, long docId, float[] vector) {
+        int level = randomLevel();
+        int ordinal = vectors.add(vector);
+        Node node = new Node(chunkId, docId, level);
+        ensureCapacity(ordinal + 1);
+        nodes[ordinal] = node;
+
+        EntryPoint entry = entryPoint;
+        if (entry == null) {
+            size = ordinal + 1;
+            entryPoint = new EntryPoint(ordinal, level);
+            return ordinal;
+        }
+
+        int current = entry.ordinal();
+        float currentDistance = vectors.distance(current, vector);
+        for (int l = entry.level(); l > level; l--) {
+            int[] greedy = greedySearch(vector, current, currentDistance, l);
+            current = greedy[0];
+            currentDistance = Float.intBitsToFloat(greedy[1]);
+        }
+
+        for (int l = Math.min(level, entry.level()); l >= 0; l--) {
+            List<Integer> candidates = searchLayer(vector, current, efConstruction, l, false, null).sortedAscending();
+            int maxConnections = l == 0 ? maxConnections0 : m;
+            int[] neighbors = selectNeighbors(candidates, m, vector);
+            node.links.set(l, neighbors);
+            for (int neighbor : neighbors) {
+                connect(neighbor, ordinal, l, maxConnections);
+            }
+            if (!candidates.isEmpty()) {
+                current = candidates.get(0);
+            }
+        }
+
+        size = Math.max(size, ordinal + 1);
+        if (level > entry.level()) {
+            entryPoint = new EntryPoint(ordinal, level);
+        }
+        return ordinal;
+    }
+
+    /**
+     * 加载快照时按原样恢复节点（邻居稍后用 {@link #setLinks} 设置）
+     */
+    public void restoreNode(int ordinal, long chunkId, long docId, int level, boolean deleted) {
+        ensureCapacity(ordinal + 1);
+        Node node = new Node(chunkId, docId, level);
+        node.deleted = deleted;
+        if (deleted) {
+            deletedCount.incrementAndGet();
+        }
+        nodes[ordinal] = node;
+    }
+
+    public void setLinks(int ordinal, int level, int[] neighbors) {
+        nodes[ordinal].links.set(level, neighbors);
+    }
+
+    public void restoreFinished(int count, EntryPoint entry) {
+        size = count;
+        entryPoint = entry;
+    }
+
+    /**
+     * 打墓碑
+     * @return 之前未删除时返回 true
+     */
+    public boolean markDeleted(int ordinal) {
+        Node node = nodes[ordinal];
+        if (node == null || node.deleted) {
+            return false;
+        }
+        node.deleted = true;
+        deletedCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * 检索最近的 k 个未删除节点，ef 越大召回越高
+     */
+    public List<Hit> search(float[] query, int k, int ef) {
+        return search(query, k, ef, null);
+    }
+
+    /**
+     * 只返回 docFilter 接受的节点（为 null 时不过滤）
+     * 过滤条件很严格时，结果堆迟迟填不满，搜索会扩展到更多节点，最坏退化为遍历整张图
+     */
+    public List<Hit> search(float[] query, int k, int ef, LongPredicate docFilter) {
+        EntryPoint entry = entryPoint;
+        if (entry == null || k <= 0) {
+            return List.of();
+        }
+        int current = entry.ordinal();
+        float currentDistance = vectors.distance(current, query);
+        for (int l = entry.level(); l > 0; l--) {
+            int[] greedy = greedySearch(query, current, currentDistance, l);
+            current = greedy[0];
+            currentDistance = Float.intBitsToFloat(greedy[1]);
+        }
+        FloatIntHeap results = searchLayer(query, current, Math.max(ef, k), 0, true, docFilter);
+        List<Integer> ordered = results.sortedAscending();
+        List<Hit> hits = new ArrayList<>(Math.min(k, ordered.size()));
+        for (int i = 0; i < ordered.size() && hits.size() < k; i++) {
+            int ordinal = ordered.get(i);
+            Node node = nodes[ordinal];
+            hits.add(new Hit(ordinal, node.chunkId, node.docId, (float) Math.sqrt(vectors.distance(ordinal, query))));
+        }
+        return hits;
+    }
+
+    /**
+     * 精确检索（遍历所有未删除节点），用于抽样估算召回率
+     */
+    public List<Hit> exactSearch(float[] query, int k) {
+        return exactSearch(query, k, null);
+    }
+
+    public List<Hit> exactSearch(float[] query, int k, LongPredicate docFilter) {
+        int count = size;
+        FloatIntHeap best = FloatIntHeap.max(k + 1);
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            Node node = nodes[ordinal];
+            if (node == null || !accepts(node, docFilter)) {
+                continue;
+            }
+            float distance = vectors.distance(ordinal, query);
+            if (best.size() < k) {
+                best.push(distance, ordinal);
+            } else if (distance < best.peekKey()) {
+                best.pop();
+                best.push(distance, ordinal);
+            }
+        }
+        List<Hit> hits = new ArrayList<>(best.size());
+        for (int ordinal : best.sortedAscending()) {
+            Node node = nodes[ordinal];
+            hits.add(new Hit(ordinal, node.chunkId, node.docId, (float) Math.sqrt(vectors.distance(ordinal, query))));
+        }
+        return hits;
+    }
+
+    // 在第 level 层从 start 出发贪心走到局部最近点，返回 {节点, 距离的 bit 表示}
+    private int[] greedySearch(float[] query, int start, float startDistance, int level) {
+        int current = start;
+        float currentDistance = startDistance;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int neighbor : neighborsOf(current, level)) {
+                float distance = vectors.distance(neighbor, query);
+                if (distance < currentDistance) {
+                    current = neighbor;
+                    currentDistance = distance;
+                    changed = true;
+                }
+            }
+        }
+        return new int[]{current, Float.floatToRawIntBits(currentDistance)};
+    }
+
+    /**
+     * 在某一层做 ef 宽度的最佳优先搜索，返回最近的 ef 个节点（最大堆）
+     * filterResults 时墓碑节点和被 docFilter 排除的节点照常扩展，但不放进结果
+     */
+    private FloatIntHeap searchLayer(float[] query, int start, int ef, int level,
+                                     boolean filterResults, LongPredicate docFilter) {
+        BitSet visited = new BitSet(size + 1);
+        FloatIntHeap candidates = FloatIntHeap.min(ef * 2);
+        FloatIntHeap results = FloatIntHeap.max(ef + 1);
+
+        float startDistance = vectors.distance(start, query);
+        visited.set(start);
+        candidates.push(startDistance, start);
+        if (!filterResults || accepts(nodes[start], docFilter)) {
+            results.push(startDistance, start);
+        }
+
+        while (candidates.size() > 0) {
+            float candidateDistance = candidates.peekKey();
+            if (results.size() >= ef && candidateDistance > results.peekKey()) {
+                break;
+            }
+            int candidate = candidates.pop();
+            for (int neighbor : neighborsOf(candidate, level)) {
+                if (visited.get(neighbor)) {
+                    continue;
+                }
+                visited.set(neighbor);
+                float distance = vectors.distance(neighbor, query);
+                if (results.size() < ef || distance < results.peekKey()) {
+                    candidates.push(distance, neighbor);
+                    if (filterResults && !accepts(nodes[neighbor], docFilter)) {
+                        continue;
+                    }
+                    results.push(distance, neighbor);
+                    if (results.size() > ef) {
+                        results.pop();
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * 启发式选邻居：按距离从近到远，只保留比已选邻居都更靠近新节点的候选（保持图的连通和方向多样性），
+     * 不够 max 个时再用被跳过的候选补齐
+     */
+    private int[] selectNeighbors(List<Integer> candidatesAscending, int max, float[] base) {
+        int[] selected = new int[Math.min(max, candidatesAscending.size())];
+        int count = 0;
+        List<Integer> skipped = new ArrayList<>();
+        for (int candidate : candidatesAscending) {
+            if (count >= max) {
+                break;
+            }
+            float distanceToBase = vectors.distance(candidate, base);
+            boolean keep = true;
+            for (int i = 0; i < count; i++) {
+                if (vectors.distance(candidate, selected[i]) < distanceToBase) {
+                    keep = false;
+                    break;
+                }
+            }
+            if (keep) {
+                selected[count++] = candidate;
+            } else {
+                skipped.add(candidate);
+            }
+        }
+        for (int i = 0; i < skipped.size() && count < selected.length; i++) {
+            selected[count++] = skipped.get(i);
+        }
+        return count == selected.length ? selected : Arrays.copyOf(selected, count);
+    }
+
+    // 给 target 加一条指向 newNode 的边；超过上限时按启发式重新挑选（整体替换数组）
+    private void connect(int target, int newNode, int level, int maxConnections) {
+        Node node = nodes[target];
+        int[] current = node.links.get(level);
+        int[] extended = Arrays.copyOf(current, current.length + 1);
+        extended[current.length] = newNode;
+        if (extended.length <= maxConnections) {
+            node.links.set(level, extended);
+            return;
+        }
+        float[] targetVector = new float[vectors.dimensions()];
+        vectors.copy(target, targetVector);
+        FloatIntHeap sorted = FloatIntHeap.min(extended.length);
+        for (int neighbor : extended) {
+            sorted.push(vectors.distance(neighbor, targetVector), neighbor);
+        }
+        List<Integer> ascending = new ArrayList<>(extended.length);
+        while (sorted.size() > 0) {
+            ascending.add(sorted.pop());
+        }
+        node.links.set(level, selectNeighbors(ascending, maxConnections, targetVector));
+    }
+
+    private static boolean accepts(Node node, LongPredicate docFilter) {
+        return !node.deleted && (docFilter == null || docFilter.test(node.docId));
+    }
+
+    private int[] neighborsOf(int ordinal, int level) {
+        Node node = nodes[ordinal];
+        if (node == null || level > node.level) {
+            return NO_NEIGHBORS;
+        }
+        return node.links.get(level);
+    }
+
+    private int randomLevel() {
+        double random = ThreadLocalRandom.current().nextDouble();
+        return (int) (-Math.log(1 - random) * levelMultiplier);
+    }
+
+    private void ensureCapacity(int capacity) {
+        Node[] current = nodes;
+        if (capacity > current.length) {
+            nodes = Arrays.copyOf(current, Math.max(capacity, current.length + (current.length >> 1)));
+        }
+    }
+
+    /**
+     * 图节点：所属分片、层数、墓碑标记，以及每层的邻居数组（写时复制）
+     */
+    public static final class Node {
+
+        final long chunkId;
+        final long docId;
+        final int level;
+        final AtomicReferenceArray<int[]> links;
+        volatile boolean deleted;
+
+        Node(long chunkId, long docId, int level) {
+            this.chunkId = chunkId;
+            this.docId = docId;
+            this.level = level;
+            this.links = new AtomicReferenceArray<>(level + 1);
+            for (int l = 0; l <= level; l++) {
+                links.set(l, NO_NEIGHBORS);
+            }
+        }
+
+        public long chunkId() {
+            return chunkId;
+        }
+
+        public long docId() {
+            return docId;
+        }
+
+        public int level() {
+            return level;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        public int[] links(int level) {
+            return links.get(level);
+        }
+    }
+
+    public record EntryPoint(int ordinal, int level) {
+    }
+
+    /**
+     * 检索结果，distance 为 L2 距离（与 pgvector 的 <-> 一致）
+     */
+    public record Hit(int ordinal, long chunkId, long docId, float distance) {
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.demo.vector.hnsw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * HNSW 图的快照文件
+ * 布局：64 字节头 | 向量区（小端 float32，按序号连续）| 节点元数据 | 各层邻居
+ * 加载时向量区直接 mmap（只读），不读进堆，所以重启后不用重建图，也不需要先把向量全部读进内存；
+ * 头部和元数据用 DataOutputStream 写（大端），量小，加载时顺序读即可
+ * 写入时先写临时文件再原子替换，写一半崩溃不会损坏旧快照
+ */
+public final class HnswSnapshot {
+
+    private static final int MAGIC = 0x484E5357; // "HNSW"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+
+    private HnswSnapshot() {
+    }
+
+    /**
+     * 加载结果：图和快照覆盖到的最大分片 ID（之后的分片需要从数据库追平）
+     */
+    public record Loaded(HnswGraph graph, long maxChunkId) {
+    }
+
+    /**
+     * 把图的前 count 个节点写到 path
+     * 调用方需要保证写的过程中没有插入（读不受影响）
+     */
+    public static void write(HnswGraph graph, long maxChunkId, Path path) throws IOException {
+        OffHeapVectors vectors = graph.vectors();
+        int count = graph.size();
+        HnswGraph.EntryPoint entry = graph.entryPoint();
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(vectors.dimensions());
+            out.writeInt(graph.m());
+            out.writeInt(graph.efConstruction());
+            out.writeInt(count);
+            out.writeInt(entry == null ? -1 : entry.ordinal());
+            out.writeInt(entry == null ? -1 : entry.level());
+            out.writeLong(maxChunkId);
+            out.write(new byte[HEADER_BYTES - 40]);
+
+            vectors.writeTo(out, count);
+
+            for (int ordinal = 0; ordinal < count; ordinal++) {
+                HnswGraph.Node node = graph.node(ordinal);
+                out.writeLong(node.chunkId());
+                out.writeLong(node.docId());
+                out.writeInt(node.level());
+                out.writeBoolean(node.isDeleted());
+            }
+            for (int ordinal = 0; ordinal < count; ordinal++) {
+                HnswGraph.Node node = graph.node(ordinal);
+                for (int level = 0; level <= node.level(); level++) {
+                    int[] links = node.links(level);
+                    int valid = 0;
+                    for (int link : links) {
+                        if (link < count) {
+                            valid++;
+                        }
+                    }
+                    out.writeInt(valid);
+                    for (int link : links) {
+                        // 写快照期间不会有插入，这里只是保险：不写出指向快照外节点的边
+                        if (link < count) {
+                            out.writeInt(link);
+                        }
+                    }
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 加载快照；文件不存在或参数（维度）不一致时返回 null，由调用方全量重建
+     */
+    public static Loaded load(Path path, int expectedDimensions, int segmentCapacity) throws IOException {
+        if (!Files.isRegularFile(path)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            DataInputStream header = new DataInputStream(Channels.newInputStream(channel.position(0)));
+            if (header.readInt() != MAGIC || header.readInt() != VERSION) {
+                throw new IOException("不是有效的 HNSW 快照文件：" + path);
+            }
+            int dimensions = header.readInt();
+            int m = header.readInt();
+            int efConstruction = header.readInt();
+            int count = header.readInt();
+            int entryOrdinal = header.readInt();
+            int entryLevel = header.readInt();
+            long maxChunkId = header.readLong();
+            if (dimensions != expectedDimensions) {
+                return null;
+            }
+
+            // 单个 MappedByteBuffer 不能超过 2GB，按整数个向量分段映射
+            long rowBytes = (long) dimensions * Float.BYTES;
+            int perSegment = (int) Math.max(1, Integer.MAX_VALUE / rowBytes);
+            int segmentCount = (count + perSegment - 1) / perSegment;
+            FloatBuffer[] base = new FloatBuffer[segmentCount];
+            for (int s = 0; s < segmentCount; s++) {
+                long first = (long) s * perSegment;
+                long rows = Math.min(perSegment, count - first);
+                base[s] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + first * rowBytes, rows * rowBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN)
+                        .asFloatBuffer();
+            }
+            OffHeapVectors vectors = new OffHeapVectors(dimensions, segmentCapacity, base, perSegment, count);
+            HnswGraph graph = new HnswGraph(vectors, m, efConstruction);
+
+            channel.position(HEADER_BYTES + count * rowBytes);
+            InputStream stream = new BufferedInputStream(Channels.newInputStream(channel), 1 << 16);
+            DataInputStream in = new DataInputStream(stream);
+            int[] levels = new int[count];
+            for (int ordinal = 0; ordinal < count; ordinal++) {
+                long chunkId = in.readLong();
+                long docId = in.readLong();
+                levels[ordinal] = in.readInt();
+                boolean deleted = in.readBoolean();
+                graph.restoreNode(ordinal, chunkId, docId, levels[ordinal], deleted);
+            }
+            for (int ordinal = 0; ordinal < count; ordinal++) {
+                for (int level = 0; level <= levels[ordinal]; level++) {
+                    int[] links = new int[in.readInt()];
+                    for (int i = 0; i < links.length; i++) {
+                        links[i] = in.readInt();
+                    }
+                    graph.setLinks(ordinal, level, links);
+                }
+            }
+            graph.restoreFinished(count, entryOrdinal < 0 ? null : new HnswGraph.EntryPoint(entryOrdinal, entryLevel));
+            return new Loaded(graph, maxChunkId);
+        }
+    }
+}
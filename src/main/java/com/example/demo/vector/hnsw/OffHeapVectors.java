@@ -0,0 +1,152 @@
+package com.example.demo.vector.hnsw;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+/**
+ * 堆外向量存储：向量按序号连续存放在 direct / mmap 的 ByteBuffer 里，不产生 float[] 对象
+ * 开头的若干段可以是快照文件里 mmap 出来的向量区（只读，单个映射不能超过 2GB，所以按段映射），
+ * 之后追加的向量放在固定大小的 direct 段里
+ * 只允许一个线程追加；读是无锁的（绝对位置读取），调用方保证只读已发布的序号
+ */
+public final class OffHeapVectors {
+
+    private final int dimensions;
+    private final int segmentCapacity;   // 每个 direct 段能放的向量数
+    private final FloatBuffer[] base;    // 快照里 mmap 出来的向量段
+    private final int baseSegmentCapacity;
+    private final int baseCount;
+
+    private volatile FloatBuffer[] segments = new FloatBuffer[0];
+    private int size;
+    private long directBytes;
+
+    public OffHeapVectors(int dimensions, int segmentCapacity) {
+        this(dimensions, segmentCapacity, new FloatBuffer[0], 1, 0);
+    }
+
+    /**
+     * @param base 已映射的向量段，除最后一段外每段恰好 baseSegmentCapacity 个向量
+     * @param baseCount 映射段里的向量总数
+     */
+    public OffHeapVectors(int dimensions, int segmentCapacity, FloatBuffer[] base, int baseSegmentCapacity, int baseCount) {
+        this.dimensions = dimensions;
+        this.segmentCapacity = Math.max(1, segmentCapacity);
+        this.base = base;
+        this.baseSegmentCapacity = Math.max(1, baseSegmentCapacity);
+        this.baseCount = baseCount;
+        this.size = baseCount;
+    }
+
+    public int dimensions() {
+        return dimensions;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 追加一个向量，返回它的序号（单线程调用）
+     */
+    public int add(float[] vector) {
+        if (vector.length != dimensions) {
+            throw new IllegalArgumentException("向量维度不一致：" + vector.length + " / " + dimensions);
+        }
+        int ordinal = size;
+        int local = ordinal - baseCount;
+        int segment = local / segmentCapacity;
+        FloatBuffer[] current = segments;
+        if (segment >= current.length) {
+            FloatBuffer[] grown = Arrays.copyOf(current, segment + 1);
+            long bytes = (long) segmentCapacity * dimensions * Float.BYTES;
+            grown[segment] = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            directBytes += bytes;
+            current = grown;
+            segments = grown;
+        }
+        current[segment].put((local % segmentCapacity) * dimensions, vector);
+        size = ordinal + 1;
+        return ordinal;
+    }
+
+    /**
+     * 已存储向量与查询向量的 L2 距离平方
+     */
+    public float distance(int ordinal, float[] query) {
+        FloatBuffer buffer = bufferOf(ordinal);
+        int offset = offsetOf(ordinal);
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            float d = buffer.get(offset + i) - query[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    /**
+     * 两个已存储向量之间的 L2 距离平方
+     */
+    public float distance(int a, int b) {
+        FloatBuffer bufferA = bufferOf(a);
+        FloatBuffer bufferB = bufferOf(b);
+        int offsetA = offsetOf(a);
+        int offsetB = offsetOf(b);
+        float sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            float d = bufferA.get(offsetA + i) - bufferB.get(offsetB + i);
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    /**
+     * 把向量复制到 target（target 长度为维度）
+     */
+    public void copy(int ordinal, float[] target) {
+        bufferOf(ordinal).get(offsetOf(ordinal), target, 0, dimensions);
+    }
+
+    /**
+     * 按序号顺序把前 count 个向量写出（小端 float32）
+     */
+    public void writeTo(DataOutput out, int count) throws IOException {
+        ByteBuffer row = ByteBuffer.allocate(dimensions * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        float[] vector = new float[dimensions];
+        for (int ordinal = 0; ordinal < count; ordinal++) {
+            copy(ordinal, vector);
+            row.clear();
+            row.asFloatBuffer().put(vector);
+            out.write(row.array());
+        }
+    }
+
+    /**
+     * direct 内存占用（mmap 部分由操作系统页缓存管理，不计入）
+     */
+    public long directBytes() {
+        return directBytes;
+    }
+
+    public long mappedBytes() {
+        return (long) baseCount * dimensions * Float.BYTES;
+    }
+
+    private FloatBuffer bufferOf(int ordinal) {
+        if (ordinal < baseCount) {
+            return base[ordinal / baseSegmentCapacity];
+        }
+        return segments[(ordinal - baseCount) / segmentCapacity];
+    }
+
+    private int offsetOf(int ordinal) {
+        if (ordinal < baseCount) {
+            return (ordinal % baseSegmentCapacity) * dimensions;
+        }
+        return ((ordinal - baseCount) % segmentCapacity) * dimensions;
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.demo.vector.kernel;
+
+/**
+ * 向量距离计算内核
+ */
+public interface DistanceKernel {
+
+    /**
+     * a[aOffset, aOffset + length) 与 b[bOffset, bOffset + length) 的 L2 距离平方
+     */
+    float l2Squared(float[] a, int aOffset, float[] b, int bOffset, int length);
+
+    String name();
+}
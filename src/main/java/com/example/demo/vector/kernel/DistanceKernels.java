@@ -0,0 +1,38 @@
+package com.example.demo.vector.kernel;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 选择距离计算内核：启用了 jdk.incubator.vector 模块时用 SIMD 实现，否则退回标量实现
+ */
+public final class DistanceKernels {
+
+    private static final Logger log = LoggerFactory.getLogger(DistanceKernels.class);
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+    private DistanceKernels() {
+    }
+
+    public static DistanceKernel create(boolean simdEnabled) {
+        if (simdEnabled) {
+            if (ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+                try {
+                    return (DistanceKernel) Class.forName(DistanceKernels.class.getPackageName() + ".SimdDistanceKernel")
+                            .getDeclaredConstructor()
+                            .newInstance();
+                } catch (ReflectiveOperationException | LinkageError e) {
+                    log.warn("加载 SIMD 距离内核失败，使用标量实现: {}", e.toString());
+                }
+            } else {
+                log.info("未启用 {} 模块（启动参数 --add-modules {}），距离计算使用标量实现", VECTOR_MODULE, VECTOR_MODULE);
+            }
+        }
+        return scalar();
+    }
+
+    public static DistanceKernel scalar() {
+        return new ScalarDistanceKernel();
+    }
+}
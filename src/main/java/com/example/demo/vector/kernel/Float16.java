@@ -0,0 +1,70 @@
+package com.example.demo.vector.kernel;
+
+/**
+ * IEEE 754 半精度浮点与 float 的互转（JDK 17 还没有 Float.floatToFloat16）
+ * 编码按就近舍入（相同时取偶数），超出范围的转为无穷大；解码查 65536 项的表
+ */
+public final class Float16 {
+
+    private static final float[] TO_FLOAT = new float[1 << 16];
+
+    static {
+        for (int i = 0; i < TO_FLOAT.length; i++) {
+            TO_FLOAT[i] = decode(i);
+        }
+    }
+
+    private Float16() {
+    }
+
+    public static float toFloat(short half) {
+        return TO_FLOAT[half & 0xffff];
+    }
+
+    public static short fromFloat(float value) {
+        int bits = Float.floatToRawIntBits(value);
+        int sign = (bits >>> 16) & 0x8000;
+        int abs = bits & 0x7fffffff;
+        if (abs >= 0x7f800000) {
+            // 无穷大 / NaN
+            return (short) (sign | 0x7c00 | (abs > 0x7f800000 ? 0x200 : 0));
+        }
+        if (abs >= 0x477ff000) {
+            // >= 65520 舍入后超过半精度最大值 65504
+            return (short) (sign | 0x7c00);
+        }
+        if (abs < 0x38800000) {
+            // 小于 2^-14：半精度的非规格化数，值 = m * 2^-24
+            if (abs < 0x33000000) {
+                return (short) sign;
+            }
+            int exponent = abs >>> 23;
+            int mantissa = (abs & 0x7fffff) | 0x800000;
+            int shift = 126 - exponent;
+            int m = mantissa >>> shift;
+            int remainder = mantissa & ((1 << shift) - 1);
+            int halfway = 1 << (shift - 1);
+            if (remainder > halfway || (remainder == halfway && (m & 1) == 1)) {
+                m++;
+            }
+            return (short) (sign | m);
+        }
+        // 规格化数：尾数保留高 10 位并就近舍入，进位会自然进到指数上
+        abs += 0xfff + ((abs >>> 13) & 1);
+        return (short) (sign | ((abs - 0x38000000) >>> 13));
+    }
+
+    private static float decode(int half) {
+        int sign = (half & 0x8000) << 16;
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        if (exponent == 0) {
+            float value = mantissa * 0x1p-24f;
+            return sign != 0 ? -value : value;
+        }
+        if (exponent == 31) {
+            return Float.intBitsToFloat(sign | 0x7f800000 | (mantissa << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exponent + 112) << 23) | (mantissa << 13));
+    }
+}
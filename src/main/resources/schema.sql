@@ -0,0 +1,31 @@
+-- 会话 / 消息表（走 R2DBC，不再由 Hibernate 建表）；启动时执行（spring.sql.init.mode=always），每条语句都可以重复执行
+
+CREATE SEQUENCE IF NOT EXISTS message_seq INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS conversation (
+    id               BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    title            VARCHAR(255),
+    created_at       TIMESTAMP,
+    summary          TEXT,
+    summarized_up_to BIGINT,
+    summarized_up_to_at TIMESTAMP
+);
+
+ALTER TABLE conversation ADD COLUMN IF NOT EXISTS summary TEXT;
+ALTER TABLE conversation ADD COLUMN IF NOT EXISTS summarized_up_to BIGINT;
+ALTER TABLE conversation ADD COLUMN IF NOT EXISTS summarized_up_to_at TIMESTAMP;
+
+CREATE TABLE IF NOT EXISTS message (
+    id              BIGINT PRIMARY KEY DEFAULT nextval('message_seq'),
+    conversation_id BIGINT       NOT NULL REFERENCES conversation (id),
+    role            VARCHAR(20)  NOT NULL,
+    content         TEXT         NOT NULL,
+    created_at      TIMESTAMP
+);
+
+-- 旧表的 id 是 IDENTITY 列：改为用 message_seq 作默认值，与 MessageJdbcRepository 预取的 ID 块来自同一个序列
+ALTER TABLE message ALTER COLUMN id DROP IDENTITY IF EXISTS;
+ALTER TABLE message ALTER COLUMN id SET DEFAULT nextval('message_seq');
+
+-- 取最近 N 条消息（MessageRepository.findRecentByConversationId）走这个索引倒序扫描
+CREATE INDEX IF NOT EXISTS idx_message_conversation_created ON message (conversation_id, created_at, id);